@@ -2,6 +2,7 @@ package org.surfsite.gexporter;
 
 import android.Manifest;
 import android.app.Application;
+import android.content.ComponentCallbacks2;
 import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
@@ -11,6 +12,7 @@ import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.Environment;
+import android.os.FileObserver;
 import android.provider.OpenableColumns;
 import android.support.annotation.Nullable;
 import android.support.v4.app.ActivityCompat;
@@ -62,6 +64,8 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
 
     @Nullable
     private WebServer server = null;
+    @Nullable
+    private FileObserver mFileObserver = null;
     private TextView mTextView;
     private Spinner mSpeedUnit;
     private EditText mSpeed;
@@ -160,6 +164,7 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
                         }
                     }
                     mGpx2FitOptions.setSpeed(speed);
+                    publishOptions();
                 }
             }
         });
@@ -193,8 +198,10 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
 
             @Override
             public void afterTextChanged(Editable editable) {
-                if (editable.length() > 0 && mGpx2FitOptions != null && mReducePoints.isChecked())
+                if (editable.length() > 0 && mGpx2FitOptions != null && mReducePoints.isChecked()) {
                     mGpx2FitOptions.setMaxPoints(Integer.valueOf(editable.toString()));
+                    publishOptions();
+                }
             }
         });
 
@@ -286,6 +293,16 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
                 mGpx2FitOptions.setWalkingGrade(mUseWalkingGrade.isChecked());
                 break;
         }
+        publishOptions();
+    }
+
+    /**
+     * Hands the edited options to the server, which converts with an immutable copy of them, so the
+     * conversions running meanwhile are not affected.
+     */
+    private void publishOptions() {
+        if (server != null)
+            server.setOptions(mGpx2FitOptions.snapshot());
     }
 
     @Override
@@ -319,9 +336,26 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
             throw new FileNotFoundException("Failed to delete file: " + f);
     }
 
+    private void watchDirectory(String rootdir, final DirectoryCatalog catalog) {
+        if (mFileObserver != null)
+            mFileObserver.stopWatching();
+        mFileObserver = new FileObserver(rootdir, FileObserver.CLOSE_WRITE | FileObserver.CREATE
+                | FileObserver.DELETE | FileObserver.MOVED_FROM | FileObserver.MOVED_TO) {
+            @Override
+            public void onEvent(int event, @Nullable String path) {
+                catalog.fileChanged(path, (event & (FileObserver.CLOSE_WRITE | FileObserver.MOVED_TO)) != 0);
+            }
+        };
+        mFileObserver.startWatching();
+    }
+
     @Override
     public void onStop() {
         super.onStop();
+        if (mFileObserver != null) {
+            mFileObserver.stopWatching();
+            mFileObserver = null;
+        }
         if (server != null) {
             server.stop();
             server = null;
@@ -329,6 +363,18 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
         }
     }
 
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (server == null)
+            return;
+        // the server only runs in the foreground, onStop stops it before any background level
+        if (level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL)
+            server.trimMemory(0);
+        else if (level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW)
+            server.trimMemory(0.5);
+    }
+
     public void save(Gpx2FitOptions options) {
         Application app = getApplication();
         SharedPreferences mPrefs=app.getSharedPreferences(app.getApplicationInfo().name, Context.MODE_PRIVATE);
@@ -365,6 +411,7 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
         super.onResume();  // Always call the superclass method first
 
         mGpx2FitOptions = load();
+        publishOptions();
 
         setSpeedText(mGpx2FitOptions.getSpeedUnit());
 
@@ -534,8 +581,9 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
         }
 
         try {
-            server = new WebServer(new File(rootdir), getCacheDir(), 22222, mGpx2FitOptions);
+            server = new WebServer(new File(rootdir), getCacheDir(), 22222, mGpx2FitOptions.snapshot());
             server.start();
+            watchDirectory(rootdir, server.getCatalog());
             Log.info("Web server initialized.");
         } catch (IOException | NoSuchAlgorithmException e) {
             Log.error("The server could not start: {}", e);
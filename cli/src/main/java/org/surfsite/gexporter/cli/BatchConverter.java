@@ -0,0 +1,232 @@
+package org.surfsite.gexporter.cli;
+
+import org.surfsite.gexporter.DirectoryCatalog;
+import org.surfsite.gexporter.Gpx2Fit;
+import org.surfsite.gexporter.Gpx2FitOptions;
+import org.surfsite.gexporter.WebServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Converts all GPX files below a directory to FIT files below another one, keeping the directory
+ * structure, e.g. to pre-build a course library on a workstation.
+ * <p>
+ * Every directory and every file is a task of a fork/join pool with one thread per core, so a deep
+ * tree and a single directory full of files both keep all cores busy. Files whose FIT file is newer
+ * than the GPX file are skipped unless {@code --force} is given.
+ */
+public class BatchConverter {
+    private static final String USAGE = "Usage: gpx2fit-batch [options] <gpx dir> <fit dir>\n"
+            + "  --speed <km/h>          speed for tracks without times\n"
+            + "  --force-speed           use the speed even if the track has times\n"
+            + "  --walking-grade         adjust the speed to the grade\n"
+            + "  --inject-course-points  add course points\n"
+            + "  --max-points <n>        simplify tracks to at most n points, 0 keeps all\n"
+            + "  --2d                    ignore elevation for distances\n"
+            + "  --threads <n>           number of threads, defaults to the number of cores\n"
+            + "  --force                 convert files whose FIT file is up to date too\n";
+
+    private final Gpx2FitOptions.Snapshot mOptions;
+    private final boolean mForce;
+    private final AtomicLong mFiles = new AtomicLong();
+    private final AtomicLong mPoints = new AtomicLong();
+    private final AtomicLong mSkipped = new AtomicLong();
+    private final AtomicLong mFailed = new AtomicLong();
+
+    public BatchConverter(Gpx2FitOptions.Snapshot options, boolean force) {
+        mOptions = options;
+        mForce = force;
+    }
+
+    public static void main(String[] args) {
+        Gpx2FitOptions options = new Gpx2FitOptions();
+        boolean force = false;
+        int threads = Runtime.getRuntime().availableProcessors();
+        List<String> dirs = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--speed":
+                        options.setSpeed(Double.parseDouble(args[++i]) / 3.6);
+                        break;
+                    case "--force-speed":
+                        options.setForceSpeed(true);
+                        break;
+                    case "--walking-grade":
+                        options.setWalkingGrade(true);
+                        break;
+                    case "--inject-course-points":
+                        options.setInjectCoursePoints(true);
+                        break;
+                    case "--max-points":
+                        options.setMaxPoints(Integer.parseInt(args[++i]));
+                        break;
+                    case "--2d":
+                        options.setUse3dDistance(false);
+                        break;
+                    case "--threads":
+                        threads = Integer.parseInt(args[++i]);
+                        break;
+                    case "--force":
+                        force = true;
+                        break;
+                    default:
+                        if (args[i].startsWith("-"))
+                            throw new IllegalArgumentException("Unknown option " + args[i]);
+                        dirs.add(args[i]);
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+            System.err.print(USAGE);
+            System.exit(2);
+        }
+        if (dirs.size() != 2 || threads < 1) {
+            System.err.print(USAGE);
+            System.exit(2);
+        }
+        File src = new File(dirs.get(0));
+        if (!src.isDirectory()) {
+            System.err.println(src + " is not a directory");
+            System.exit(2);
+        }
+
+        BatchConverter converter = new BatchConverter(options.snapshot(), force);
+        long start = System.nanoTime();
+        converter.convert(src, new File(dirs.get(1)), threads);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.println(String.format(Locale.US,
+                "%d files, %d points in %.2f s: %.1f files/s, %.0f points/s on %d threads (%d up to date, %d failed)",
+                converter.getFiles(), converter.getPoints(), seconds,
+                converter.getFiles() / seconds, converter.getPoints() / seconds, threads,
+                converter.getSkipped(), converter.getFailed()));
+        System.exit(converter.getFailed() > 0 ? 1 : 0);
+    }
+
+    /**
+     * Converts the tree below {@code srcDir} into {@code dstDir} on {@code threads} threads.
+     */
+    public void convert(File srcDir, File dstDir, int threads) {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.invoke(new DirectoryTask(srcDir, dstDir));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    public long getFiles() {
+        return mFiles.get();
+    }
+
+    public long getPoints() {
+        return mPoints.get();
+    }
+
+    public long getSkipped() {
+        return mSkipped.get();
+    }
+
+    public long getFailed() {
+        return mFailed.get();
+    }
+
+    private void convertFile(File gpx, File fit) {
+        if (!mForce && fit.isFile() && fit.length() > 0 && fit.lastModified() >= gpx.lastModified()) {
+            mSkipped.incrementAndGet();
+            return;
+        }
+        File dir = fit.getParentFile();
+        File tmp = new File(dir, fit.getName() + ".tmp");
+        try {
+            // concurrent calls for the same directory may race, only the result counts
+            //noinspection ResultOfMethodCallIgnored
+            dir.mkdirs();
+            if (!dir.isDirectory())
+                throw new IOException("Creating " + dir + " failed");
+
+            // large files are scanned in chunks, which idle workers of the pool steal
+            ForkJoinPool pool = ForkJoinTask.getPool();
+            Gpx2Fit gpx2Fit = pool != null
+                    ? new Gpx2Fit(WebServer.getCourseName(gpx.getName()), gpx, mOptions, pool, pool.getParallelism())
+                    : new Gpx2Fit(WebServer.getCourseName(gpx.getName()), gpx, mOptions);
+            // like the server, so both produce the same bytes
+            gpx2Fit.setTimeCreated(gpx.lastModified());
+            gpx2Fit.writeFit(tmp);
+            if (!tmp.renameTo(fit)) {
+                //noinspection ResultOfMethodCallIgnored
+                fit.delete();
+                if (!tmp.renameTo(fit))
+                    throw new IOException("Renaming " + tmp + " failed");
+            }
+            mFiles.incrementAndGet();
+            mPoints.addAndGet(gpx2Fit.getTrack().size());
+        } catch (Exception e) {
+            mFailed.incrementAndGet();
+            //noinspection ResultOfMethodCallIgnored
+            tmp.delete();
+            System.err.println(gpx + ": " + e);
+        }
+    }
+
+    private static String getFitName(String gpxName) {
+        return gpxName.substring(0, gpxName.length() - 4) + ".fit";
+    }
+
+    private class DirectoryTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final File mSrc;
+        private final File mDst;
+
+        DirectoryTask(File src, File dst) {
+            mSrc = src;
+            mDst = dst;
+        }
+
+        @Override
+        protected void compute() {
+            File[] children = mSrc.listFiles();
+            if (children == null) {
+                mFailed.incrementAndGet();
+                System.err.println(mSrc + ": not readable");
+                return;
+            }
+            Arrays.sort(children);
+            List<RecursiveAction> tasks = new ArrayList<>();
+            for (File child : children) {
+                if (child.isDirectory())
+                    tasks.add(new DirectoryTask(child, new File(mDst, child.getName())));
+                else if (DirectoryCatalog.isGpx(child.getName()))
+                    tasks.add(new FileTask(child, new File(mDst, getFitName(child.getName()))));
+            }
+            invokeAll(tasks);
+        }
+    }
+
+    private class FileTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final File mGpx;
+        private final File mFit;
+
+        FileTask(File gpx, File fit) {
+            mGpx = gpx;
+            mFit = fit;
+        }
+
+        @Override
+        protected void compute() {
+            convertFile(mGpx, mFit);
+        }
+    }
+}
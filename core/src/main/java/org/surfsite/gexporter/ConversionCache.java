@@ -0,0 +1,545 @@
+package org.surfsite.gexporter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps track of FIT files generated from GPX sources, so a repeated request for an
+ * unchanged source with the same effective options can be served without converting again.
+ * <p>
+ * Entries are keyed by the content of the source file (its size and a SHA-1 of all of its bytes), the
+ * course name and the fingerprint of the {@link Gpx2FitOptions}. Neither the path nor the modification
+ * time is part of the key, as shared URIs are copied to a new directory with a fresh mtime every time.
+ * They only identify a source whose hash is already known, so it is read once per version.
+ * <p>
+ * The files are bounded by their total size, the least recently used ones are deleted first. Files
+ * are written to a temporary file and renamed once complete, then recorded with their length and
+ * CRC-32 in an append-only journal, which is replayed on startup so the cache survives restarts.
+ * Files found on startup are verified against their checksum before they are served the first
+ * time, anything left over by a crash is deleted.
+ */
+public class ConversionCache {
+    private static final Logger Log = LoggerFactory.getLogger(ConversionCache.class);
+
+    // sources whose content hash is remembered
+    private static final int CONTENT_HASHES = 256;
+
+    static final String JOURNAL = "conversions.journal";
+    private static final String MAGIC = "gexporter.ConversionCache 1";
+    private static final String PUT = "PUT";
+    private static final String READ = "READ";
+    private static final String DEL = "DEL";
+
+    public static final long DEFAULT_MAX_BYTES = 64 * 1024 * 1024;
+    // journal lines beyond one per entry before the journal is rewritten
+    private static final int MAX_REDUNDANT_LINES = 2000;
+
+    private static class Entry {
+        final long length;
+        final long crc;
+        volatile String etag;
+        // the file was written by this process or its checksum was checked
+        volatile boolean verified;
+
+        Entry(long length, long crc, String etag, boolean verified) {
+            this.length = length;
+            this.crc = crc;
+            this.etag = etag;
+            this.verified = verified;
+        }
+    }
+
+    private final File mCacheDir;
+    private final File mJournalFile;
+    private final String mSuffix;
+    // in access order, the least recently used entry first
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private long mMaxBytes;
+    private long mSize;
+    private Writer mJournal;
+    private int mRedundantLines;
+    private final AtomicLong mTempFiles = new AtomicLong();
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+    private final AtomicLong mEvictions = new AtomicLong();
+    // content hashes by path, size and mtime, so a repeated request does not read its source again
+    private final LinkedHashMap<String, String> mContentHashes = new LinkedHashMap<String, String>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > CONTENT_HASHES;
+        }
+    };
+
+    public ConversionCache(File cacheDir) {
+        this(cacheDir, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Opens the cache in {@code cacheDir} with the entries of its journal.
+     *
+     * @param maxBytes total size of the cached files
+     */
+    public ConversionCache(File cacheDir, long maxBytes) {
+        this(cacheDir, maxBytes, ".fit");
+    }
+
+    /**
+     * Opens a cache of other files than FIT files in {@code cacheDir}, which it must not share.
+     *
+     * @param suffix ending of the names of the cached files
+     */
+    ConversionCache(File cacheDir, long maxBytes, String suffix) {
+        mCacheDir = cacheDir;
+        mJournalFile = new File(cacheDir, JOURNAL);
+        mMaxBytes = maxBytes;
+        mSuffix = suffix;
+        synchronized (this) {
+            replay();
+        }
+    }
+
+    /**
+     * Builds the cache key for converting {@code src} to a course named {@code courseName}.
+     */
+    public String getKey(File src, String courseName, Gpx2FitOptions.Snapshot options) throws IOException {
+        return getKey(src, -1, courseName, options);
+    }
+
+    /**
+     * Builds the cache key for converting track or route {@code track} of {@code src}, or the first one
+     * with points if it is negative. Only reads {@code src} the first time it is seen with its size and
+     * modification time.
+     */
+    public String getKey(File src, int track, String courseName, Gpx2FitOptions.Snapshot options) throws IOException {
+        long length = src.length();
+        String identity = src.getAbsolutePath() + '|' + length + '|' + src.lastModified();
+        String hash;
+        synchronized (mContentHashes) {
+            hash = mContentHashes.get(identity);
+        }
+        if (hash == null) {
+            hash = Digests.sha1Hex(src);
+            synchronized (mContentHashes) {
+                mContentHashes.put(identity, hash);
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append(length).append('|')
+                .append(hash).append('|')
+                .append(courseName).append('|')
+                .append(options.getFingerprint());
+        if (track >= 0)
+            sb.append('|').append(track);
+        return Digests.sha1Hex(sb.toString().getBytes("UTF-8"));
+    }
+
+    /**
+     * Returns the cached FIT file for {@code key}, or null if it has to be generated.
+     */
+    public File get(String key) {
+        Entry entry;
+        synchronized (this) {
+            entry = mEntries.get(key);
+        }
+        File fit = getFile(key);
+        if (entry != null && verify(key, entry, fit)) {
+            synchronized (this) {
+                if (mEntries.containsKey(key))
+                    journal(READ, key);
+            }
+            mHits.incrementAndGet();
+            Log.debug("Cache hit {}", fit.getName());
+            return fit;
+        }
+        mMisses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Whether a FIT file for {@code key} is cached, without counting as a request.
+     */
+    public synchronized boolean contains(String key) {
+        return mEntries.containsKey(key) && getFile(key).exists();
+    }
+
+    /**
+     * Returns a new temporary file for generating the FIT file of {@code key}, which is added to the
+     * cache by {@link #commit} once complete.
+     */
+    public File newTempFile(String key) {
+        return new File(mCacheDir, key + mSuffix + '.' + mTempFiles.incrementAndGet() + ".tmp");
+    }
+
+    /**
+     * Adds the complete FIT file {@code tmp}, created by {@link #newTempFile}, for {@code key}.
+     *
+     * @return the cached file
+     */
+    public File commit(String key, File tmp) throws IOException {
+        CRC32 crc = new CRC32();
+        MessageDigest sha1 = sha1();
+        byte[] buf = new byte[8192];
+        InputStream in = new FileInputStream(tmp);
+        try {
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                crc.update(buf, 0, n);
+                sha1.update(buf, 0, n);
+            }
+        } finally {
+            in.close();
+        }
+        return install(key, tmp, tmp.length(), crc.getValue(), "\"" + Digests.toHex(sha1.digest()) + "\"");
+    }
+
+    /**
+     * Adds a FIT file generated in memory for {@code key}, with the entity tag of its content.
+     *
+     * @return the cached file
+     */
+    public File put(String key, byte[] data, String etag) throws IOException {
+        File tmp = newTempFile(key);
+        try {
+            FileOutputStream out = new FileOutputStream(tmp);
+            try {
+                out.write(data);
+            } finally {
+                out.close();
+            }
+            CRC32 crc = new CRC32();
+            crc.update(data, 0, data.length);
+            return install(key, tmp, data.length, crc.getValue(), etag);
+        } finally {
+            //noinspection ResultOfMethodCallIgnored
+            tmp.delete();
+        }
+    }
+
+    private File install(String key, File tmp, long length, long crc, String etag) throws IOException {
+        File fit = getFile(key);
+        if (!tmp.renameTo(fit)) {
+            //noinspection ResultOfMethodCallIgnored
+            fit.delete();
+            if (!tmp.renameTo(fit))
+                throw new IOException("Renaming " + tmp + " failed");
+        }
+        synchronized (this) {
+            Entry previous = mEntries.put(key, new Entry(length, crc, etag, true));
+            if (previous != null) {
+                mSize -= previous.length;
+                mRedundantLines++;
+            }
+            mSize += length;
+            journal(PUT, key + ' ' + length + ' ' + Long.toHexString(crc) + ' ' + (etag != null ? etag : "-"));
+            trim();
+        }
+        return fit;
+    }
+
+    /**
+     * Entity tag of the cached FIT file for {@code key}, a hash of its content.
+     */
+    public String getETag(String key) throws IOException {
+        Entry entry;
+        synchronized (this) {
+            entry = mEntries.get(key);
+        }
+        if (entry == null)
+            return null;
+        // entries of journals written without one
+        if (entry.etag == null)
+            entry.etag = "\"" + Digests.sha1Hex(getFile(key)) + "\"";
+        return entry.etag;
+    }
+
+    /**
+     * Sets the total size of the cached files, deleting the least recently used ones if needed.
+     */
+    public synchronized void setMaxBytes(long maxBytes) {
+        mMaxBytes = maxBytes;
+        trim();
+    }
+
+    public synchronized long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    /**
+     * Total size of the cached files.
+     */
+    public synchronized long getSize() {
+        return mSize;
+    }
+
+    public long getEvictions() {
+        return mEvictions.get();
+    }
+
+    private File getFile(String key) {
+        return new File(mCacheDir, key + mSuffix);
+    }
+
+    /**
+     * Checks that the file of {@code entry} is still there and, the first time, that its content
+     * matches the checksum. Drops the entry otherwise.
+     */
+    private boolean verify(String key, Entry entry, File fit) {
+        boolean valid;
+        if (entry.verified) {
+            valid = fit.exists();
+        } else {
+            valid = fit.length() == entry.length && checksum(fit) == entry.crc;
+            entry.verified = valid;
+        }
+        if (!valid) {
+            Log.warn("Dropping invalid cache entry {}", fit.getName());
+            synchronized (this) {
+                if (mEntries.get(key) == entry)
+                    remove(key);
+            }
+        }
+        return valid;
+    }
+
+    private static long checksum(File file) {
+        CRC32 crc = new CRC32();
+        byte[] buf = new byte[8192];
+        try {
+            InputStream in = new FileInputStream(file);
+            try {
+                int n;
+                while ((n = in.read(buf)) > 0)
+                    crc.update(buf, 0, n);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return -1;
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Deletes the least recently used files until the cache fits its size, always keeping the most
+     * recent one.
+     */
+    private void trim() {
+        Iterator<Map.Entry<String, Entry>> it = mEntries.entrySet().iterator();
+        while (mSize > mMaxBytes && mEntries.size() > 1 && it.hasNext()) {
+            Map.Entry<String, Entry> eldest = it.next();
+            String key = eldest.getKey();
+            it.remove();
+            delete(key, eldest.getValue());
+            mEvictions.incrementAndGet();
+            Log.debug("Evicted {}", key);
+        }
+    }
+
+    /**
+     * Deletes the file of {@code key}, e.g. once it is superseded.
+     */
+    public synchronized void remove(String key) {
+        Entry entry = mEntries.remove(key);
+        if (entry != null)
+            delete(key, entry);
+    }
+
+    private void delete(String key, Entry entry) {
+        mSize -= entry.length;
+        //noinspection ResultOfMethodCallIgnored
+        getFile(key).delete();
+        journal(DEL, key);
+    }
+
+    /**
+     * Appends a line to the journal, rewriting it once most of its lines are redundant.
+     */
+    private void journal(String op, String args) {
+        if (mJournal == null)
+            return;
+        try {
+            mJournal.write(op + ' ' + args + '\n');
+            // losing reads to a crash only changes the order of eviction
+            if (!op.equals(READ))
+                mJournal.flush();
+            if (!op.equals(PUT))
+                mRedundantLines++;
+            if (mRedundantLines > MAX_REDUNDANT_LINES && mRedundantLines > mEntries.size())
+                rewriteJournal();
+        } catch (IOException e) {
+            Log.error("Writing {} failed, the cache will not survive a restart: {}", mJournalFile, e.toString());
+            closeJournal();
+        }
+    }
+
+    /**
+     * Reads the journal of a previous run, keeping the entries whose file is still there with its
+     * length. Files of other entries and temporary files are deleted.
+     */
+    private void replay() {
+        if (!mCacheDir.isDirectory() && !mCacheDir.mkdirs())
+            Log.error("Creating {} failed", mCacheDir);
+        if (mJournalFile.isFile()) {
+            try {
+                BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(mJournalFile),
+                        "UTF-8"));
+                try {
+                    if (MAGIC.equals(in.readLine())) {
+                        String line;
+                        // a line cut short by a crash ends the journal
+                        while ((line = in.readLine()) != null && replay(line.split(" "))) {
+                        }
+                    }
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                Log.error("Reading {} failed: {}", mJournalFile, e.toString());
+            }
+        }
+
+        mSize = 0;
+        Iterator<Map.Entry<String, Entry>> it = mEntries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Entry> entry = it.next();
+            if (getFile(entry.getKey()).length() != entry.getValue().length)
+                it.remove();
+            else
+                mSize += entry.getValue().length;
+        }
+        File[] files = mCacheDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                boolean orphan = name.endsWith(mSuffix)
+                        && !mEntries.containsKey(name.substring(0, name.length() - mSuffix.length()));
+                if (orphan || (name.contains(mSuffix + '.') && name.endsWith(".tmp"))) {
+                    //noinspection ResultOfMethodCallIgnored
+                    file.delete();
+                }
+            }
+        }
+        Log.info("Cache {}: {} files, {} bytes", mCacheDir.getName(), mEntries.size(), mSize);
+
+        try {
+            rewriteJournal();
+        } catch (IOException e) {
+            Log.error("Writing {} failed, the cache will not survive a restart: {}", mJournalFile, e.toString());
+        }
+        trim();
+    }
+
+    private boolean replay(String[] line) {
+        if (line.length == 5 && line[0].equals(PUT)) {
+            try {
+                String etag = line[4].equals("-") ? null : line[4];
+                Entry previous = mEntries.put(line[1],
+                        new Entry(Long.parseLong(line[2]), Long.parseLong(line[3], 16), etag, false));
+                if (previous != null)
+                    mRedundantLines++;
+                return true;
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+        if (line.length == 2 && line[0].equals(READ)) {
+            mEntries.get(line[1]);
+            return true;
+        }
+        if (line.length == 2 && line[0].equals(DEL)) {
+            mEntries.remove(line[1]);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Replaces the journal by one with a line per entry, in the order of their use.
+     */
+    private void rewriteJournal() throws IOException {
+        closeJournal();
+        File tmp = new File(mCacheDir, JOURNAL + ".tmp");
+        Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8"));
+        try {
+            out.write(MAGIC + '\n');
+            for (Map.Entry<String, Entry> entry : mEntries.entrySet()) {
+                Entry e = entry.getValue();
+                out.write(PUT + ' ' + entry.getKey() + ' ' + e.length + ' ' + Long.toHexString(e.crc) + ' '
+                        + (e.etag != null ? e.etag : "-") + '\n');
+            }
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(mJournalFile)) {
+            //noinspection ResultOfMethodCallIgnored
+            mJournalFile.delete();
+            if (!tmp.renameTo(mJournalFile))
+                throw new IOException("Renaming " + tmp + " failed");
+        }
+        mRedundantLines = 0;
+        mJournal = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(mJournalFile, true), "UTF-8"));
+    }
+
+    private void closeJournal() {
+        if (mJournal == null)
+            return;
+        try {
+            mJournal.close();
+        } catch (IOException e) {
+            Log.debug("Closing {} failed: {}", mJournalFile, e.toString());
+        }
+        mJournal = null;
+    }
+
+    /**
+     * Writes all pending journal lines, e.g. before the process may be killed.
+     */
+    public synchronized void flush() {
+        if (mJournal == null)
+            return;
+        try {
+            mJournal.flush();
+        } catch (IOException e) {
+            Log.error("Writing {} failed: {}", mJournalFile, e.toString());
+        }
+    }
+
+    private static MessageDigest sha1() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform has to provide SHA-1
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public long getHits() {
+        return mHits.get();
+    }
+
+    public long getMisses() {
+        return mMisses.get();
+    }
+
+    public synchronized int size() {
+        return mEntries.size();
+    }
+}
@@ -0,0 +1,149 @@
+package org.surfsite.gexporter;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs CPU heavy conversions on a fixed number of threads with a bounded queue, so a burst of requests
+ * cannot start more conversions than there are cores. When the queue is full, {@link #execute} fails fast
+ * with a {@link RejectedExecutionException} and the caller can ask the client to come back later.
+ */
+public class ConversionExecutor {
+    private final ThreadPoolExecutor mExecutor;
+    private final int mThreads;
+    private final AtomicLong mRejected = new AtomicLong();
+    private final AtomicLong mCompleted = new AtomicLong();
+    private final AtomicLong mTotalWaitMillis = new AtomicLong();
+    private final AtomicLong mMaxWaitMillis = new AtomicLong();
+    private final AtomicLong mTotalRunMillis = new AtomicLong();
+
+    /**
+     * Uses one thread per available core and a queue of twice that size.
+     */
+    public ConversionExecutor() {
+        this(Runtime.getRuntime().availableProcessors(), 2 * Runtime.getRuntime().availableProcessors());
+    }
+
+    public ConversionExecutor(int threads, int queueCapacity) {
+        mThreads = threads;
+        mExecutor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity), new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "gpx2fit-" + mCount.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Runs {@code callable} on a conversion thread and waits for its result.
+     *
+     * @throws RejectedExecutionException if all threads are busy and the queue is full
+     */
+    public <V> V execute(final Callable<V> callable) throws Exception {
+        final long queued = System.currentTimeMillis();
+        Future<V> future;
+        try {
+            future = mExecutor.submit(new Callable<V>() {
+                @Override
+                public V call() throws Exception {
+                    long started = System.currentTimeMillis();
+                    recordWait(started - queued);
+                    try {
+                        return callable.call();
+                    } finally {
+                        mTotalRunMillis.addAndGet(System.currentTimeMillis() - started);
+                        mCompleted.incrementAndGet();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            mRejected.incrementAndGet();
+            throw e;
+        }
+
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception)
+                throw (Exception) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw e;
+        }
+    }
+
+    private void recordWait(long millis) {
+        mTotalWaitMillis.addAndGet(millis);
+        long max = mMaxWaitMillis.get();
+        while (millis > max && !mMaxWaitMillis.compareAndSet(max, millis))
+            max = mMaxWaitMillis.get();
+    }
+
+    public void shutdown() {
+        mExecutor.shutdown();
+    }
+
+    public int getThreads() {
+        return mThreads;
+    }
+
+    /**
+     * Number of conversions waiting for a thread.
+     */
+    public int getQueueDepth() {
+        return mExecutor.getQueue().size();
+    }
+
+    public int getActiveCount() {
+        return mExecutor.getActiveCount();
+    }
+
+    public long getRejected() {
+        return mRejected.get();
+    }
+
+    public long getCompleted() {
+        return mCompleted.get();
+    }
+
+    /**
+     * Average time conversions waited in the queue before they started.
+     */
+    public long getAverageWaitMillis() {
+        long completed = mCompleted.get();
+        return completed == 0 ? 0 : mTotalWaitMillis.get() / completed;
+    }
+
+    public long getMaxWaitMillis() {
+        return mMaxWaitMillis.get();
+    }
+
+    public long getAverageRunMillis() {
+        long completed = mCompleted.get();
+        return completed == 0 ? 0 : mTotalRunMillis.get() / completed;
+    }
+
+    /**
+     * Estimates after how many seconds a rejected request is likely to be accepted, from the current queue
+     * and the average conversion time.
+     */
+    public long getRetryAfterSeconds() {
+        long millis = getAverageRunMillis() * (getQueueDepth() + getActiveCount()) / Math.max(mThreads, 1);
+        return Math.max(1, Math.min(60, (millis + 999) / 1000));
+    }
+}
@@ -0,0 +1,58 @@
+package org.surfsite.gexporter;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Hex encoded SHA-1 digests, for cache keys and entity tags.
+ */
+public final class Digests {
+    private Digests() {
+    }
+
+    public static String sha1Hex(byte[] data) {
+        return sha1Hex(data, 0, data.length);
+    }
+
+    public static String sha1Hex(byte[] data, int offset, int length) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            md.update(data, offset, length);
+            return toHex(md.digest());
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform has to provide SHA-1
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static String sha1Hex(File file) throws IOException {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            byte[] buf = new byte[8192];
+            InputStream in = new FileInputStream(file);
+            try {
+                int n;
+                while ((n = in.read(buf)) > 0)
+                    md.update(buf, 0, n);
+            } finally {
+                in.close();
+            }
+            return toHex(md.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+            hex.append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+}
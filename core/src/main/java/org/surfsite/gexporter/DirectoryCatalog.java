@@ -0,0 +1,304 @@
+package org.surfsite.gexporter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Index of the courses in the served directory, backing {@code /dir.json}.
+ * <p>
+ * The file list is kept in memory and updated one file at a time from change notifications
+ * ({@link #fileChanged(String, boolean)}, e.g. from an Android {@code FileObserver}), with a periodic rescan as
+ * fallback for changes that were not reported. Each variant of the listing is rendered once per change
+ * and then served from its byte array, or a gzip copy of it, together with a strong entity tag.
+ */
+public class DirectoryCatalog {
+    private static final Logger Log = LoggerFactory.getLogger(DirectoryCatalog.class);
+
+    private static final FilenameFilter COURSE_FILTER = new FilenameFilter() {
+        @Override
+        public boolean accept(File dir, String name) {
+            return isCourse(name);
+        }
+    };
+
+    private final File mDir;
+    private final TreeSet<String> mFiles = new TreeSet<>();
+    private boolean mScanned;
+    private boolean mReadable;
+    // rendered listings, indexed by variant, reset on every change
+    private final Listing[] mListings = new Listing[8];
+    private int mListingPort = -1;
+    private long mVersion;
+
+    private ScheduledExecutorService mRescanExecutor;
+    private Listener mListener;
+    private TrackIndexCache mTrackIndexes;
+
+    public DirectoryCatalog(File dir) {
+        mDir = dir;
+    }
+
+    /**
+     * A rendered listing, also pre-compressed for clients accepting gzip.
+     */
+    public static class Listing {
+        public final byte[] json;
+        public final String etag;
+        public final byte[] gzip;
+        public final String gzipETag;
+
+        Listing(byte[] json) {
+            this.json = json;
+            this.etag = HttpConditions.etag(json);
+            this.gzip = GzipCache.gzip(json);
+            this.gzipETag = HttpConditions.gzipETag(etag);
+        }
+    }
+
+    /**
+     * Told about courses that were added, or written to again, since the last scan.
+     */
+    public interface Listener {
+        void coursesChanged(File... files);
+    }
+
+    public synchronized void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Lists every track or route of a GPX file with several of them as a course of its own, once the
+     * file has been indexed.
+     */
+    public synchronized void setTrackIndexes(TrackIndexCache trackIndexes) {
+        mTrackIndexes = trackIndexes;
+        invalidate();
+    }
+
+    /**
+     * Renders the listings again, e.g. after a file was indexed.
+     */
+    public synchronized void refresh() {
+        invalidate();
+    }
+
+    public static boolean isCourse(String name) {
+        return isGpx(name) || name.endsWith(".fit") || name.endsWith(".FIT");
+    }
+
+    public static boolean isGpx(String name) {
+        return name.endsWith(".gpx") || name.endsWith(".GPX");
+    }
+
+    /**
+     * Rescans the directory every {@code periodSeconds} in the background.
+     */
+    public synchronized void start(long periodSeconds) {
+        if (mRescanExecutor != null)
+            return;
+        mRescanExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "catalog-rescan");
+                t.setDaemon(true);
+                t.setPriority(Thread.MIN_PRIORITY);
+                return t;
+            }
+        });
+        mRescanExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                rescan();
+            }
+        }, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    public synchronized void stop() {
+        if (mRescanExecutor != null) {
+            mRescanExecutor.shutdownNow();
+            mRescanExecutor = null;
+        }
+    }
+
+    /**
+     * Updates a single file after it was created, written, moved or deleted.
+     *
+     * @param complete the file was closed after writing or moved into the directory, so its content is
+     *                 final. Only then is the {@link Listener} told, a file still being written would
+     *                 be converted truncated.
+     */
+    public synchronized void fileChanged(String name, boolean complete) {
+        if (name == null || !isCourse(name) || !mScanned)
+            return;
+        File file = new File(mDir, name);
+        boolean exists = file.isFile();
+        boolean changed;
+        if (exists)
+            changed = mFiles.add(name);
+        else
+            changed = mFiles.remove(name);
+        if (changed) {
+            Log.debug("Catalog {}: {}", mDir, name);
+            invalidate();
+        }
+        if (exists && complete && mListener != null)
+            mListener.coursesChanged(file);
+    }
+
+    /**
+     * Reads the file list again, the rendered listings are only dropped if it changed.
+     */
+    public synchronized void rescan() {
+        String[] files = mDir.list(COURSE_FILTER);
+        mScanned = true;
+        boolean readable = files != null;
+        if (files == null)
+            files = new String[0];
+
+        boolean changed = readable != mReadable || files.length != mFiles.size();
+        if (!changed) {
+            Arrays.sort(files);
+            Iterator<String> it = mFiles.iterator();
+            for (String file : files) {
+                if (!file.equals(it.next())) {
+                    changed = true;
+                    break;
+                }
+            }
+        }
+        if (changed) {
+            List<File> added = new ArrayList<>();
+            for (String file : files) {
+                if (!mFiles.contains(file))
+                    added.add(new File(mDir, file));
+            }
+            mReadable = readable;
+            mFiles.clear();
+            mFiles.addAll(Arrays.asList(files));
+            Log.debug("Catalog {}: {} files", mDir, mFiles.size());
+            invalidate();
+            if (!added.isEmpty() && mListener != null)
+                mListener.coursesChanged(added.toArray(new File[added.size()]));
+        }
+    }
+
+    private void invalidate() {
+        mVersion++;
+        Arrays.fill(mListings, null);
+    }
+
+    /**
+     * Number of changes seen so far.
+     */
+    public synchronized long getVersion() {
+        return mVersion;
+    }
+
+    public synchronized String[] getFiles() {
+        if (!mScanned)
+            rescan();
+        return mFiles.toArray(new String[mFiles.size()]);
+    }
+
+    /**
+     * Returns the listing for the given request flags, or null if the directory can not be read.
+     *
+     * @param port listening port for absolute urls, ignored if {@code doShort}
+     */
+    public synchronized Listing getListing(boolean doGPXonly, boolean doShort, boolean doLongname, int port) {
+        if (!mScanned)
+            rescan();
+        if (!mReadable)
+            return null;
+        if (port != mListingPort) {
+            mListingPort = port;
+            Arrays.fill(mListings, null);
+        }
+        int variant = (doGPXonly ? 4 : 0) | (doShort ? 2 : 0) | (doLongname ? 1 : 0);
+        Listing listing = mListings[variant];
+        if (listing == null) {
+            listing = render(doGPXonly, doShort, doLongname, port);
+            mListings[variant] = listing;
+        }
+        return listing;
+    }
+
+    private Listing render(boolean doGPXonly, boolean doShort, boolean doLongname, int port) {
+        StringBuilder json = new StringBuilder(64 + mFiles.size() * 96);
+        json.append("{ \"tracks\" : [");
+        boolean first = true;
+        for (String name : mFiles) {
+            if (doGPXonly && !isGpx(name))
+                continue;
+            String url;
+            try {
+                url = URLEncoder.encode(name, "UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+            if (!doShort)
+                url = "http://127.0.0.1:" + port + "/" + url;
+
+            // tracks of an indexed file, never scans files on the request thread
+            TrackIndex index = null;
+            if (!doGPXonly && isGpx(name) && mTrackIndexes != null)
+                index = mTrackIndexes.peek(new File(mDir, name));
+            if (index != null && index.getCourseCount() > 1) {
+                List<TrackIndex.Entry> courses = index.getCourses();
+                for (int n = 0; n < courses.size(); n++) {
+                    if (courses.get(n).points == 0)
+                        continue;
+                    String title = WebServer.getTrackTitle(name, courses.get(n), n);
+                    first = appendCourse(json, first, doLongname ? title : WebServer.getCourseName(title),
+                            url + "?track=" + n);
+                }
+            } else {
+                first = appendCourse(json, first, doLongname ? name : WebServer.getCourseName(name), url);
+            }
+        }
+        json.append("]}");
+
+        byte[] bytes;
+        try {
+            bytes = json.toString().getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        return new Listing(bytes);
+    }
+
+    private static boolean appendCourse(StringBuilder json, boolean first, String title, String url) {
+        if (!first)
+            json.append(",\n");
+        json.append("{ \"title\": \"");
+        appendEscaped(json, title);
+        json.append("\", \"url\": \"").append(url).append("\"  }");
+        return false;
+    }
+
+    static void appendEscaped(StringBuilder json, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\')
+                json.append('\\').append(c);
+            else if (c < ' ')
+                json.append(String.format("\\u%04x", (int) c));
+            else
+                json.append(c);
+        }
+    }
+}
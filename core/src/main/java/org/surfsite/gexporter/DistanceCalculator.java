@@ -0,0 +1,142 @@
+package org.surfsite.gexporter;
+
+/**
+ * Geodesic distances on the WGS84 ellipsoid.
+ * <p>
+ * All methods only work on primitive locals, so they are reentrant and can be used from any number of
+ * conversion threads at once without allocating anything per call.
+ */
+public final class DistanceCalculator {
+
+    public enum Mode {
+        /**
+         * Vincenty's inverse formula, accurate to well below a millimetre.
+         */
+        VINCENTY,
+        /**
+         * Andoyer-Lambert: spherical distance between the reduced latitudes with a first order
+         * flattening correction, without the iteration of {@link #VINCENTY}. Between latitudes of
+         * +/-85 degrees and for points up to half a degree apart, as in track segments, it stays within
+         * 1e-5 of the Vincenty distance plus 1 mm (1 cm per km).
+         */
+        ANDOYER
+    }
+
+    // WGS84
+    private static final double A = 6378137.0;
+    private static final double F = 1.0 / 298.257223563;
+    private static final double B = A * (1.0 - F);
+
+    private static final int MAX_ITERATIONS = 200;
+    private static final double EPSILON = 1e-12;
+
+    private DistanceCalculator() {
+    }
+
+    public static double distance(Mode mode, double lat1, double lon1, double lat2, double lon2) {
+        if (mode == Mode.ANDOYER)
+            return andoyer(lat1, lon1, lat2, lon2);
+        return vincenty(lat1, lon1, lat2, lon2);
+    }
+
+    /**
+     * Combines a 2D distance with the elevation difference of its endpoints. If either elevation is
+     * unknown the 2D distance is returned.
+     */
+    public static double distance3D(double distance, double ele1, double ele2) {
+        if (Double.isNaN(ele1) || Double.isNaN(ele2))
+            return distance;
+        double h = ele1 - ele2;
+        return Math.sqrt(distance * distance + h * h);
+    }
+
+    /**
+     * Ellipsoidal distance in meters between two points given in degrees, using Vincenty's inverse formula.
+     */
+    public static double vincenty(double lat1, double lon1, double lat2, double lon2) {
+        if (lat1 == lat2 && lon1 == lon2)
+            return 0.0;
+
+        double L = Math.toRadians(lon2 - lon1);
+        double U1 = Math.atan((1.0 - F) * Math.tan(Math.toRadians(lat1)));
+        double U2 = Math.atan((1.0 - F) * Math.tan(Math.toRadians(lat2)));
+        double sinU1 = Math.sin(U1), cosU1 = Math.cos(U1);
+        double sinU2 = Math.sin(U2), cosU2 = Math.cos(U2);
+
+        double lambda = L;
+        double sinSigma = 0, cosSigma = 0, sigma = 0;
+        double cosSqAlpha = 0, cos2SigmaM = 0;
+        boolean converged = false;
+
+        for (int i = 0; i < MAX_ITERATIONS; i++) {
+            double sinLambda = Math.sin(lambda), cosLambda = Math.cos(lambda);
+            double t1 = cosU2 * sinLambda;
+            double t2 = cosU1 * sinU2 - sinU1 * cosU2 * cosLambda;
+            sinSigma = Math.sqrt(t1 * t1 + t2 * t2);
+            if (sinSigma == 0.0)
+                return 0.0;
+            cosSigma = sinU1 * sinU2 + cosU1 * cosU2 * cosLambda;
+            sigma = Math.atan2(sinSigma, cosSigma);
+            double sinAlpha = cosU1 * cosU2 * sinLambda / sinSigma;
+            cosSqAlpha = 1.0 - sinAlpha * sinAlpha;
+            // equatorial line
+            cos2SigmaM = (cosSqAlpha != 0.0) ? cosSigma - 2.0 * sinU1 * sinU2 / cosSqAlpha : 0.0;
+            double C = F / 16.0 * cosSqAlpha * (4.0 + F * (4.0 - 3.0 * cosSqAlpha));
+            double lambdaP = lambda;
+            lambda = L + (1.0 - C) * F * sinAlpha
+                    * (sigma + C * sinSigma * (cos2SigmaM + C * cosSigma * (-1.0 + 2.0 * cos2SigmaM * cos2SigmaM)));
+            if (Math.abs(lambda - lambdaP) < EPSILON) {
+                converged = true;
+                break;
+            }
+        }
+
+        // nearly antipodal points, Vincenty does not converge
+        if (!converged)
+            return andoyer(lat1, lon1, lat2, lon2);
+
+        double uSq = cosSqAlpha * (A * A - B * B) / (B * B);
+        double bigA = 1.0 + uSq / 16384.0 * (4096.0 + uSq * (-768.0 + uSq * (320.0 - 175.0 * uSq)));
+        double bigB = uSq / 1024.0 * (256.0 + uSq * (-128.0 + uSq * (74.0 - 47.0 * uSq)));
+        double c2sm2 = cos2SigmaM * cos2SigmaM;
+        double deltaSigma = bigB * sinSigma * (cos2SigmaM + bigB / 4.0
+                * (cosSigma * (-1.0 + 2.0 * c2sm2)
+                - bigB / 6.0 * cos2SigmaM * (-3.0 + 4.0 * sinSigma * sinSigma) * (-3.0 + 4.0 * c2sm2)));
+
+        return B * bigA * (sigma - deltaSigma);
+    }
+
+    /**
+     * Approximate ellipsoidal distance in meters between two points given in degrees, using the
+     * Andoyer-Lambert formula. See {@link Mode#ANDOYER} for the error bound.
+     */
+    public static double andoyer(double lat1, double lon1, double lat2, double lon2) {
+        if (lat1 == lat2 && lon1 == lon2)
+            return 0.0;
+
+        double beta1 = Math.atan((1.0 - F) * Math.tan(Math.toRadians(lat1)));
+        double beta2 = Math.atan((1.0 - F) * Math.tan(Math.toRadians(lat2)));
+
+        // central angle on the auxiliary sphere (haversine, well conditioned for short segments)
+        double sinDBeta = Math.sin((beta2 - beta1) / 2.0);
+        double sinDLambda = Math.sin(Math.toRadians(lon2 - lon1) / 2.0);
+        double h = sinDBeta * sinDBeta + Math.cos(beta1) * Math.cos(beta2) * sinDLambda * sinDLambda;
+        double sigma = 2.0 * Math.asin(Math.sqrt(Math.min(1.0, h)));
+        if (sigma == 0.0)
+            return 0.0;
+
+        double sinHalfSigma = Math.sin(sigma / 2.0);
+        double cosHalfSigma = Math.cos(sigma / 2.0);
+        if (cosHalfSigma == 0.0)
+            return A * sigma;
+
+        double sinP = Math.sin((beta1 + beta2) / 2.0), cosP = Math.cos((beta1 + beta2) / 2.0);
+        double sinQ = Math.sin((beta2 - beta1) / 2.0), cosQ = Math.cos((beta2 - beta1) / 2.0);
+        double sinSigma = Math.sin(sigma);
+
+        double x = (sigma - sinSigma) * (sinP * sinP * cosQ * cosQ) / (cosHalfSigma * cosHalfSigma);
+        double y = (sigma + sinSigma) * (cosP * cosP * sinQ * sinQ) / (sinHalfSigma * sinHalfSigma);
+
+        return A * (sigma - F / 2.0 * (x + y));
+    }
+}
@@ -0,0 +1,109 @@
+package org.surfsite.gexporter;
+
+import java.util.PriorityQueue;
+
+/**
+ * Douglas-Peucker simplification targeting a number of points.
+ * <p>
+ * Instead of recursing with a distance tolerance, the segments of the simplified line are kept in a
+ * priority queue ordered by the deviation of their farthest point, and the worst segment is split until
+ * the point budget is used up. This needs no recursion, so long tracks cannot overflow the stack.
+ */
+public class DouglasPeuckerSimplifier extends TrackSimplifier {
+
+    private static class Segment implements Comparable<Segment> {
+        final int start;
+        final int end;
+        final int farthest;
+        final double deviation;
+
+        Segment(int start, int end, int farthest, double deviation) {
+            this.start = start;
+            this.end = end;
+            this.farthest = farthest;
+            this.deviation = deviation;
+        }
+
+        @Override
+        public int compareTo(Segment other) {
+            // largest deviation first
+            return Double.compare(other.deviation, deviation);
+        }
+    }
+
+    @Override
+    public boolean[] simplify(Track track, int maxPoints) {
+        int n = track.size();
+        boolean[] keep = new boolean[n];
+        if (n <= Math.max(maxPoints, 2)) {
+            for (int i = 0; i < n; i++)
+                keep[i] = true;
+            return keep;
+        }
+
+        double[] x = new double[n];
+        double[] y = new double[n];
+        project(track, x, y);
+
+        keep[0] = true;
+        keep[n - 1] = true;
+        int kept = 2;
+
+        PriorityQueue<Segment> queue = new PriorityQueue<>();
+        Segment first = segment(x, y, 0, n - 1);
+        if (first != null)
+            queue.add(first);
+
+        while (kept < maxPoints && !queue.isEmpty()) {
+            Segment s = queue.poll();
+            keep[s.farthest] = true;
+            kept++;
+            Segment left = segment(x, y, s.start, s.farthest);
+            if (left != null)
+                queue.add(left);
+            Segment right = segment(x, y, s.farthest, s.end);
+            if (right != null)
+                queue.add(right);
+        }
+        return keep;
+    }
+
+    /**
+     * Finds the point between {@code start} and {@code end} farthest from their chord, null if there is none
+     * or all of them lie on it.
+     */
+    private static Segment segment(double[] x, double[] y, int start, int end) {
+        if (end - start < 2)
+            return null;
+
+        double ax = x[start], ay = y[start];
+        double dx = x[end] - ax, dy = y[end] - ay;
+        double len2 = dx * dx + dy * dy;
+
+        int farthest = -1;
+        double max = 0.0;
+        for (int i = start + 1; i < end; i++) {
+            double px = x[i] - ax, py = y[i] - ay;
+            double d2;
+            if (len2 == 0.0) {
+                // closed loop, distance to the start point
+                d2 = px * px + py * py;
+            } else {
+                double t = (px * dx + py * dy) / len2;
+                if (t < 0.0)
+                    t = 0.0;
+                else if (t > 1.0)
+                    t = 1.0;
+                double ex = px - t * dx, ey = py - t * dy;
+                d2 = ex * ex + ey * ey;
+            }
+            if (d2 > max) {
+                max = d2;
+                farthest = i;
+            }
+        }
+        if (farthest < 0)
+            return null;
+        return new Segment(start, end, farthest, max);
+    }
+}
@@ -0,0 +1,505 @@
+package org.surfsite.gexporter;
+
+import com.garmin.fit.Fit;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes the messages of a FIT course: file id, course, lap, event, record and course point.
+ * <p>
+ * The output is byte for byte what the SDK's {@code BufferEncoder} and {@code FileEncoder} write for
+ * the same messages, without building a {@code Mesg} of boxed field values per point. All messages use
+ * local message 0 and big endian values, and a definition message is written whenever the previous
+ * definition does not cover the next message, like the SDK does. Messages are encoded into a reusable
+ * buffer, and the file CRC is updated whenever the buffer is flushed.
+ */
+class FitCourseEncoder {
+    // profile values of the messages and fields written
+    static final int MANUFACTURER_DYNASTREAM = 15;
+    static final int FILE_COURSE = 6;
+    static final int SPORT_GENERIC = 0;
+    static final int EVENT_TIMER = 0;
+    static final int EVENT_TYPE_START = 0;
+    static final int EVENT_TYPE_STOP_DISABLE_ALL = 9;
+    static final int COURSE_POINT_GENERIC = 0;
+
+    private static final int MESG_FILE_ID = 0;
+    private static final int MESG_LAP = 19;
+    private static final int MESG_RECORD = 20;
+    private static final int MESG_EVENT = 21;
+    private static final int MESG_COURSE = 31;
+    private static final int MESG_COURSE_POINT = 32;
+
+    private static final int TIMESTAMP = 253;
+
+    private static final int ENUM = 0x00;
+    private static final int UINT8 = 0x02;
+    private static final int STRING = 0x07;
+    private static final int UINT16 = 0x84;
+    private static final int SINT32 = 0x85;
+    private static final int UINT32 = 0x86;
+    private static final int UINT32Z = 0x8C;
+
+    private static final int HEADER_SIZE = 14;
+    private static final int PROTOCOL_VERSION_2_0 = 0x20;
+    // seconds from the Unix epoch to the FIT epoch, 1989-12-31T00:00:00Z
+    private static final long FIT_EPOCH_MILLIS = 631065600000L;
+
+    private static final int[] CRC_TABLE = {
+            0x0000, 0xCC01, 0xD801, 0x1400, 0xF001, 0x3C00, 0x2800, 0xE401,
+            0xA001, 0x6C00, 0x7800, 0xB401, 0x5000, 0x9C01, 0x8801, 0x4400
+    };
+
+    static final int NO_VALUE = Integer.MIN_VALUE;
+
+    /**
+     * Values of the lap message, the summary of the course.
+     */
+    static class Lap {
+        long startTime;
+        int startLat;
+        int startLon;
+        int endLat;
+        int endLon;
+        float totalTimerTime;
+        float totalDistance;
+        float avgSpeed;
+        float totalElapsedTime;
+        // NO_VALUE or NaN when unknown
+        int totalAscent = NO_VALUE;
+        int totalDescent = NO_VALUE;
+        float maxAltitude = Float.NaN;
+        float minAltitude = Float.NaN;
+        // bounding box in the undocumented fields 27 to 30
+        int boundMaxLat;
+        int boundMaxLon;
+        int boundMinLat;
+        int boundMinLon;
+    }
+
+    private final OutputStream mOut;
+    private final FileOutputStream mFile;
+    private final byte[] mBuffer = new byte[8192];
+    private int mPosition;
+    private long mDataSize;
+    private int mCrc;
+    private byte[] mBytes;
+
+    // definition of local message 0 in the file, and the layout of the message being written
+    private final Layout mDefinition = new Layout();
+    private final Layout mMessage = new Layout();
+
+    // a reused SDK RecordMesg keeps the altitude of an earlier point
+    private boolean mRecordWritten;
+    private boolean mRecordAltitude;
+    private boolean mRecordAltitudeLast;
+    private float mAltitude;
+
+    /**
+     * Encodes into memory, see {@link #toByteArray()}.
+     */
+    FitCourseEncoder() {
+        mOut = new ByteArrayOutputStream();
+        mFile = null;
+        skipHeader();
+    }
+
+    FitCourseEncoder(File file) throws IOException {
+        mFile = new FileOutputStream(file);
+        mOut = mFile;
+        skipHeader();
+    }
+
+    private void skipHeader() {
+        // written by close, when the data size is known
+        mPosition = HEADER_SIZE;
+        mDataSize = -HEADER_SIZE;
+    }
+
+    void writeFileId(int manufacturer, int type, int product, long serialNumber, int number, long timeCreated)
+            throws IOException {
+        begin(MESG_FILE_ID);
+        field(1, UINT16, manufacturer);
+        field(0, ENUM, type);
+        field(2, UINT16, product);
+        field(3, UINT32Z, serialNumber);
+        field(5, UINT16, number);
+        field(4, UINT32, toFitTime(timeCreated));
+        end();
+    }
+
+    void writeCourse(String name, int sport) throws IOException {
+        begin(MESG_COURSE);
+        field(5, name);
+        field(4, ENUM, sport);
+        end();
+    }
+
+    void writeLap(Lap lap) throws IOException {
+        long startTime = toFitTime(lap.startTime);
+        begin(MESG_LAP);
+        field(TIMESTAMP, UINT32, startTime);
+        field(2, UINT32, startTime);
+        field(3, SINT32, lap.startLat);
+        field(4, SINT32, lap.startLon);
+        field(5, SINT32, lap.endLat);
+        field(6, SINT32, lap.endLon);
+        field(8, UINT32, scale(lap.totalTimerTime, 1000, 0));
+        field(9, UINT32, scale(lap.totalDistance, 100, 0));
+        field(13, UINT16, scale(lap.avgSpeed, 1000, 0));
+        field(7, UINT32, scale(lap.totalElapsedTime, 1000, 0));
+        if (lap.totalAscent != NO_VALUE)
+            field(21, UINT16, lap.totalAscent);
+        if (lap.totalDescent != NO_VALUE)
+            field(22, UINT16, lap.totalDescent);
+        if (!Float.isNaN(lap.maxAltitude))
+            field(43, UINT16, scale(lap.maxAltitude, 5, 500));
+        if (!Float.isNaN(lap.minAltitude))
+            field(62, UINT16, scale(lap.minAltitude, 5, 500));
+        field(27, SINT32, lap.boundMaxLat);
+        field(28, SINT32, lap.boundMaxLon);
+        field(29, SINT32, lap.boundMinLat);
+        field(30, SINT32, lap.boundMinLon);
+        end();
+    }
+
+    void writeEvent(int event, int eventType, int eventGroup, long timestamp) throws IOException {
+        begin(MESG_EVENT);
+        field(0, ENUM, event);
+        field(1, ENUM, eventType);
+        field(4, UINT8, eventGroup);
+        field(TIMESTAMP, UINT32, toFitTime(timestamp));
+        end();
+    }
+
+    void writeCoursePoint(int lat, int lon, String name, int type, float distance, long timestamp)
+            throws IOException {
+        begin(MESG_COURSE_POINT);
+        field(2, SINT32, lat);
+        field(3, SINT32, lon);
+        field(6, name);
+        field(5, ENUM, type);
+        field(4, UINT32, scale(distance, 100, 0));
+        field(TIMESTAMP, UINT32, toFitTime(timestamp));
+        end();
+    }
+
+    /**
+     * @param altitude NaN to repeat the altitude of the previous record, if there was one
+     */
+    void writeRecord(int lat, int lon, float distance, long timestamp, float altitude, float speed)
+            throws IOException {
+        if (!Float.isNaN(altitude)) {
+            if (!mRecordAltitude) {
+                // the field goes where it was first set
+                mRecordAltitude = true;
+                mRecordAltitudeLast = mRecordWritten;
+            }
+            mAltitude = altitude;
+        }
+        begin(MESG_RECORD);
+        field(0, SINT32, lat);
+        field(1, SINT32, lon);
+        field(5, UINT32, scale(distance, 100, 0));
+        field(TIMESTAMP, UINT32, toFitTime(timestamp));
+        if (mRecordAltitude && !mRecordAltitudeLast)
+            field(2, UINT16, scale(mAltitude, 5, 500));
+        field(6, UINT16, scale(speed, 1000, 0));
+        if (mRecordAltitude && mRecordAltitudeLast)
+            field(2, UINT16, scale(mAltitude, 5, 500));
+        end();
+        mRecordWritten = true;
+    }
+
+    /**
+     * Writes the header and the file CRC and closes the output.
+     */
+    void close() throws IOException {
+        flush();
+        byte[] header = new byte[HEADER_SIZE];
+        header[0] = HEADER_SIZE;
+        header[1] = PROTOCOL_VERSION_2_0;
+        header[2] = (byte) Fit.PROFILE_VERSION;
+        header[3] = (byte) (Fit.PROFILE_VERSION >> 8);
+        for (int i = 0; i < 4; i++)
+            header[4 + i] = (byte) (mDataSize >> (8 * i));
+        header[8] = '.';
+        header[9] = 'F';
+        header[10] = 'I';
+        header[11] = 'T';
+        int headerCrc = crc(0, header, 0, 12);
+        header[12] = (byte) headerCrc;
+        header[13] = (byte) (headerCrc >> 8);
+
+        // the CRC of the data started from 0, the file CRC covers the header first
+        int crc = crc(0, header, 0, HEADER_SIZE);
+        for (long i = 0; i < mDataSize; i++)
+            crc = crcZero(crc);
+        crc ^= mCrc;
+        mOut.write(new byte[]{(byte) crc, (byte) (crc >> 8)});
+
+        if (mFile != null) {
+            try {
+                mFile.getChannel().write(ByteBuffer.wrap(header), 0);
+            } finally {
+                mFile.close();
+            }
+        } else {
+            mBytes = ((ByteArrayOutputStream) mOut).toByteArray();
+            System.arraycopy(header, 0, mBytes, 0, HEADER_SIZE);
+        }
+    }
+
+    /**
+     * The encoded file, after {@link #close()} when encoding into memory.
+     */
+    byte[] toByteArray() {
+        return mBytes;
+    }
+
+    /**
+     * Closes the output without finishing the file, after a failure.
+     */
+    void abort() {
+        if (mFile != null) {
+            try {
+                mFile.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * FIT time in seconds from the Unix time {@code millis}, truncated like the SDK's
+     * {@code DateTime(Date)}.
+     */
+    static long toFitTime(long millis) {
+        return (millis - FIT_EPOCH_MILLIS) / 1000;
+    }
+
+    // (value + offset) * scale rounded, like the SDK stores scaled float values
+    private static long scale(float value, double scale, double offset) {
+        return Math.round((value + offset) * scale);
+    }
+
+    private void begin(int global) {
+        mMessage.reset(global);
+    }
+
+    private void field(int num, int type, long value) {
+        int size = baseTypeSize(type);
+        // like the SDK, a value the base type cannot hold is written as invalid instead of truncated
+        if (!fits(type, size, value))
+            value = invalid(type, size);
+        mMessage.add(num, size, type, value, null);
+    }
+
+    private static boolean fits(int type, int size, long value) {
+        if (type == SINT32)
+            return value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE;
+        return value >= 0 && value < (1L << (8 * size)) - 1;
+    }
+
+    private static long invalid(int type, int size) {
+        switch (type) {
+            case UINT32Z:
+                return 0;
+            case SINT32:
+                return Integer.MAX_VALUE;
+            default:
+                return (1L << (8 * size)) - 1;
+        }
+    }
+
+    private void field(int num, String value) throws UnsupportedEncodingException {
+        byte[] bytes = value.getBytes("UTF-8");
+        if (bytes.length > 254)
+            throw new IllegalArgumentException("String longer than 254 bytes: " + value);
+        mMessage.add(num, bytes.length + 1, STRING, 0, bytes);
+    }
+
+    private void end() throws IOException {
+        Layout message = mMessage;
+        if (!mDefinition.supports(message)) {
+            mDefinition.copy(message);
+            writeDefinition(message);
+        }
+
+        Layout definition = mDefinition;
+        ensure(1 + definition.mDataSize);
+        byte[] b = mBuffer;
+        int p = mPosition;
+        b[p++] = 0; // data message of local message 0
+        for (int i = 0; i < definition.mCount; i++) {
+            int index = message.mCount > i && message.mNums[i] == definition.mNums[i] ? i
+                    : message.indexOf(definition.mNums[i]);
+            int size = definition.mSizes[i];
+            if (index < 0) {
+                p = putInvalid(b, p, definition.mTypes[i], size);
+            } else if (definition.mTypes[i] == STRING) {
+                byte[] bytes = message.mStrings[index];
+                System.arraycopy(bytes, 0, b, p, bytes.length);
+                // the terminator and padding
+                for (int j = bytes.length; j < size; j++)
+                    b[p + j] = 0;
+                p += size;
+            } else {
+                long value = message.mValues[index];
+                for (int shift = 8 * (size - 1); shift >= 0; shift -= 8)
+                    b[p++] = (byte) (value >> shift);
+            }
+        }
+        mPosition = p;
+    }
+
+    private void writeDefinition(Layout definition) throws IOException {
+        ensure(6 + 3 * definition.mCount);
+        byte[] b = mBuffer;
+        int p = mPosition;
+        b[p++] = 0x40; // definition message of local message 0
+        b[p++] = 0;
+        b[p++] = 1; // big endian
+        b[p++] = (byte) (definition.mGlobal >> 8);
+        b[p++] = (byte) definition.mGlobal;
+        b[p++] = (byte) definition.mCount;
+        for (int i = 0; i < definition.mCount; i++) {
+            b[p++] = (byte) definition.mNums[i];
+            b[p++] = (byte) definition.mSizes[i];
+            b[p++] = (byte) definition.mTypes[i];
+        }
+        mPosition = p;
+    }
+
+    private static int putInvalid(byte[] b, int p, int type, int size) {
+        for (int i = 0; i < size; i++) {
+            byte v;
+            switch (type) {
+                case STRING:
+                case UINT32Z:
+                    v = 0;
+                    break;
+                case SINT32:
+                    v = (byte) (i == 0 ? 0x7F : 0xFF);
+                    break;
+                default:
+                    v = (byte) 0xFF;
+            }
+            b[p++] = v;
+        }
+        return p;
+    }
+
+    private static int baseTypeSize(int type) {
+        switch (type) {
+            case UINT16:
+                return 2;
+            case SINT32:
+            case UINT32:
+            case UINT32Z:
+                return 4;
+            default:
+                return 1;
+        }
+    }
+
+    private void ensure(int size) throws IOException {
+        if (mPosition + size > mBuffer.length)
+            flush();
+    }
+
+    private void flush() throws IOException {
+        // the space reserved for the header is not part of the data
+        int start = mDataSize < 0 ? HEADER_SIZE : 0;
+        mCrc = crc(mCrc, mBuffer, start, mPosition);
+        mOut.write(mBuffer, 0, mPosition);
+        mDataSize += mPosition;
+        mPosition = 0;
+    }
+
+    static int crc(int crc, byte[] b, int from, int to) {
+        for (int i = from; i < to; i++) {
+            int x = b[i];
+            int tmp = CRC_TABLE[crc & 0xF];
+            crc = (crc >> 4) & 0x0FFF;
+            crc = crc ^ tmp ^ CRC_TABLE[x & 0xF];
+            tmp = CRC_TABLE[crc & 0xF];
+            crc = (crc >> 4) & 0x0FFF;
+            crc = crc ^ tmp ^ CRC_TABLE[(x >> 4) & 0xF];
+        }
+        return crc;
+    }
+
+    // the CRC is linear, so crc(header + data) is crc(header) advanced over zeros, xor crc(data)
+    private static int crcZero(int crc) {
+        int tmp = CRC_TABLE[crc & 0xF];
+        crc = ((crc >> 4) & 0x0FFF) ^ tmp;
+        tmp = CRC_TABLE[crc & 0xF];
+        return ((crc >> 4) & 0x0FFF) ^ tmp;
+    }
+
+    /**
+     * Fields of a message in the order they were set, with their values, or the fields of a definition.
+     */
+    private static class Layout {
+        private static final int MAX_FIELDS = 32;
+
+        int mGlobal = -1;
+        int mCount;
+        int mDataSize;
+        final int[] mNums = new int[MAX_FIELDS];
+        final int[] mSizes = new int[MAX_FIELDS];
+        final int[] mTypes = new int[MAX_FIELDS];
+        final long[] mValues = new long[MAX_FIELDS];
+        final byte[][] mStrings = new byte[MAX_FIELDS][];
+
+        void reset(int global) {
+            mGlobal = global;
+            mCount = 0;
+            mDataSize = 0;
+        }
+
+        void add(int num, int size, int type, long value, byte[] string) {
+            mNums[mCount] = num;
+            mSizes[mCount] = size;
+            mTypes[mCount] = type;
+            mValues[mCount] = value;
+            mStrings[mCount] = string;
+            mCount++;
+            mDataSize += size;
+        }
+
+        int indexOf(int num) {
+            for (int i = 0; i < mCount; i++)
+                if (mNums[i] == num)
+                    return i;
+            return -1;
+        }
+
+        /**
+         * Whether a message of {@code layout} can be written with this definition, the SDK's
+         * {@code MesgDefinition.supports}: every field is defined at least as large.
+         */
+        boolean supports(Layout layout) {
+            if (mGlobal != layout.mGlobal)
+                return false;
+            for (int i = 0; i < layout.mCount; i++) {
+                int index = i < mCount && mNums[i] == layout.mNums[i] ? i : indexOf(layout.mNums[i]);
+                if (index < 0 || layout.mSizes[i] > mSizes[index])
+                    return false;
+            }
+            return true;
+        }
+
+        void copy(Layout layout) {
+            reset(layout.mGlobal);
+            for (int i = 0; i < layout.mCount; i++)
+                add(layout.mNums[i], layout.mSizes[i], layout.mTypes[i], 0, null);
+        }
+    }
+}
@@ -0,0 +1,828 @@
+package org.surfsite.gexporter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.text.ParseException;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+public class Gpx2Fit {
+    private static final Logger Log = LoggerFactory.getLogger(Gpx2Fit.class);
+
+    /**
+     * Size above which a file is scanned in parallel, if an executor is given.
+     */
+    public static final long PARALLEL_THRESHOLD = 4 * 1024 * 1024;
+
+    private static final String HTTP_WWW_TOPOGRAFIX_COM_GPX_1_0 = "http://www.topografix.com/GPX/1/0";
+    private static final String HTTP_WWW_TOPOGRAFIX_COM_GPX_1_1 = "http://www.topografix.com/GPX/1/1";
+
+    private final Track track = new Track();
+    private String courseName;
+    private String ns;
+    private final int[] textHolder = new int[2];
+    private PointSink mSink;
+    private int mPointCount;
+    private long mTimeCreated = Long.MIN_VALUE;
+    // time spent per stage, for the metrics
+    private long mParseNanos;
+    private long mStatisticsNanos;
+    private long mEncodeNanos;
+    Gpx2FitOptions.Snapshot mGpx2FitOptions;
+    // geometry of the track, kept across conversions with different options
+    private TrackAnalysis mAnalysis;
+    // segment lengths computed while scanning in parallel, until they are handed to the analysis
+    private double[] mSegments;
+    private DistanceCalculator.Mode mSegmentsMode;
+
+    public Gpx2Fit(String name, InputStream in, Gpx2FitOptions.Snapshot options) throws Exception {
+        this(name, options);
+        long started = System.nanoTime();
+        parse(in, track);
+        mParseNanos = System.nanoTime() - started;
+    }
+
+    /**
+     * Reads {@code file}, memory mapped and scanned byte by byte if {@link GpxScanner} understands it,
+     * otherwise with the pull parser.
+     */
+    public Gpx2Fit(String name, File file, Gpx2FitOptions.Snapshot options) throws Exception {
+        this(name, file, options, null, 1);
+    }
+
+    /**
+     * Reads {@code file} like {@link #Gpx2Fit(String, File, Gpx2FitOptions.Snapshot)}. Files larger than
+     * {@link #PARALLEL_THRESHOLD} are split into up to {@code parallelism} chunks, which are scanned on
+     * {@code executor} and the calling thread.
+     */
+    public Gpx2Fit(String name, File file, Gpx2FitOptions.Snapshot options, Executor executor, int parallelism)
+            throws Exception {
+        this(name, options);
+        long started = System.nanoTime();
+        int count = -1;
+        if (executor != null && parallelism > 1 && file.length() > PARALLEL_THRESHOLD) {
+            DistanceCalculator.Mode distanceMode = options.getDistanceMode();
+            mSegments = GpxScanner.scan(file, track, distanceMode, executor, parallelism);
+            if (mSegments != null) {
+                mSegmentsMode = distanceMode;
+                count = track.size();
+            } else {
+                track.clear();
+            }
+        }
+        if (count < 0)
+            count = GpxScanner.scan(file, track);
+        if (count >= 0) {
+            mPointCount = count;
+        } else {
+            track.clear();
+            InputStream in = new FileInputStream(file);
+            try {
+                parse(in, track);
+            } finally {
+                in.close();
+            }
+        }
+        mParseNanos = System.nanoTime() - started;
+    }
+
+    private Gpx2Fit(String name, Gpx2FitOptions.Snapshot options) {
+        mGpx2FitOptions = options;
+        courseName = name;
+    }
+
+    /**
+     * Reads the first track or route with points from {@code in} and passes its points to {@code sink}.
+     */
+    private void parse(InputStream in, PointSink sink) throws Exception {
+        XmlPullParserFactory factory = XmlPullParserFactory.newInstance();
+        factory.setNamespaceAware(true);
+        XmlPullParser parser = factory.newPullParser();
+        //parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, false);
+        mSink = sink;
+        mPointCount = 0;
+
+        try {
+            parser.setInput(in, null);
+            parser.nextTag();
+            ns = detectNamespace(parser);
+            readGPX(parser);
+        } finally {
+            in.close();
+            mSink = null;
+        }
+    }
+
+    /**
+     * Determines the GPX namespace from the root element, so the document can be read in a single pass
+     * regardless of whether it is GPX 1.0, GPX 1.1 or has no namespace at all.
+     */
+    private static String detectNamespace(XmlPullParser parser) throws XmlPullParserException {
+        if (parser.getEventType() != XmlPullParser.START_TAG || !"gpx".equals(parser.getName())) {
+            throw new XmlPullParserException("Expected <gpx> root element", parser, null);
+        }
+        String namespace = parser.getNamespace();
+        if (namespace == null)
+            namespace = "";
+        switch (namespace) {
+            case HTTP_WWW_TOPOGRAFIX_COM_GPX_1_0:
+            case HTTP_WWW_TOPOGRAFIX_COM_GPX_1_1:
+            case "":
+                Log.debug("GPX namespace '{}'", namespace);
+                return namespace;
+            default:
+                throw new XmlPullParserException("Unsupported GPX namespace " + namespace, parser, null);
+        }
+    }
+
+    public Track getTrack() {
+        return track;
+    }
+
+    /**
+     * Returns a view of the track points, for compatibility. Prefer {@link #getTrack()}.
+     */
+    public List<WayPoint> getWaypoints() {
+        return track.asWayPoints();
+    }
+
+    private void skip(XmlPullParser parser) throws XmlPullParserException, IOException {
+        if (parser.getEventType() != XmlPullParser.START_TAG) {
+            throw new IllegalStateException();
+        }
+        int depth = 1;
+        while (depth != 0) {
+            switch (parser.next()) {
+                case XmlPullParser.END_TAG:
+                    depth--;
+                    break;
+                case XmlPullParser.START_TAG:
+                    depth++;
+                    break;
+            }
+        }
+    }
+
+    private void readGPX(XmlPullParser parser) throws XmlPullParserException, IOException, ParseException {
+        parser.require(XmlPullParser.START_TAG, ns, "gpx");
+        while (parser.next() != XmlPullParser.END_TAG) {
+            if (parser.getEventType() != XmlPullParser.START_TAG) {
+                continue;
+            }
+            String name = parser.getName();
+            // Starts by looking for the entry tag
+            switch (name) {
+                case "trk":
+                    readTrk(parser);
+                    // If waypoints found, bail out.
+                    if (mPointCount > 0)
+                        return;
+                    break;
+                case "rte":
+                    readRte(parser);
+                    // If waypoints found, bail out.
+                    if (mPointCount > 0)
+                        return;
+                    break;
+                default:
+                    skip(parser);
+                    break;
+            }
+        }
+    }
+
+    private void readTrk(XmlPullParser parser) throws XmlPullParserException, IOException, ParseException {
+        parser.require(XmlPullParser.START_TAG, ns, "trk");
+        while (parser.next() != XmlPullParser.END_TAG) {
+            if (parser.getEventType() != XmlPullParser.START_TAG) {
+                continue;
+            }
+            String name = parser.getName();
+            // Starts by looking for the entry tag
+            switch (name) {
+                case "trkseg":
+                    readTrkSeg(parser);
+                    break;
+/*
+                case "name":
+                    courseName = readTrkName(parser);
+                    break;
+*/
+                default:
+                    skip(parser);
+                    break;
+            }
+        }
+    }
+
+    private String readTrkName(XmlPullParser parser) throws IOException, XmlPullParserException {
+        parser.require(XmlPullParser.START_TAG, ns, "name");
+        String txt = readText(parser);
+        if (txt.length() > 15)
+            txt = txt.substring(0, 15);
+        parser.require(XmlPullParser.END_TAG, ns, "name");
+        return txt;
+    }
+
+    private void readTrkSeg(XmlPullParser parser) throws XmlPullParserException, IOException, ParseException {
+        parser.require(XmlPullParser.START_TAG, ns, "trkseg");
+        while (parser.next() != XmlPullParser.END_TAG) {
+            if (parser.getEventType() != XmlPullParser.START_TAG) {
+                continue;
+            }
+            String name = parser.getName();
+            // Starts by looking for the entry tag
+            if (name.equals("trkpt")) {
+                readTrkPt(parser);
+            } else {
+                skip(parser);
+            }
+        }
+    }
+
+    private void readRte(XmlPullParser parser) throws XmlPullParserException, IOException, ParseException {
+        parser.require(XmlPullParser.START_TAG, ns, "rte");
+        while (parser.next() != XmlPullParser.END_TAG) {
+            if (parser.getEventType() != XmlPullParser.START_TAG) {
+                continue;
+            }
+            String name = parser.getName();
+            // Starts by looking for the entry tag
+            switch (name) {
+                case "rtept":
+                    readRtePt(parser);
+                    break;
+/*
+                case "name":
+                    courseName = readTrkName(parser);
+                    break;
+*/
+                default:
+                    skip(parser);
+                    break;
+            }
+        }
+    }
+
+    private void readTrkPt(XmlPullParser parser) throws XmlPullParserException, IOException, ParseException {
+        parser.require(XmlPullParser.START_TAG, ns, "trkpt");
+        long time = WayPoint.RefMilliSec;
+        double lat = Double.parseDouble(parser.getAttributeValue(null, "lat"));
+        double lon = Double.parseDouble(parser.getAttributeValue(null, "lon"));
+        double ele = Double.NaN;
+
+        while (parser.next() != XmlPullParser.END_TAG) {
+            if (parser.getEventType() != XmlPullParser.START_TAG) {
+                continue;
+            }
+            String name = parser.getName();
+            switch (name) {
+                case "ele":
+                    ele = readEle(parser);
+                    break;
+                case "time":
+                    long t = readTime(parser);
+                    if (t != Iso8601.INVALID)
+                        time = t;
+                    break;
+                default:
+                    skip(parser);
+                    break;
+            }
+        }
+        mSink.add(lat, lon, ele, time);
+        mPointCount++;
+    }
+
+    private void readRtePt(XmlPullParser parser) throws XmlPullParserException, IOException, ParseException {
+        parser.require(XmlPullParser.START_TAG, ns, "rtept");
+        long time = WayPoint.RefMilliSec;
+        double lat = Double.parseDouble(parser.getAttributeValue(null, "lat"));
+        double lon = Double.parseDouble(parser.getAttributeValue(null, "lon"));
+        double ele = Double.NaN;
+
+        while (parser.next() != XmlPullParser.END_TAG) {
+            if (parser.getEventType() != XmlPullParser.START_TAG) {
+                continue;
+            }
+            String name = parser.getName();
+            switch (name) {
+                case "ele":
+                    ele = readEle(parser);
+                    break;
+                case "time":
+                    long t = readTime(parser);
+                    if (t != Iso8601.INVALID)
+                        time = t;
+                    break;
+                default:
+                    skip(parser);
+                    break;
+            }
+        }
+        mSink.add(lat, lon, ele, time);
+        mPointCount++;
+    }
+
+    private double readEle(XmlPullParser parser) throws IOException, XmlPullParserException {
+        parser.require(XmlPullParser.START_TAG, ns, "ele");
+        String txt = readText(parser);
+        // elevations are kept at float precision, see Track
+        double ele = (float) Double.parseDouble(txt);
+        parser.require(XmlPullParser.END_TAG, ns, "ele");
+        return ele;
+    }
+
+    private long readTime(XmlPullParser parser) throws IOException, XmlPullParserException {
+        parser.require(XmlPullParser.START_TAG, ns, "time");
+        long time = Iso8601.INVALID;
+        if (parser.next() == XmlPullParser.TEXT) {
+            char[] buf = parser.getTextCharacters(textHolder);
+            time = Iso8601.parse(buf, textHolder[0], textHolder[1]);
+            parser.nextTag();
+        }
+        parser.require(XmlPullParser.END_TAG, ns, "time");
+        return time;
+    }
+
+    private String readText(XmlPullParser parser) throws IOException, XmlPullParserException {
+        String result = "";
+        if (parser.next() == XmlPullParser.TEXT) {
+            result = parser.getText();
+            parser.nextTag();
+        }
+        return result;
+    }
+
+    public String getName() {
+        return courseName;
+    }
+
+    /**
+     * Creation time written to the file id, e.g. the modification time of the source. Defaults to the
+     * start of the track, so an unchanged source always encodes to the same bytes.
+     */
+    public void setTimeCreated(long millis) {
+        mTimeCreated = millis;
+    }
+
+    /**
+     * Number of points read by the last pass over the document.
+     */
+    public int getPointCount() {
+        return mPointCount;
+    }
+
+    /**
+     * Time spent reading the document. For streaming conversions this is the first pass, which also
+     * computes the statistics.
+     */
+    public long getParseNanos() {
+        return mParseNanos;
+    }
+
+    /**
+     * Time spent computing distances and statistics before encoding the last time.
+     */
+    public long getStatisticsNanos() {
+        return mStatisticsNanos;
+    }
+
+    /**
+     * Time spent encoding the last time, including the passes over the document of streaming
+     * conversions.
+     */
+    public long getEncodeNanos() {
+        return mEncodeNanos;
+    }
+
+    /**
+     * Grade adjusted pace based on a study by Alberto E. Minetti on the energy cost of
+     * walking and running at extreme slopes.
+     * <p>
+     * see Minetti, A. E. et al. (2002). Energy cost of walking and running at extreme uphill and downhill slopes.
+     * Journal of Applied Physiology 93, 1039-1046, http://jap.physiology.org/content/93/3/1039.full
+     */
+    public static double getWalkingGradeFactor(double g) {
+        return 1.0 + (g * (19.5 + g * (46.3 + g * (-43.3 + g * (-30.4 + g * 155.4))))) / 3.6;
+    }
+
+    public synchronized void writeFit(File outfile) throws IOException {
+        long started = System.nanoTime();
+        FitCourseEncoder encode = new FitCourseEncoder(outfile);
+        try {
+            writeFit(encode);
+            encode.close();
+        } finally {
+            encode.abort();
+        }
+        mEncodeNanos = System.nanoTime() - started - mStatisticsNanos;
+    }
+
+    /**
+     * Encodes the course into memory, without going through a file.
+     */
+    public synchronized byte[] writeFit() {
+        long started = System.nanoTime();
+        FitCourseEncoder encode = new FitCourseEncoder();
+        try {
+            writeFit(encode);
+            encode.close();
+        } catch (IOException e) {
+            // memory only
+            throw new IllegalStateException(e);
+        }
+        mEncodeNanos = System.nanoTime() - started - mStatisticsNanos;
+        return encode.toByteArray();
+    }
+
+    public void writeFit(OutputStream out) throws IOException {
+        out.write(writeFit());
+    }
+
+    /**
+     * Encodes the course with other options from now on. Only what depends on the changed options is
+     * recomputed, e.g. a new speed only regenerates the timestamps, see {@link TrackAnalysis}.
+     */
+    public synchronized byte[] writeFit(Gpx2FitOptions.Snapshot options) {
+        mGpx2FitOptions = options;
+        return writeFit();
+    }
+
+    void writeFit(FitCourseEncoder encode) throws IOException {
+        int n = track.size();
+
+        if (n == 0)
+            throw new IllegalStateException("No track points in " + getName());
+
+        long started = System.nanoTime();
+        Gpx2FitOptions.Snapshot options = mGpx2FitOptions;
+        if (mAnalysis == null || !mAnalysis.matches(options)) {
+            if (mSegments != null && mSegmentsMode == options.getDistanceMode())
+                mAnalysis = new TrackAnalysis(track, mSegmentsMode, mSegments);
+            else
+                mAnalysis = new TrackAnalysis(track, options.getDistanceMode());
+            mSegments = null;
+        }
+        TrackStatistics stats = mAnalysis.getStatistics(options);
+        boolean forceSpeed = stats.isForceSpeed();
+        // forced speed timestamps, the source times stay untouched
+        long[] forcedTimes = forceSpeed ? mAnalysis.getForcedTimes(options) : null;
+        boolean[] keep = mAnalysis.getKeep(options);
+        mStatisticsNanos = System.nanoTime() - started;
+
+        writeHeader(encode, stats);
+
+        if (options.isInjectCoursePoints()) {
+            CoursePointWriter cpw = new CoursePointWriter(encode, stats);
+            for (int i = 0; i < n; i++) {
+                cpw.add(i, track.getLat(i), track.getLon(i), track.getEle(i), track.getDist(i),
+                        forceSpeed ? forcedTimes[i] : track.getTime(i));
+            }
+        }
+
+        RecordWriter rw = new RecordWriter(encode, stats, keep);
+        for (int i = 0; i < n; i++) {
+            rw.add(i, track.getLat(i), track.getLon(i), track.getEle(i), track.getDist(i),
+                    forceSpeed ? forcedTimes[i] : track.getTime(i));
+        }
+
+        writeTrailer(encode, rw.getTimestamp());
+    }
+
+    /**
+     * Converts {@code src} to {@code outfile} without keeping the track in memory.
+     * <p>
+     * A first pass over the document only collects the {@link TrackStatistics} needed for the lap, a
+     * second pass (and a third one when course points are injected) writes the messages while parsing,
+     * so memory use does not grow with the number of points. Points are always reduced by distance,
+     * the output equals {@link #writeFit()} with {@link TrackSimplifier.Method#DISTANCE}.
+     */
+    public static Gpx2Fit writeFitStreaming(String name, final File src, File outfile, Gpx2FitOptions.Snapshot options)
+            throws Exception {
+        return writeFitStreaming(name, new InputSource() {
+            @Override
+            public InputStream open() throws IOException {
+                return new FileInputStream(src);
+            }
+
+            @Override
+            public String toString() {
+                return src.toString();
+            }
+        }, src.lastModified(), outfile, options);
+    }
+
+    /**
+     * Reopenable GPX document, for conversions reading it more than once.
+     */
+    public interface InputSource {
+        InputStream open() throws IOException;
+    }
+
+    /**
+     * Converts the document of {@code src} like
+     * {@link #writeFitStreaming(String, File, File, Gpx2FitOptions.Snapshot)}, e.g. a single track of a file opened
+     * through its {@link TrackIndex}.
+     *
+     * @return the converter, for its point count and timings
+     */
+    public static Gpx2Fit writeFitStreaming(String name, InputSource src, long timeCreated, File outfile,
+                                            Gpx2FitOptions.Snapshot options) throws Exception {
+        Gpx2Fit gpx2Fit = new Gpx2Fit(name, options);
+        gpx2Fit.setTimeCreated(timeCreated);
+
+        long started = System.nanoTime();
+        final TrackStatistics stats = new TrackStatistics(options);
+        gpx2Fit.parse(src.open(), stats);
+        gpx2Fit.mParseNanos = System.nanoTime() - started;
+        started = System.nanoTime();
+        if (stats.getCount() == 0)
+            throw new IllegalStateException("No track points in " + name);
+        Log.debug("Streaming {} points from {}", stats.getCount(), src);
+
+        FitCourseEncoder encode = new FitCourseEncoder(outfile);
+        try {
+            gpx2Fit.writeHeader(encode, stats);
+
+            if (options.isInjectCoursePoints()) {
+                gpx2Fit.parse(src.open(),
+                        gpx2Fit.new Replay(stats, gpx2Fit.new CoursePointWriter(encode, stats)));
+            }
+
+            // simplification needs all points, streaming always reduces by distance whatever the options say
+            RecordWriter rw = gpx2Fit.new RecordWriter(encode, stats, null);
+            gpx2Fit.parse(src.open(), gpx2Fit.new Replay(stats, rw));
+
+            gpx2Fit.writeTrailer(encode, rw.getTimestamp());
+            encode.close();
+        } finally {
+            encode.abort();
+        }
+        gpx2Fit.mEncodeNanos = System.nanoTime() - started;
+        return gpx2Fit;
+    }
+
+    /**
+     * Number of the course in the file id, derived from the course itself instead of object identity
+     * to keep the output deterministic. The field is a uint16 and 0xFFFF means invalid, so the hash is
+     * folded to 16 bits below that.
+     */
+    private int getFileNumber(TrackStatistics stats) {
+        long bits = Double.doubleToLongBits(stats.getDistance());
+        int number = courseName != null ? courseName.hashCode() : 0;
+        number = 31 * number + stats.getCount();
+        number = 31 * number + (int) (bits ^ (bits >>> 32));
+        number = 31 * number + (int) (stats.getStartTime() ^ (stats.getStartTime() >>> 32));
+        return (((number >>> 16) ^ number) & 0xFFFF) % 0xFFFF;
+    }
+
+    private void writeHeader(FitCourseEncoder encode, TrackStatistics stats) throws IOException {
+        // Every FIT file MUST contain a 'File ID' message as the first message
+        encode.writeFileId(FitCourseEncoder.MANUFACTURER_DYNASTREAM, FitCourseEncoder.FILE_COURSE, 12345, 12345L,
+                getFileNumber(stats), mTimeCreated != Long.MIN_VALUE ? mTimeCreated : stats.getStartTime());
+
+        encode.writeCourse(getName(), FitCourseEncoder.SPORT_GENERIC);
+
+        if (Log.isDebugEnabled())
+            Log.debug("Track: {}", getName());
+
+        FitCourseEncoder.Lap lap = new FitCourseEncoder.Lap();
+        long startTime = stats.getStartTime();
+        long endTime = stats.getEndTime();
+        double totaldist = stats.getDistance();
+
+        lap.startTime = startTime;
+
+        lap.startLat = WayPoint.toSemiCircles(stats.getFirstLat());
+        lap.startLon = WayPoint.toSemiCircles(stats.getFirstLon());
+
+        lap.endLat = WayPoint.toSemiCircles(stats.getLastLat());
+        lap.endLon = WayPoint.toSemiCircles(stats.getLastLon());
+
+        if (Log.isDebugEnabled())
+            Log.debug("Start: {} - End: {}", new Date(startTime).toString(), new Date(endTime).toString());
+
+        long duration = endTime - startTime;
+
+        lap.totalTimerTime = (float) (duration / 1000.0);
+        lap.totalDistance = (float) totaldist;
+        lap.avgSpeed = (float) (totaldist * 1000.0 / (double) duration);
+
+        lap.totalElapsedTime = (float) (duration / 1000.0);
+
+        double totalAsc = stats.getTotalAsc();
+        double totalDesc = stats.getTotalDesc();
+        double maxEle = stats.getMaxEle();
+        double minEle = stats.getMinEle();
+
+        if (!Double.isNaN(totalAsc)) {
+            totalAsc += 0.5;
+            if (Log.isDebugEnabled())
+                Log.debug("Total Ascent: {}", (int) totalAsc);
+            lap.totalAscent = (int) totalAsc;
+        }
+        if (!Double.isNaN(totalDesc)) {
+            totalDesc += 0.5;
+            if (Log.isDebugEnabled())
+                Log.debug("Total Descent: {}", (int) totalDesc);
+            lap.totalDescent = (int) totalDesc;
+        }
+        if (!Double.isNaN(maxEle)) {
+            if (Log.isDebugEnabled())
+                Log.debug("Max. Elevation: {}", (int) maxEle);
+            lap.maxAltitude = (float) maxEle;
+        }
+
+        if (!Double.isNaN(minEle)) {
+            if (Log.isDebugEnabled())
+                Log.debug("Min. Elevation: {}", (int) minEle);
+
+            lap.minAltitude = (float) minEle;
+        }
+
+        // Add the bounding box of the course in the undocumented fields
+        lap.boundMaxLat = WayPoint.toSemiCircles(stats.getMaxLat());
+        lap.boundMaxLon = WayPoint.toSemiCircles(stats.getMaxLong());
+        lap.boundMinLat = WayPoint.toSemiCircles(stats.getMinLat());
+        lap.boundMinLon = WayPoint.toSemiCircles(stats.getMinLong());
+
+        encode.writeLap(lap);
+
+        encode.writeEvent(FitCourseEncoder.EVENT_TIMER, FitCourseEncoder.EVENT_TYPE_START, 0, startTime);
+    }
+
+    private void writeTrailer(FitCourseEncoder encode, long timestamp) throws IOException {
+        encode.writeEvent(FitCourseEncoder.EVENT_TIMER, FitCourseEncoder.EVENT_TYPE_STOP_DISABLE_ALL, 0, timestamp);
+    }
+
+    /**
+     * Receives the points of a conversion together with their cumulative distance and effective timestamp.
+     */
+    private interface CourseSink {
+        void add(int i, double lat, double lon, double ele, double dist, long time) throws IOException;
+    }
+
+    /**
+     * Recomputes distances and forced speed timestamps while a document is parsed again, and passes
+     * the points on to a {@link CourseSink}.
+     */
+    private class Replay implements PointSink {
+        private final TrackStatistics mRunning = new TrackStatistics(mGpx2FitOptions);
+        private final boolean mForceSpeed;
+        private final CourseSink mNext;
+
+        Replay(TrackStatistics stats, CourseSink next) {
+            mForceSpeed = stats.isForceSpeed();
+            mNext = next;
+        }
+
+        @Override
+        public void add(double lat, double lon, double ele, long time) throws IOException {
+            int i = mRunning.getCount();
+            mRunning.add(lat, lon, ele, time);
+            mNext.add(i, lat, lon, ele, mRunning.getDistance(), mForceSpeed ? mRunning.getForcedTime() : time);
+        }
+    }
+
+    private class CoursePointWriter implements CourseSink {
+        private final FitCourseEncoder encode;
+        private final boolean zeroDuration;
+        private final int lastIndex;
+        private double cp_min_dist;
+        private double lcdist = .0;
+
+        CoursePointWriter(FitCourseEncoder encode, TrackStatistics stats) {
+            this.encode = encode;
+            zeroDuration = stats.getEndTime() == stats.getStartTime();
+            lastIndex = stats.getCount() - 1;
+
+            cp_min_dist = stats.getDistance() / 48.0;
+            if (cp_min_dist < mGpx2FitOptions.getMinCoursePointDistance())
+                cp_min_dist = mGpx2FitOptions.getMinCoursePointDistance();
+        }
+
+        @Override
+        public void add(int i, double lat, double lon, double ele, double dist, long time) throws IOException {
+            boolean written = false;
+            long timestamp;
+
+            if (!zeroDuration)
+                timestamp = time;
+            else
+                timestamp = WayPoint.RefMilliSec + (i + 1) * 1000L;
+
+            double gspeed = Double.NaN;
+            int latSemi = WayPoint.toSemiCircles(lat);
+            int lonSemi = WayPoint.toSemiCircles(lon);
+
+            if (i == 0) {
+                encode.writeCoursePoint(latSemi, lonSemi, "Start", FitCourseEncoder.COURSE_POINT_GENERIC,
+                        (float) dist, timestamp);
+                written = true;
+            }
+
+            if (i == lastIndex) {
+                encode.writeCoursePoint(latSemi, lonSemi, "End", FitCourseEncoder.COURSE_POINT_GENERIC,
+                        (float) dist, timestamp);
+                written = true;
+            } else if ((dist - lcdist) > cp_min_dist) {
+                encode.writeCoursePoint(latSemi, lonSemi, "", FitCourseEncoder.COURSE_POINT_GENERIC,
+                        (float) dist, timestamp);
+                lcdist = dist;
+                written = true;
+            }
+
+            if (Log.isDebugEnabled()) {
+                if (written) {
+                    Log.debug("{} [{} , {}] {} - {} - {}", new Date(timestamp),
+                            lat, lon, ele, dist, gspeed);
+                }
+            }
+        }
+    }
+
+    private class RecordWriter implements CourseSink {
+        private final FitCourseEncoder encode;
+        private final boolean zeroDuration;
+        private final boolean[] keep;
+        private double pt_min_dist = 0;
+        private double ldist = .0;
+        private long ltimestamp;
+        private long timestamp = WayPoint.RefMilliSec;
+
+        /**
+         * @param keep the points selected by a {@link TrackSimplifier}, or null to reduce points by distance
+         */
+        RecordWriter(FitCourseEncoder encode, TrackStatistics stats, boolean[] keep) {
+            this.encode = encode;
+            this.keep = keep;
+            zeroDuration = stats.getEndTime() == stats.getStartTime();
+            ltimestamp = stats.getStartTime();
+
+            if (mGpx2FitOptions.getMaxPoints() != 0)
+                pt_min_dist = stats.getDistance() / mGpx2FitOptions.getMaxPoints();
+            if (pt_min_dist < mGpx2FitOptions.getMinRoutePointDistance())
+                pt_min_dist = mGpx2FitOptions.getMinRoutePointDistance();
+        }
+
+        /**
+         * Timestamp of the last point seen, for the final timer event.
+         */
+        long getTimestamp() {
+            return timestamp;
+        }
+
+        @Override
+        public void add(int i, double lat, double lon, double ele, double dist, long time) throws IOException {
+            boolean written = false;
+
+            if (!zeroDuration)
+                timestamp = time;
+            else
+                timestamp = WayPoint.RefMilliSec + (i + 1) * 1000L;
+
+            double gspeed = Double.NaN;
+
+            boolean write;
+            if (keep != null)
+                write = keep[i];
+            else
+                write = (i == 0) || (dist - ldist) > pt_min_dist;
+
+            if (write) {
+                float speed;
+                if (ltimestamp != timestamp) {
+                    gspeed = (dist - ldist) / (timestamp - ltimestamp) * 1000.0;
+                    speed = (float) gspeed;
+                } else {
+                    speed = (float) 0.0;
+                }
+
+                // an unknown elevation repeats the last known one
+                encode.writeRecord(WayPoint.toSemiCircles(lat), WayPoint.toSemiCircles(lon), (float) dist,
+                        timestamp, (float) ele, speed);
+                ldist = dist;
+                ltimestamp = timestamp;
+                written = true;
+            }
+
+            if (Log.isDebugEnabled()) {
+                if (written) {
+                    Log.debug("{} [{} , {}] {} - {} - {}", new Date(timestamp),
+                            lat, lon, ele, dist, gspeed);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package org.surfsite.gexporter;
+
+
+/**
+ * Created by harald on 27.05.17.
+ */
+
+public class Gpx2FitOptions {
+    private double speed;
+    private boolean use3dDistance;
+    private boolean forceSpeed;
+    private boolean injectCoursePoints;
+    private boolean walkingGrade;
+    private double minRoutePointDistance;
+    private double minCoursePointDistance;
+    private int maxPoints;
+    private int speedUnit;
+    private DistanceCalculator.Mode distanceMode;
+    private TrackSimplifier.Method simplification;
+
+    public Gpx2FitOptions() {
+        speed = 1000.0 / 14.0 / 60.0;
+        use3dDistance = true;
+        walkingGrade = false;
+        forceSpeed = false;
+        injectCoursePoints = false;
+        minRoutePointDistance = 1.0;
+        minCoursePointDistance = 1000.0;
+        maxPoints = 1000;
+        distanceMode = DistanceCalculator.Mode.VINCENTY;
+        simplification = TrackSimplifier.Method.DOUGLAS_PEUCKER;
+    }
+
+    /**
+     * Options to edit starting from {@code options}, with the default speed unit.
+     */
+    public Gpx2FitOptions(Snapshot options) {
+        speed = options.getSpeed();
+        use3dDistance = options.isUse3dDistance();
+        walkingGrade = options.isWalkingGrade();
+        forceSpeed = options.isForceSpeed();
+        injectCoursePoints = options.isInjectCoursePoints();
+        minRoutePointDistance = options.getMinRoutePointDistance();
+        minCoursePointDistance = options.getMinCoursePointDistance();
+        maxPoints = options.getMaxPoints();
+        distanceMode = options.getDistanceMode();
+        simplification = options.getSimplification();
+    }
+
+    public double getSpeed() {
+        return speed;
+    }
+
+    public void setSpeed(double speed) {
+        this.speed = speed;
+    }
+
+    public boolean isUse3dDistance() {
+        return use3dDistance;
+    }
+
+    public void setUse3dDistance(boolean use3dDistance) {
+        this.use3dDistance = use3dDistance;
+    }
+
+    public boolean isForceSpeed() {
+        return forceSpeed;
+    }
+
+    public void setForceSpeed(boolean forceSpeed) {
+        this.forceSpeed = forceSpeed;
+    }
+
+    public boolean isInjectCoursePoints() {
+        return injectCoursePoints;
+    }
+
+    public void setInjectCoursePoints(boolean injectCoursePoints) {
+        this.injectCoursePoints = injectCoursePoints;
+    }
+
+    public double getMinRoutePointDistance() {
+        return minRoutePointDistance;
+    }
+
+    public void setMinRoutePointDistance(double minRoutePointDistance) {
+        this.minRoutePointDistance = minRoutePointDistance;
+    }
+
+    public double getMinCoursePointDistance() {
+        return minCoursePointDistance;
+    }
+
+    public void setMinCoursePointDistance(double minCoursePointDistance) {
+        this.minCoursePointDistance = minCoursePointDistance;
+    }
+
+    public boolean isWalkingGrade() {
+        return walkingGrade;
+    }
+
+    public void setWalkingGrade(boolean walkingGrade) {
+        this.walkingGrade = walkingGrade;
+    }
+
+    public int getMaxPoints() {
+        return maxPoints;
+    }
+
+    public void setMaxPoints(int maxPoints) {
+        this.maxPoints = maxPoints;
+    }
+
+    public int getSpeedUnit() {
+        return speedUnit;
+    }
+
+    public void setSpeedUnit(int speedUnit) {
+        this.speedUnit = speedUnit;
+    }
+
+    public DistanceCalculator.Mode getDistanceMode() {
+        return distanceMode != null ? distanceMode : DistanceCalculator.Mode.VINCENTY;
+    }
+
+    public void setDistanceMode(DistanceCalculator.Mode distanceMode) {
+        this.distanceMode = distanceMode;
+    }
+
+    public TrackSimplifier.Method getSimplification() {
+        return simplification != null ? simplification : TrackSimplifier.Method.DOUGLAS_PEUCKER;
+    }
+
+    /**
+     * How points are reduced to {@link #getMaxPoints()}. Only honoured for tracks converted in memory:
+     * {@link Gpx2Fit#writeFitStreaming} never holds all points and always reduces by
+     * {@link TrackSimplifier.Method#DISTANCE}, so convert with that method when streaming.
+     */
+    public void setSimplification(TrackSimplifier.Method simplification) {
+        this.simplification = simplification;
+    }
+
+    /**
+     * An immutable copy of these options, safe to share with conversions running while the options
+     * are edited.
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    /**
+     * Options that cannot change, taken by conversions and caches. Compared and hashed by their
+     * fingerprint. Copy them with {@link Gpx2FitOptions#Gpx2FitOptions(Snapshot)} to derive other options.
+     */
+    public static final class Snapshot {
+        private final double speed;
+        private final boolean use3dDistance;
+        private final boolean forceSpeed;
+        private final boolean injectCoursePoints;
+        private final boolean walkingGrade;
+        private final double minRoutePointDistance;
+        private final double minCoursePointDistance;
+        private final int maxPoints;
+        private final DistanceCalculator.Mode distanceMode;
+        private final TrackSimplifier.Method simplification;
+        private final String fingerprint;
+
+        private Snapshot(Gpx2FitOptions options) {
+            speed = options.speed;
+            use3dDistance = options.use3dDistance;
+            forceSpeed = options.forceSpeed;
+            injectCoursePoints = options.injectCoursePoints;
+            walkingGrade = options.walkingGrade;
+            minRoutePointDistance = options.minRoutePointDistance;
+            minCoursePointDistance = options.minCoursePointDistance;
+            maxPoints = options.maxPoints;
+            distanceMode = options.getDistanceMode();
+            simplification = options.getSimplification();
+            fingerprint = Long.toHexString(Double.doubleToLongBits(speed)) + ":" +
+                    use3dDistance + ":" +
+                    forceSpeed + ":" +
+                    injectCoursePoints + ":" +
+                    walkingGrade + ":" +
+                    Long.toHexString(Double.doubleToLongBits(minRoutePointDistance)) + ":" +
+                    Long.toHexString(Double.doubleToLongBits(minCoursePointDistance)) + ":" +
+                    maxPoints + ":" +
+                    distanceMode + ":" +
+                    simplification;
+        }
+
+        public double getSpeed() {
+            return speed;
+        }
+
+        public boolean isUse3dDistance() {
+            return use3dDistance;
+        }
+
+        public boolean isForceSpeed() {
+            return forceSpeed;
+        }
+
+        public boolean isInjectCoursePoints() {
+            return injectCoursePoints;
+        }
+
+        public boolean isWalkingGrade() {
+            return walkingGrade;
+        }
+
+        public double getMinRoutePointDistance() {
+            return minRoutePointDistance;
+        }
+
+        public double getMinCoursePointDistance() {
+            return minCoursePointDistance;
+        }
+
+        public int getMaxPoints() {
+            return maxPoints;
+        }
+
+        public DistanceCalculator.Mode getDistanceMode() {
+            return distanceMode;
+        }
+
+        public TrackSimplifier.Method getSimplification() {
+            return simplification;
+        }
+
+        /**
+         * Describes all options that influence the generated FIT file. Two snapshots with the same
+         * fingerprint produce the same output for the same source.
+         */
+        public String getFingerprint() {
+            return fingerprint;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Snapshot && fingerprint.equals(((Snapshot) o).fingerprint);
+        }
+
+        @Override
+        public int hashCode() {
+            return fingerprint.hashCode();
+        }
+    }
+}
@@ -0,0 +1,863 @@
+package org.surfsite.gexporter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Reads the points of the first track or route with points of a GPX document straight from its UTF-8
+ * bytes, e.g. a memory mapped file, instead of going through the pull parser of {@link Gpx2Fit}.
+ * <p>
+ * Names, attributes and values are compared and decoded in place, no strings are created for them,
+ * and elements that are not read, like vendor {@code <extensions>}, are skipped by searching for the
+ * next markup. The points passed on are the same the pull parser passes on.
+ * <p>
+ * Only plain documents are understood. Anything else makes {@link #scan} return -1, and the caller
+ * parses the document with the pull parser, which reads it or reports the error. This includes
+ * encodings other than UTF-8, a DOCTYPE, entities other than the predefined ones, namespace prefixes
+ * or declarations on the GPX elements, markup or entities inside the values read, and malformed
+ * documents.
+ * <p>
+ * Large documents can be split into chunks that are scanned concurrently, see
+ * {@link #scan(File, Track, DistanceCalculator.Mode, Executor, int)}.
+ */
+final class GpxScanner {
+    private static final Logger Log = LoggerFactory.getLogger(GpxScanner.class);
+
+    private static final byte[] GPX = ascii("gpx");
+    private static final byte[] TRK = ascii("trk");
+    private static final byte[] TRKSEG = ascii("trkseg");
+    private static final byte[] TRKPT = ascii("trkpt");
+    private static final byte[] RTE = ascii("rte");
+    private static final byte[] RTEPT = ascii("rtept");
+    private static final byte[] ELE = ascii("ele");
+    private static final byte[] TIME = ascii("time");
+    private static final byte[] LAT = ascii("lat");
+    private static final byte[] LON = ascii("lon");
+    private static final byte[] XMLNS = ascii("xmlns");
+    private static final byte[][] NAMESPACES = {
+            ascii("http://www.topografix.com/GPX/1/0"), ascii("http://www.topografix.com/GPX/1/1"), ascii("")
+    };
+
+    // smallest chunk worth a task of its own
+    private static final int MIN_CHUNK_SIZE = 1024 * 1024;
+
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    /**
+     * The document needs the pull parser.
+     */
+    static class Unsupported extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        Unsupported(String reason) {
+            super(reason);
+        }
+    }
+
+    /**
+     * A chunk reached the point where the next chunk starts.
+     */
+    private static class Boundary extends Exception {
+        private static final long serialVersionUID = 1L;
+    }
+
+    private final ByteBuffer mBuf;
+    private final int mEnd;
+    private final PointSink mSink;
+    private int mPos;
+    private int mCount;
+    // start of the next chunk, where scanning stops
+    private int mLimit = Integer.MAX_VALUE;
+
+    // the last tag read
+    private boolean mEndTag;
+    private int mNameStart;
+    private int mNameEnd;
+    private boolean mEmpty;
+    // the lat and lon attributes of the last start tag, NaN if not present
+    private double mLat;
+    private double mLon;
+
+    // names of the elements being skipped, as start and end offsets
+    private int[] mStack = new int[32];
+    private char[] mChars = new char[64];
+
+    private GpxScanner(ByteBuffer buf, int start, int end, PointSink sink) {
+        mBuf = buf;
+        mPos = start;
+        mEnd = end;
+        mSink = sink;
+    }
+
+    /**
+     * Maps {@code file} and reads its points into {@code sink}.
+     *
+     * @return the number of points read, or -1 if the document needs the pull parser; {@code sink} may
+     * have received points then
+     */
+    static int scan(File file, PointSink sink) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE)
+                return -1;
+            return scan(channel.map(FileChannel.MapMode.READ_ONLY, 0, size), sink);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Reads the points of the document between the position and the limit of {@code buf}.
+     *
+     * @see #scan(File, PointSink)
+     */
+    static int scan(ByteBuffer buf, PointSink sink) throws IOException {
+        GpxScanner scanner = new GpxScanner(buf, buf.position(), buf.limit(), sink);
+        try {
+            scanner.readDocument();
+            return scanner.mCount;
+        } catch (Unsupported e) {
+            Log.debug("Falling back to the pull parser: {}", e.getMessage());
+            return -1;
+        } catch (NumberFormatException e) {
+            Log.debug("Falling back to the pull parser: {}", e.toString());
+            return -1;
+        } catch (Boundary e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Like {@link #scan(File, PointSink)}, but splits the document into up to {@code chunks} byte ranges
+     * that are scanned concurrently, and computes the geodesic length of the segments on the way.
+     *
+     * @return the 2D length of the segment ending at every point, see {@link TrackAnalysis}, or null if
+     * the document needs the pull parser; {@code track} may have received points then
+     */
+    static double[] scan(File file, Track track, DistanceCalculator.Mode distanceMode, Executor executor,
+                         int chunks) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE)
+                return null;
+            return scan(channel.map(FileChannel.MapMode.READ_ONLY, 0, size), track, distanceMode, executor, chunks);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Scans the document between the position and the limit of {@code buf} in chunks.
+     * <p>
+     * Every chunk but the first starts at a {@code <trkpt} or {@code <rtept} found by searching forward
+     * from an even split, and is scanned as if it were inside its segment or route. The guess is
+     * verified by the previous chunk, which has to arrive at exactly that point while reading the
+     * points of the same kind. Chunks run on {@code executor} and on the calling thread, which scans
+     * all chunks no other thread started, so a busy or saturated executor only costs parallelism.
+     *
+     * @see #scan(File, Track, DistanceCalculator.Mode, Executor, int)
+     */
+    static double[] scan(ByteBuffer buf, Track track, DistanceCalculator.Mode distanceMode, Executor executor,
+                         int chunks) throws IOException {
+        return scan(buf, track, distanceMode, executor, chunks, MIN_CHUNK_SIZE);
+    }
+
+    static double[] scan(ByteBuffer buf, Track track, DistanceCalculator.Mode distanceMode, Executor executor,
+                         int chunks, int minChunkSize) throws IOException {
+        int[] bounds = split(buf, buf.position(), buf.limit(), chunks, minChunkSize);
+        CountDownLatch done = new CountDownLatch(bounds.length - 1);
+        Chunk[] parts = new Chunk[bounds.length - 1];
+        for (int i = 0; i < parts.length; i++) {
+            int limit = i + 2 < bounds.length ? bounds[i + 1] : Integer.MAX_VALUE;
+            parts[i] = new Chunk(buf.duplicate(), bounds[i], limit, buf.limit(), i == 0, distanceMode, done);
+        }
+        for (int i = 1; i < parts.length; i++) {
+            try {
+                executor.execute(parts[i]);
+            } catch (RejectedExecutionException e) {
+                break;
+            }
+        }
+        for (Chunk part : parts)
+            part.run();
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while scanning");
+        }
+
+        // the chunks up to the end of the track or route
+        int used = 0;
+        int size = 0;
+        for (Chunk part : parts) {
+            if (part.mFailure != null) {
+                if (part.mFailure instanceof IOException)
+                    throw (IOException) part.mFailure;
+                Log.debug("Falling back to the pull parser: {}", part.mFailure.getMessage());
+                return null;
+            }
+            used++;
+            size += part.mTrack.size();
+            if (!part.mBoundary)
+                break;
+        }
+
+        double[] segments = new double[size];
+        for (int i = 0; i < used; i++) {
+            Track points = parts[i].mTrack;
+            int offset = track.size();
+            track.addAll(points);
+            System.arraycopy(parts[i].mSegments, 0, segments, offset, points.size());
+            // the segment across the seam
+            if (offset > 0 && points.size() > 0)
+                segments[offset] = DistanceCalculator.distance(distanceMode, track.getLat(offset - 1),
+                        track.getLon(offset - 1), track.getLat(offset), track.getLon(offset));
+        }
+        return segments;
+    }
+
+    /**
+     * Start of every chunk, followed by the end of the document.
+     */
+    private static int[] split(ByteBuffer buf, int start, int end, int chunks, int minChunkSize) {
+        chunks = (int) Math.max(1, Math.min(chunks, ((long) end - start) / minChunkSize));
+        int[] bounds = new int[chunks + 1];
+        int n = 0;
+        bounds[n++] = start;
+        for (int i = 1; i < chunks; i++) {
+            int from = Math.max((int) (start + ((long) end - start) * i / chunks), bounds[n - 1] + 1);
+            int p = findPoint(buf, from, end);
+            if (p < 0)
+                break;
+            bounds[n++] = p;
+        }
+        bounds[n++] = end;
+        return Arrays.copyOf(bounds, n);
+    }
+
+    /**
+     * Position of the next {@code <trkpt} or {@code <rtept} tag, -1 if there is none.
+     */
+    private static int findPoint(ByteBuffer buf, int from, int end) {
+        for (int p = from; p + 6 < end; p++) {
+            if (buf.get(p) != '<')
+                continue;
+            byte b = buf.get(p + 1);
+            if ((b == 't' || b == 'r') && buf.get(p + 2) == (b == 't' ? 'r' : 't')
+                    && buf.get(p + 3) == (b == 't' ? 'k' : 'e')
+                    && buf.get(p + 4) == 'p' && buf.get(p + 5) == 't' && isDelimiter(buf.get(p + 6)))
+                return p;
+        }
+        return -1;
+    }
+
+    /**
+     * The points of a byte range and the length of their segments, except the one across the seam to
+     * the previous chunk.
+     */
+    private static class Chunk implements Runnable {
+        private final ByteBuffer mBuf;
+        private final int mStart;
+        private final int mLimit;
+        private final int mEnd;
+        private final boolean mFirst;
+        private final DistanceCalculator.Mode mDistanceMode;
+        private final CountDownLatch mDone;
+        private final AtomicBoolean mClaimed = new AtomicBoolean();
+
+        private final Track mTrack;
+        private double[] mSegments;
+        // reached the start of the next chunk, otherwise the track or route ended
+        private boolean mBoundary;
+        private Exception mFailure;
+
+        Chunk(ByteBuffer buf, int start, int limit, int end, boolean first, DistanceCalculator.Mode distanceMode,
+              CountDownLatch done) {
+            mBuf = buf;
+            mStart = start;
+            mLimit = limit;
+            mEnd = end;
+            mFirst = first;
+            mDistanceMode = distanceMode;
+            mDone = done;
+            // about a hundred bytes per point
+            mTrack = new Track((Math.min(limit, end) - start) / 100);
+        }
+
+        @Override
+        public void run() {
+            if (!mClaimed.compareAndSet(false, true))
+                return;
+            try {
+                scan();
+                int n = mTrack.size();
+                mSegments = new double[n];
+                for (int i = 1; i < n; i++)
+                    mSegments[i] = DistanceCalculator.distance(mDistanceMode, mTrack.getLat(i - 1),
+                            mTrack.getLon(i - 1), mTrack.getLat(i), mTrack.getLon(i));
+            } catch (Exception e) {
+                mFailure = e;
+            } finally {
+                mDone.countDown();
+            }
+        }
+
+        private void scan() throws Unsupported, IOException {
+            GpxScanner scanner = new GpxScanner(mBuf, mStart, mEnd, mTrack);
+            scanner.mLimit = mLimit;
+            try {
+                if (mFirst) {
+                    scanner.readDocument();
+                } else if (scanner.startsWith(mStart + 1, TRKPT)) {
+                    scanner.readContainer(TRKSEG, TRKPT);
+                    scanner.readContainer(TRK, TRKSEG);
+                } else {
+                    scanner.readContainer(RTE, RTEPT);
+                }
+            } catch (Boundary e) {
+                mBoundary = true;
+            }
+        }
+    }
+
+    private void readDocument() throws Unsupported, Boundary, IOException {
+        // byte order mark
+        if (startsWith(mPos, (byte) 0xEF, (byte) 0xBB, (byte) 0xBF))
+            mPos += 3;
+        while (true) {
+            skipWhitespace();
+            if (startsWith(mPos, "<?xml")) {
+                int end = indexOf(mPos, "?>");
+                checkEncoding(mPos, end);
+                mPos = end + 2;
+            } else if (startsWith(mPos, "<?")) {
+                mPos = indexOf(mPos, "?>") + 2;
+            } else if (startsWith(mPos, "<!--")) {
+                mPos = indexOf(mPos + 4, "-->") + 3;
+            } else if (startsWith(mPos, "<") && !startsWith(mPos, "<!")) {
+                break;
+            } else {
+                throw new Unsupported("Unexpected prolog");
+            }
+        }
+
+        readTag(true);
+        if (!isName(GPX))
+            throw new Unsupported("Expected <gpx> root element");
+        if (mEmpty)
+            return;
+        while (nextTag(null)) {
+            if (isName(TRK)) {
+                readContainer(TRK, TRKSEG);
+                if (mCount > 0)
+                    return;
+            } else if (isName(RTE)) {
+                readContainer(RTE, RTEPT);
+                if (mCount > 0)
+                    return;
+            } else {
+                skipElement();
+            }
+        }
+        requireEnd(GPX);
+    }
+
+    /**
+     * Reads the children of a {@code <trk>}, {@code <trkseg>} or {@code <rte>}.
+     *
+     * @param child {@code <trkseg>} of a track, or the points of a segment or route
+     */
+    private void readContainer(byte[] name, byte[] child) throws Unsupported, Boundary, IOException {
+        if (mEmpty)
+            return;
+        while (nextTag(child == TRKSEG ? null : child)) {
+            if (!isName(child))
+                skipElement();
+            else if (child == TRKSEG)
+                readContainer(TRKSEG, TRKPT);
+            else
+                readPoint(child);
+        }
+        requireEnd(name);
+    }
+
+    private void readPoint(byte[] name) throws Unsupported, Boundary, IOException {
+        double lat = mLat;
+        double lon = mLon;
+        if (Double.isNaN(lat) || Double.isNaN(lon))
+            throw new Unsupported("Point without lat or lon");
+        double ele = Double.NaN;
+        long time = WayPoint.RefMilliSec;
+
+        if (!mEmpty) {
+            while (nextTag(null)) {
+                if (isName(ELE)) {
+                    if (mEmpty)
+                        throw new Unsupported("Empty <ele>");
+                    int start = mPos;
+                    int end = readText();
+                    // elevations are kept at float precision, see Track
+                    ele = (float) parseDouble(start, end);
+                    requireEnd(ELE);
+                } else if (isName(TIME)) {
+                    if (!mEmpty) {
+                        int start = mPos;
+                        int end = readText();
+                        long t = parseTime(start, end);
+                        if (t != Iso8601.INVALID)
+                            time = t;
+                        requireEnd(TIME);
+                    }
+                } else {
+                    skipElement();
+                }
+            }
+            requireEnd(name);
+        }
+        mSink.add(lat, lon, ele, time);
+        mCount++;
+    }
+
+    /**
+     * Skips the element of the start tag just read, including all its children.
+     */
+    private void skipElement() throws Unsupported, Boundary {
+        if (mEmpty)
+            return;
+        int depth = 0;
+        push(depth++);
+        while (depth > 0) {
+            skipContent(null);
+            readTag(false);
+            if (!mEndTag) {
+                if (!mEmpty)
+                    push(depth++);
+            } else {
+                depth--;
+                int start = mStack[2 * depth];
+                int end = mStack[2 * depth + 1];
+                if (!regionMatches(mNameStart, mNameEnd, start, end))
+                    throw new Unsupported("Mismatched end tag");
+            }
+        }
+    }
+
+    private void push(int depth) {
+        if (2 * depth + 1 >= mStack.length)
+            mStack = Arrays.copyOf(mStack, mStack.length * 2);
+        mStack[2 * depth] = mNameStart;
+        mStack[2 * depth + 1] = mNameEnd;
+    }
+
+    /**
+     * Reads up to the next tag of the current element.
+     *
+     * @param points the points the element contains, null if it contains no points
+     * @return true for a start tag of a child, false for the end tag of the element
+     */
+    private boolean nextTag(byte[] points) throws Unsupported, Boundary {
+        skipContent(points);
+        readTag(false);
+        if (!mEndTag && hasPrefix())
+            throw new Unsupported("Prefixed element");
+        return !mEndTag;
+    }
+
+    /**
+     * Skips text, comments, processing instructions and CDATA sections up to the next tag.
+     *
+     * @param points the points that may follow, where the next chunk may start
+     */
+    private void skipContent(byte[] points) throws Unsupported, Boundary {
+        while (true) {
+            int p = mPos;
+            while (p < mEnd) {
+                byte b = mBuf.get(p);
+                if (b == '<')
+                    break;
+                if (b == '&')
+                    p = checkEntity(p);
+                else
+                    p++;
+            }
+            if (p >= mEnd)
+                throw new Unsupported("Unexpected end of document");
+            mPos = p;
+            if (p >= mLimit) {
+                if (p == mLimit && points != null && startsWith(p + 1, points))
+                    throw new Boundary();
+                throw new Unsupported("Chunk boundary inside markup");
+            }
+            if (startsWith(p, "<!--"))
+                mPos = indexOf(p + 4, "-->") + 3;
+            else if (startsWith(p, "<![CDATA["))
+                mPos = indexOf(p + 9, "]]>") + 3;
+            else if (startsWith(p, "<?"))
+                mPos = indexOf(p + 2, "?>") + 2;
+            else if (startsWith(p, "<!"))
+                throw new Unsupported("Unexpected declaration");
+            else
+                return;
+        }
+    }
+
+    /**
+     * Reads the start or end tag at the current position.
+     *
+     * @param root whether the tag is the root element, which may declare the GPX namespace
+     */
+    private void readTag(boolean root) throws Unsupported {
+        int p = mPos + 1;
+        mEndTag = p < mEnd && mBuf.get(p) == '/';
+        if (mEndTag)
+            p++;
+        mNameStart = p;
+        while (p < mEnd && !isDelimiter(mBuf.get(p)))
+            p++;
+        mNameEnd = p;
+        if (mNameEnd == mNameStart)
+            throw new Unsupported("Missing element name");
+        mLat = Double.NaN;
+        mLon = Double.NaN;
+        mEmpty = false;
+
+        while (true) {
+            p = skipWhitespace(p);
+            if (p >= mEnd)
+                throw new Unsupported("Unexpected end of document");
+            byte b = mBuf.get(p);
+            if (b == '>') {
+                mPos = p + 1;
+                return;
+            }
+            if (b == '/' && !mEndTag && p + 1 < mEnd && mBuf.get(p + 1) == '>') {
+                mEmpty = true;
+                mPos = p + 2;
+                return;
+            }
+            if (mEndTag)
+                throw new Unsupported("Malformed end tag");
+
+            // an attribute
+            int nameStart = p;
+            while (p < mEnd && !isDelimiter(mBuf.get(p)) && mBuf.get(p) != '=')
+                p++;
+            int nameEnd = p;
+            p = skipWhitespace(p);
+            if (nameEnd == nameStart || p >= mEnd || mBuf.get(p) != '=')
+                throw new Unsupported("Malformed attribute");
+            p = skipWhitespace(p + 1);
+            if (p >= mEnd)
+                throw new Unsupported("Unexpected end of document");
+            byte quote = mBuf.get(p);
+            if (quote != '"' && quote != '\'')
+                throw new Unsupported("Unquoted attribute");
+            int valueStart = ++p;
+            boolean entity = false;
+            while (p < mEnd && mBuf.get(p) != quote) {
+                byte c = mBuf.get(p);
+                if (c == '<')
+                    throw new Unsupported("Malformed attribute");
+                if (c == '&')
+                    entity = true;
+                p++;
+            }
+            if (p >= mEnd)
+                throw new Unsupported("Unexpected end of document");
+            int valueEnd = p++;
+
+            if (regionMatches(nameStart, nameEnd, XMLNS)) {
+                if (!root || !isNamespace(valueStart, valueEnd))
+                    throw new Unsupported("Namespace declaration");
+            } else if (regionMatches(nameStart, nameEnd, LAT)) {
+                if (entity)
+                    throw new Unsupported("Entity in attribute");
+                mLat = parseDouble(valueStart, valueEnd);
+            } else if (regionMatches(nameStart, nameEnd, LON)) {
+                if (entity)
+                    throw new Unsupported("Entity in attribute");
+                mLon = parseDouble(valueStart, valueEnd);
+            }
+        }
+    }
+
+    /**
+     * Reads the text of an element up to its end tag, which is read as well.
+     *
+     * @return the end of the text, which starts at the current position
+     */
+    private int readText() throws Unsupported {
+        int p = mPos;
+        while (p < mEnd) {
+            byte b = mBuf.get(p);
+            if (b == '<')
+                break;
+            if (b == '&')
+                throw new Unsupported("Entity in value");
+            p++;
+        }
+        if (p + 1 >= mEnd || mBuf.get(p + 1) != '/')
+            throw new Unsupported("Markup in value");
+        mPos = p;
+        readTag(false);
+        return p;
+    }
+
+    private void requireEnd(byte[] name) throws Unsupported {
+        if (!mEndTag || !isName(name))
+            throw new Unsupported("Mismatched end tag");
+    }
+
+    private boolean isName(byte[] name) {
+        return regionMatches(mNameStart, mNameEnd, name);
+    }
+
+    private boolean hasPrefix() {
+        for (int p = mNameStart; p < mNameEnd; p++)
+            if (mBuf.get(p) == ':')
+                return true;
+        return false;
+    }
+
+    private boolean isNamespace(int start, int end) {
+        for (byte[] namespace : NAMESPACES)
+            if (regionMatches(start, end, namespace))
+                return true;
+        return false;
+    }
+
+    private void checkEncoding(int start, int end) throws Unsupported {
+        int p = start;
+        while (p < end && !startsWith(p, "encoding"))
+            p++;
+        if (p >= end)
+            return;
+        p = skipWhitespace(p + "encoding".length());
+        if (p < end && mBuf.get(p) == '=')
+            p = skipWhitespace(p + 1);
+        if (p >= end)
+            throw new Unsupported("Malformed XML declaration");
+        byte quote = mBuf.get(p);
+        int valueStart = p + 1;
+        int valueEnd = valueStart;
+        while (valueEnd < end && mBuf.get(valueEnd) != quote)
+            valueEnd++;
+        if (!equalsIgnoreCase(valueStart, valueEnd, "UTF-8") && !equalsIgnoreCase(valueStart, valueEnd, "US-ASCII"))
+            throw new Unsupported("Encoding");
+    }
+
+    /**
+     * Checks that the reference at {@code p} is a predefined entity or a character reference.
+     *
+     * @return the position after the reference
+     */
+    private int checkEntity(int p) throws Unsupported {
+        int end = p + 1;
+        while (end < mEnd && end - p < 12 && mBuf.get(end) != ';')
+            end++;
+        if (end >= mEnd || mBuf.get(end) != ';')
+            throw new Unsupported("Malformed reference");
+        int name = p + 1;
+        if (regionMatches(name, end, "amp") || regionMatches(name, end, "lt")
+                || regionMatches(name, end, "gt") || regionMatches(name, end, "quot")
+                || regionMatches(name, end, "apos"))
+            return end + 1;
+        if (end - name >= 2 && mBuf.get(name) == '#')
+            return end + 1;
+        throw new Unsupported("Entity");
+    }
+
+    private long parseTime(int start, int end) {
+        int len = end - start;
+        if (len > mChars.length)
+            mChars = new char[len];
+        for (int i = 0; i < len; i++)
+            mChars[i] = (char) (mBuf.get(start + i) & 0xFF);
+        return Iso8601.parse(mChars, 0, len);
+    }
+
+    /**
+     * Same as {@link Double#parseDouble(String)} on the bytes. Plain decimal numbers with up to 18
+     * significant digits and a small exponent, i.e. all common coordinates and elevations, are
+     * converted exactly with a single rounding, without creating a string.
+     */
+    double parseDouble(int start, int end) {
+        int p = start;
+        int e = end;
+        // surrounding whitespace, like String.trim
+        while (p < e && (mBuf.get(p) & 0xFF) <= ' ')
+            p++;
+        while (e > p && (mBuf.get(e - 1) & 0xFF) <= ' ')
+            e--;
+
+        int q = p;
+        boolean negative = false;
+        if (q < e && (mBuf.get(q) == '-' || mBuf.get(q) == '+')) {
+            negative = mBuf.get(q) == '-';
+            q++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean anyDigit = false;
+        boolean point = false;
+        for (; q < e; q++) {
+            byte b = mBuf.get(q);
+            if (b >= '0' && b <= '9') {
+                anyDigit = true;
+                if (mantissa == 0 && b == '0') {
+                    // leading zeros are not significant
+                    if (point)
+                        exponent--;
+                    continue;
+                }
+                if (++digits > 18)
+                    return parseDoubleSlow(p, e);
+                mantissa = mantissa * 10 + (b - '0');
+                if (point)
+                    exponent--;
+            } else if (b == '.' && !point) {
+                point = true;
+            } else {
+                break;
+            }
+        }
+        if (!anyDigit)
+            return parseDoubleSlow(p, e);
+        if (q < e) {
+            byte b = mBuf.get(q);
+            if (b != 'e' && b != 'E')
+                return parseDoubleSlow(p, e);
+            q++;
+            boolean negativeExponent = false;
+            if (q < e && (mBuf.get(q) == '-' || mBuf.get(q) == '+')) {
+                negativeExponent = mBuf.get(q) == '-';
+                q++;
+            }
+            int exp = 0;
+            int expStart = q;
+            for (; q < e; q++) {
+                b = mBuf.get(q);
+                if (b < '0' || b > '9' || exp > 1000)
+                    return parseDoubleSlow(p, e);
+                exp = exp * 10 + (b - '0');
+            }
+            if (q == expStart)
+                return parseDoubleSlow(p, e);
+            exponent += negativeExponent ? -exp : exp;
+        }
+
+        double value;
+        if (mantissa == 0)
+            value = 0.0;
+        else if (mantissa < (1L << 53) && exponent >= -22 && exponent <= 22)
+            // both operands are exact, so the result is rounded once, like parseDouble does
+            value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+        else
+            return parseDoubleSlow(p, e);
+        return negative ? -value : value;
+    }
+
+    private double parseDoubleSlow(int start, int end) {
+        char[] chars = new char[end - start];
+        for (int i = 0; i < chars.length; i++)
+            chars[i] = (char) (mBuf.get(start + i) & 0xFF);
+        return Double.parseDouble(new String(chars));
+    }
+
+    private void skipWhitespace() {
+        mPos = skipWhitespace(mPos);
+    }
+
+    private int skipWhitespace(int p) {
+        while (p < mEnd) {
+            byte b = mBuf.get(p);
+            if (b != ' ' && b != '\n' && b != '\r' && b != '\t')
+                break;
+            p++;
+        }
+        return p;
+    }
+
+    private static boolean isDelimiter(byte b) {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t' || b == '/' || b == '>';
+    }
+
+    private int indexOf(int from, String s) throws Unsupported {
+        for (int p = from; p + s.length() <= mEnd; p++)
+            if (startsWith(p, s))
+                return p;
+        throw new Unsupported("Unexpected end of document");
+    }
+
+    private boolean startsWith(int p, String s) {
+        if (p + s.length() > mEnd)
+            return false;
+        for (int i = 0; i < s.length(); i++)
+            if (mBuf.get(p + i) != s.charAt(i))
+                return false;
+        return true;
+    }
+
+    private boolean startsWith(int p, byte... bytes) {
+        if (p + bytes.length > mEnd)
+            return false;
+        for (int i = 0; i < bytes.length; i++)
+            if (mBuf.get(p + i) != bytes[i])
+                return false;
+        return true;
+    }
+
+    private boolean regionMatches(int start, int end, byte[] bytes) {
+        return end - start == bytes.length && startsWith(start, bytes);
+    }
+
+    private boolean regionMatches(int start, int end, String s) {
+        return end - start == s.length() && startsWith(start, s);
+    }
+
+    private boolean regionMatches(int start1, int end1, int start2, int end2) {
+        if (end1 - start1 != end2 - start2)
+            return false;
+        for (int i = 0; i < end1 - start1; i++)
+            if (mBuf.get(start1 + i) != mBuf.get(start2 + i))
+                return false;
+        return true;
+    }
+
+    private boolean equalsIgnoreCase(int start, int end, String s) {
+        if (end - start != s.length())
+            return false;
+        for (int i = 0; i < s.length(); i++)
+            if (Character.toUpperCase((char) mBuf.get(start + i)) != s.charAt(i))
+                return false;
+        return true;
+    }
+
+    private static byte[] ascii(String s) {
+        byte[] bytes = new byte[s.length()];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = (byte) s.charAt(i);
+        return bytes;
+    }
+}
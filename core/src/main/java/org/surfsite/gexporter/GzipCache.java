@@ -0,0 +1,238 @@
+package org.surfsite.gexporter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Pre-compressed copies of files that are served as they are, e.g. GPX passthrough.
+ * <p>
+ * The first requests of a file are compressed on the fly. Once a file was requested
+ * {@link #HOT_REQUESTS} times a gzip copy is written in the background and sent from then on, without
+ * compressing again. The copies are kept in a {@link ConversionCache} of their own, bounded by their
+ * total size and surviving restarts. The copy of an older version of a file is deleted once its
+ * current version is compressed.
+ */
+public class GzipCache {
+    private static final Logger Log = LoggerFactory.getLogger(GzipCache.class);
+
+    static final int HOT_REQUESTS = 2;
+    static final String DIR = "gzip";
+    public static final long DEFAULT_MAX_BYTES = 32 * 1024 * 1024;
+    // files whose requests and current version are tracked
+    private static final int TRACKED_FILES = 256;
+
+    // magic, deflate, no flags, no mtime, no extra flags, unknown OS
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    private final ConversionCache mFiles;
+    private final Executor mExecutor;
+    // requests of files not compressed yet, by key
+    private final Map<String, Integer> mRequests = new LinkedHashMap<String, Integer>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+            return size() > TRACKED_FILES;
+        }
+    };
+    // key of the latest compressed version, by path
+    private final Map<String, String> mVersions = new LinkedHashMap<String, String>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > TRACKED_FILES;
+        }
+    };
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+
+    public GzipCache(File cacheDir, Executor executor) {
+        this(cacheDir, executor, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * @param executor runs the compression of hot files
+     * @param maxBytes total size of the compressed copies
+     */
+    public GzipCache(File cacheDir, Executor executor, long maxBytes) {
+        deleteUnbounded(cacheDir);
+        mFiles = new ConversionCache(new File(cacheDir, DIR), maxBytes, ".gz");
+        mExecutor = executor;
+    }
+
+    /**
+     * Returns the compressed copy of {@code src}, or null if it has to be compressed on the fly.
+     *
+     * @param key identity of the content of {@code src}, changes whenever the file does
+     */
+    public File get(final String key, final File src) {
+        File gz = mFiles.get(key);
+        if (gz != null) {
+            mHits.incrementAndGet();
+            return gz;
+        }
+        mMisses.incrementAndGet();
+
+        int requests;
+        synchronized (mRequests) {
+            Integer previous = mRequests.get(key);
+            requests = previous != null ? previous + 1 : 1;
+            mRequests.put(key, requests);
+        }
+        if (requests == HOT_REQUESTS) {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    compress(key, src);
+                }
+            });
+        }
+        return null;
+    }
+
+    private void compress(String key, File src) {
+        File tmp = mFiles.newTempFile(key);
+        try {
+            InputStream in = new FileInputStream(src);
+            try {
+                OutputStream out = new GZIPOutputStream(new FileOutputStream(tmp), 8192);
+                try {
+                    copy(in, out);
+                } finally {
+                    out.close();
+                }
+            } finally {
+                in.close();
+            }
+            File gz = mFiles.commit(key, tmp);
+            synchronized (mRequests) {
+                mRequests.remove(key);
+            }
+            String previous;
+            synchronized (mVersions) {
+                previous = mVersions.put(src.getAbsolutePath(), key);
+            }
+            if (previous != null && !previous.equals(key))
+                mFiles.remove(previous);
+            Log.debug("Compressed {}: {} -> {} bytes", src.getName(), src.length(), gz.length());
+        } catch (IOException e) {
+            Log.error("Compressing {} failed: {}", src.getAbsolutePath(), e.toString());
+        } finally {
+            //noinspection ResultOfMethodCallIgnored
+            tmp.delete();
+        }
+    }
+
+    /**
+     * Deletes the copies that earlier versions kept next to the FIT files, without any bound.
+     */
+    private static void deleteUnbounded(File cacheDir) {
+        File[] files = cacheDir.listFiles();
+        if (files == null)
+            return;
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(".gz") || name.endsWith(".gz.tmp")) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Total size of the compressed copies.
+     */
+    public long getSize() {
+        return mFiles.getSize();
+    }
+
+    /**
+     * Writes pending journal entries, e.g. before the server stops.
+     */
+    public void flush() {
+        mFiles.flush();
+    }
+
+    public long getHits() {
+        return mHits.get();
+    }
+
+    public long getMisses() {
+        return mMisses.get();
+    }
+
+    /**
+     * Compresses a small in-memory response.
+     */
+    public static byte[] gzip(byte[] data) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length / 4 + 32);
+            GZIPOutputStream out = new GZIPOutputStream(bytes);
+            out.write(data);
+            out.close();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            // not thrown by a ByteArrayOutputStream
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Compresses {@code in} while it is read, for responses of unknown compressed length.
+     */
+    public static InputStream gzip(InputStream in) {
+        final CheckedInputStream checked = new CheckedInputStream(in, new CRC32());
+        final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        InputStream trailer = new InputStream() {
+            private byte[] mTrailer;
+            private int mPos;
+
+            @Override
+            public int read() {
+                if (mTrailer == null) {
+                    // the deflater has consumed all input once the trailer is read
+                    long crc = checked.getChecksum().getValue();
+                    long size = deflater.getBytesRead();
+                    deflater.end();
+                    mTrailer = new byte[]{
+                            (byte) crc, (byte) (crc >> 8), (byte) (crc >> 16), (byte) (crc >> 24),
+                            (byte) size, (byte) (size >> 8), (byte) (size >> 16), (byte) (size >> 24)};
+                }
+                return mPos < mTrailer.length ? mTrailer[mPos++] & 0xff : -1;
+            }
+
+            @Override
+            public void close() {
+                // also reached if the response is aborted
+                deflater.end();
+            }
+        };
+        return new SequenceInputStream(Collections.enumeration(Arrays.asList(
+                new ByteArrayInputStream(GZIP_HEADER), new DeflaterInputStream(checked, deflater, 8192), trailer)));
+    }
+
+    private static void copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buf = new byte[8192];
+        int n;
+        while ((n = in.read(buf)) > 0)
+            out.write(buf, 0, n);
+    }
+}
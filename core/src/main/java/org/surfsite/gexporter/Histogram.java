@@ -0,0 +1,122 @@
+package org.surfsite.gexporter;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Distribution of non-negative values, e.g. durations in nanoseconds, with a relative error of at most
+ * 1/16 for percentiles.
+ * <p>
+ * Values are counted in log-linear buckets: values below 16 exactly, larger ones in 16 buckets per power
+ * of two. Recording is lock free and striped like {@link StripedCounter}, every stripe has its own
+ * buckets, sum and maximum.
+ */
+public class Histogram {
+    private static final int SUB_BITS = 4;
+    private static final int SUB = 1 << SUB_BITS;
+    // values from 2^MAX_EXPONENT on are counted in the last bucket, 2^40 ns are more than 18 minutes
+    private static final int MAX_EXPONENT = 40;
+    static final int BUCKETS = SUB + (MAX_EXPONENT - SUB_BITS) * SUB;
+
+    private static final int SUM = BUCKETS;
+    private static final int MAX = BUCKETS + 1;
+    // buckets, sum and max of a stripe, rounded up to whole cache lines
+    private static final int STRIDE = (BUCKETS + 2 + StripedCounter.PAD - 1) / StripedCounter.PAD
+            * StripedCounter.PAD;
+
+    private final AtomicLongArray mCells = new AtomicLongArray(StripedCounter.STRIPES * STRIDE);
+
+    public void record(long value) {
+        if (value < 0)
+            value = 0;
+        int base = StripedCounter.stripe() * STRIDE;
+        mCells.incrementAndGet(base + bucket(value));
+        mCells.addAndGet(base + SUM, value);
+        long max = mCells.get(base + MAX);
+        while (value > max && !mCells.compareAndSet(base + MAX, max, value))
+            max = mCells.get(base + MAX);
+    }
+
+    static int bucket(long value) {
+        if (value < SUB)
+            return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent >= MAX_EXPONENT)
+            return BUCKETS - 1;
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB - 1);
+        return SUB + (exponent - SUB_BITS) * SUB + sub;
+    }
+
+    /**
+     * Largest value counted in {@code bucket}.
+     */
+    static long upperBound(int bucket) {
+        if (bucket < SUB)
+            return bucket;
+        int shift = (bucket - SUB) / SUB;
+        long lower = (long) (SUB + (bucket - SUB) % SUB) << shift;
+        return lower + (1L << shift) - 1;
+    }
+
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        long sum = 0;
+        long max = 0;
+        for (int s = 0; s < StripedCounter.STRIPES; s++) {
+            int base = s * STRIDE;
+            for (int i = 0; i < BUCKETS; i++)
+                counts[i] += mCells.get(base + i);
+            sum += mCells.get(base + SUM);
+            max = Math.max(max, mCells.get(base + MAX));
+        }
+        return new Snapshot(counts, sum, max);
+    }
+
+    /**
+     * The values recorded up to a point in time.
+     */
+    public static class Snapshot {
+        private final long[] mCounts;
+        private final long mCount;
+        private final long mSum;
+        private final long mMax;
+
+        Snapshot(long[] counts, long sum, long max) {
+            long count = 0;
+            for (long c : counts)
+                count += c;
+            mCounts = counts;
+            mCount = count;
+            mSum = sum;
+            mMax = max;
+        }
+
+        public long getCount() {
+            return mCount;
+        }
+
+        public long getMax() {
+            return mMax;
+        }
+
+        public double getMean() {
+            return mCount == 0 ? 0 : (double) mSum / mCount;
+        }
+
+        /**
+         * Smallest bucket bound that at least {@code quantile} of the values do not exceed, 0 if nothing
+         * was recorded.
+         */
+        public long getPercentile(double quantile) {
+            if (mCount == 0)
+                return 0;
+            long rank = Math.max(1, (long) Math.ceil(quantile * mCount));
+            long seen = 0;
+            for (int i = 0; i < mCounts.length; i++) {
+                seen += mCounts[i];
+                if (seen >= rank)
+                    return i == BUCKETS - 1 ? mMax : Math.min(upperBound(i), mMax);
+            }
+            return mMax;
+        }
+    }
+}
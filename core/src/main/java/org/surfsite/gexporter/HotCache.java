@@ -0,0 +1,408 @@
+package org.surfsite.gexporter;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Encoded FIT files of the most requested courses kept in memory, so they are served without any disk
+ * I/O. Bounded by the total size of the files.
+ * <p>
+ * Admission and eviction follow W-TinyLFU. New files enter a small LRU window. A file leaving the window
+ * only displaces files of the main space if it was requested more often than each of them, going by a
+ * count-min sketch of recent requests, including those of files that are not cached. So a client
+ * walking through all courses once does not push out the ones requested every day. The main space is a
+ * segmented LRU: files requested again while on probation move to its protected segment.
+ * <p>
+ * Reads do not lock. A read looks the file up in a concurrent map and records the request in a lossy
+ * ring buffer. Whichever thread finds the buffer filling up replays it to the policy, if no other thread
+ * holds the lock. Writes take the lock.
+ */
+class HotCache {
+    // share of the capacity for the window and the protected segment of the main space
+    private static final double WINDOW = 0.1;
+    private static final double PROTECTED = 0.8;
+
+    private static final int READ_BUFFER_SIZE = 256;
+    private static final int DRAIN_THRESHOLD = 32;
+
+    private static final int WINDOW_QUEUE = 0;
+    private static final int PROBATION_QUEUE = 1;
+    private static final int PROTECTED_QUEUE = 2;
+    private static final int REMOVED = -1;
+
+    /**
+     * A cached file, immutable to readers.
+     */
+    static final class Entry {
+        final String key;
+        final byte[] data;
+        final String etag;
+
+        // below guarded by the lock of the cache
+        int queue;
+        Entry prev;
+        Entry next;
+
+        Entry(String key, byte[] data, String etag) {
+            this.key = key;
+            this.data = data;
+            this.etag = etag;
+        }
+    }
+
+    /**
+     * Doubly linked list of entries in LRU order, the eldest first.
+     */
+    private static final class Queue {
+        final Entry head = new Entry(null, null, null);
+        long weight;
+
+        Queue() {
+            head.prev = head;
+            head.next = head;
+        }
+
+        Entry first() {
+            return head.next != head ? head.next : null;
+        }
+
+        void add(Entry e) {
+            e.prev = head.prev;
+            e.next = head;
+            head.prev.next = e;
+            head.prev = e;
+            weight += e.data.length;
+        }
+
+        void remove(Entry e) {
+            e.prev.next = e.next;
+            e.next.prev = e.prev;
+            e.prev = null;
+            e.next = null;
+            weight -= e.data.length;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Entry> mEntries = new ConcurrentHashMap<>();
+    private final ReentrantLock mLock = new ReentrantLock();
+    private final FrequencySketch mSketch;
+    private final long mMaxBytes;
+    private final Queue mWindow = new Queue();
+    private final Queue mProbation = new Queue();
+    private final Queue mProtected = new Queue();
+
+    // requests not replayed yet, entries or the keys of misses
+    private final AtomicReferenceArray<Object> mReads = new AtomicReferenceArray<>(READ_BUFFER_SIZE);
+    private final AtomicLong mReadsWritten = new AtomicLong();
+    private volatile long mReadsDrained;
+
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+    private final AtomicLong mRejected = new AtomicLong();
+
+    /**
+     * @param maxBytes    total size of the cached files
+     * @param maxEntries  expected number of cached files, sizes the frequency sketch
+     */
+    HotCache(long maxBytes, int maxEntries) {
+        mMaxBytes = maxBytes;
+        mSketch = new FrequencySketch(maxEntries);
+    }
+
+    /**
+     * Largest file worth caching, larger ones would displace too many others.
+     */
+    long getMaxEntryBytes() {
+        return mMaxBytes / 8;
+    }
+
+    Entry get(String key) {
+        Entry entry = mEntries.get(key);
+        record(entry != null ? entry : key);
+        if (entry != null)
+            mHits.incrementAndGet();
+        else
+            mMisses.incrementAndGet();
+        return entry;
+    }
+
+    /**
+     * Offers a file requested right now, it is cached if the policy admits it.
+     */
+    void put(String key, byte[] data, String etag) {
+        if (data.length > getMaxEntryBytes())
+            return;
+        Entry entry = new Entry(key, data, etag);
+        mLock.lock();
+        try {
+            drainReads();
+            Entry previous = mEntries.put(key, entry);
+            if (previous != null)
+                unlink(previous);
+            entry.queue = WINDOW_QUEUE;
+            mWindow.add(entry);
+            evict();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Drops files until at most {@code keep} of the capacity is used, e.g. when the system runs low on
+     * memory. The window goes first, then the main space in LRU order.
+     */
+    void trim(double keep) {
+        long maxBytes = (long) (mMaxBytes * keep);
+        mLock.lock();
+        try {
+            drainReads();
+            while (getWeight() > maxBytes) {
+                Entry victim = mWindow.first();
+                if (victim == null)
+                    victim = mProbation.first();
+                if (victim == null)
+                    victim = mProtected.first();
+                remove(victim);
+            }
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Total size of the cached files.
+     */
+    long getWeight() {
+        mLock.lock();
+        try {
+            return mWindow.weight + mProbation.weight + mProtected.weight;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    int size() {
+        return mEntries.size();
+    }
+
+    long getHits() {
+        return mHits.get();
+    }
+
+    long getMisses() {
+        return mMisses.get();
+    }
+
+    /**
+     * Files that were not admitted because the files they would have displaced are requested more often.
+     */
+    long getRejected() {
+        return mRejected.get();
+    }
+
+    private void record(Object read) {
+        long written = mReadsWritten.get();
+        // when the buffer is full the request is dropped, the policy only needs a sample
+        if (written - mReadsDrained < READ_BUFFER_SIZE && mReadsWritten.compareAndSet(written, written + 1)) {
+            mReads.lazySet((int) (written & (READ_BUFFER_SIZE - 1)), read);
+            written++;
+        }
+        if (written - mReadsDrained >= DRAIN_THRESHOLD && mLock.tryLock()) {
+            try {
+                drainReads();
+            } finally {
+                mLock.unlock();
+            }
+        }
+    }
+
+    private void drainReads() {
+        long drained = mReadsDrained;
+        long written = mReadsWritten.get();
+        for (; drained < written; drained++) {
+            int index = (int) (drained & (READ_BUFFER_SIZE - 1));
+            Object read = mReads.get(index);
+            // claimed but not published yet, replayed next time
+            if (read == null)
+                break;
+            mReads.lazySet(index, null);
+            if (read instanceof Entry) {
+                Entry entry = (Entry) read;
+                mSketch.increment(entry.key.hashCode());
+                onHit(entry);
+            } else {
+                mSketch.increment(read.hashCode());
+            }
+        }
+        mReadsDrained = drained;
+    }
+
+    private void onHit(Entry entry) {
+        switch (entry.queue) {
+            case WINDOW_QUEUE:
+                mWindow.remove(entry);
+                mWindow.add(entry);
+                break;
+            case PROBATION_QUEUE:
+                mProbation.remove(entry);
+                entry.queue = PROTECTED_QUEUE;
+                mProtected.add(entry);
+                // the protected segment overflows into probation
+                long maxProtected = (long) ((mMaxBytes - (long) (mMaxBytes * WINDOW)) * PROTECTED);
+                while (mProtected.weight > maxProtected) {
+                    Entry demoted = mProtected.first();
+                    mProtected.remove(demoted);
+                    demoted.queue = PROBATION_QUEUE;
+                    mProbation.add(demoted);
+                }
+                break;
+            case PROTECTED_QUEUE:
+                mProtected.remove(entry);
+                mProtected.add(entry);
+                break;
+            default:
+                // evicted meanwhile
+                break;
+        }
+    }
+
+    /**
+     * Moves files that overflow the window to the main space, if they are admitted.
+     */
+    private void evict() {
+        long maxWindow = (long) (mMaxBytes * WINDOW);
+        long maxMain = mMaxBytes - maxWindow;
+        while (mWindow.weight > maxWindow) {
+            Entry candidate = mWindow.first();
+            mWindow.remove(candidate);
+            mSketch.increment(candidate.key.hashCode());
+            if (admit(candidate, maxMain)) {
+                candidate.queue = PROBATION_QUEUE;
+                mProbation.add(candidate);
+            } else {
+                mEntries.remove(candidate.key, candidate);
+                candidate.queue = REMOVED;
+                mRejected.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Makes room for {@code candidate} in the main space if it is requested more often than every file
+     * it displaces.
+     */
+    private boolean admit(Entry candidate, long maxMain) {
+        long excess = mProbation.weight + mProtected.weight + candidate.data.length - maxMain;
+        if (excess <= 0)
+            return true;
+        int frequency = mSketch.frequency(candidate.key.hashCode());
+        long freed = 0;
+        Entry victim = mProbation.first();
+        Queue queue = mProbation;
+        while (freed < excess) {
+            if (victim == null || victim == queue.head) {
+                if (queue == mProtected)
+                    return false;
+                queue = mProtected;
+                victim = mProtected.first();
+                continue;
+            }
+            if (mSketch.frequency(victim.key.hashCode()) >= frequency)
+                return false;
+            freed += victim.data.length;
+            victim = victim.next;
+        }
+        while (excess > 0) {
+            Entry first = mProbation.first();
+            if (first == null)
+                first = mProtected.first();
+            excess -= first.data.length;
+            remove(first);
+        }
+        return true;
+    }
+
+    private void remove(Entry entry) {
+        unlink(entry);
+        mEntries.remove(entry.key, entry);
+    }
+
+    private void unlink(Entry entry) {
+        switch (entry.queue) {
+            case WINDOW_QUEUE:
+                mWindow.remove(entry);
+                break;
+            case PROBATION_QUEUE:
+                mProbation.remove(entry);
+                break;
+            case PROTECTED_QUEUE:
+                mProtected.remove(entry);
+                break;
+            default:
+                break;
+        }
+        entry.queue = REMOVED;
+    }
+
+    /**
+     * Count-min sketch of 4 bit counters that estimates how often a key was requested recently. All
+     * counters are halved once the number of increments reaches ten times the expected number of keys,
+     * so old popularity fades.
+     */
+    static final class FrequencySketch {
+        private static final long[] SEEDS = {
+                0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+        };
+        private static final long RESET_MASK = 0x7777777777777777L;
+
+        private final long[] mTable;
+        private final int mCounterMask;
+        private final int mSampleSize;
+        private int mAdditions;
+
+        FrequencySketch(int maxEntries) {
+            int counters = Integer.highestOneBit(Math.max(64, maxEntries) * 16 - 1) << 1;
+            mTable = new long[counters / 16];
+            mCounterMask = counters - 1;
+            mSampleSize = 10 * Math.max(64, maxEntries);
+        }
+
+        int frequency(int hash) {
+            int frequency = 15;
+            for (int i = 0; i < SEEDS.length; i++)
+                frequency = Math.min(frequency, get(index(hash, i)));
+            return frequency;
+        }
+
+        void increment(int hash) {
+            boolean added = false;
+            for (int i = 0; i < SEEDS.length; i++) {
+                int index = index(hash, i);
+                if (get(index) < 15) {
+                    mTable[index >>> 4] += 1L << ((index & 15) << 2);
+                    added = true;
+                }
+            }
+            if (added && ++mAdditions >= mSampleSize)
+                reset();
+        }
+
+        private int get(int index) {
+            return (int) (mTable[index >>> 4] >>> ((index & 15) << 2)) & 15;
+        }
+
+        private int index(int hash, int i) {
+            long h = (hash + SEEDS[i]) * SEEDS[i];
+            h += h >>> 32;
+            return (int) h & mCounterMask;
+        }
+
+        private void reset() {
+            for (int i = 0; i < mTable.length; i++)
+                mTable[i] = (mTable[i] >>> 1) & RESET_MASK;
+            mAdditions /= 2;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package org.surfsite.gexporter;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Evaluation of HTTP validators and byte ranges (RFC 7232, RFC 7233) for the served courses.
+ */
+public final class HttpConditions {
+    /**
+     * Returned by {@link #parseRange(String, long)} for a range that does not overlap the content.
+     */
+    public static final long[] UNSATISFIABLE = new long[0];
+
+    private static final String HTTP_DATE = "EEE, dd MMM yyyy HH:mm:ss zzz";
+
+    private HttpConditions() {
+    }
+
+    /**
+     * Entity tag derived from the content of a response.
+     */
+    public static String etag(byte[] data) {
+        return "\"" + Digests.sha1Hex(data) + "\"";
+    }
+
+    /**
+     * Entity tag of the gzip encoded representation of a response tagged {@code etag}.
+     */
+    public static String gzipETag(String etag) {
+        return etag.substring(0, etag.length() - 1) + "-gzip\"";
+    }
+
+    /**
+     * Whether the {@code Accept-Encoding} header allows a gzip response. Any mention of gzip counts,
+     * like NanoHTTPD does for its own compression.
+     */
+    public static boolean acceptsGzip(String acceptEncoding) {
+        return acceptEncoding != null && acceptEncoding.contains("gzip");
+    }
+
+    /**
+     * Whether the {@code If-None-Match} header lists {@code etag}, using the weak comparison the header
+     * calls for.
+     */
+    public static boolean matchesAny(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null || etag == null)
+            return false;
+        String tag = opaque(etag);
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.equals("*") || opaque(candidate).equals(tag))
+                return true;
+        }
+        return false;
+    }
+
+    private static String opaque(String etag) {
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
+    }
+
+    /**
+     * Whether a response has to be sent in full, i.e. is not answered with 304. {@code If-Modified-Since}
+     * is only evaluated if there is no {@code If-None-Match}.
+     */
+    public static boolean isModified(String ifNoneMatch, String ifModifiedSince, String etag, long lastModified) {
+        if (ifNoneMatch != null)
+            return !matchesAny(ifNoneMatch, etag);
+        if (ifModifiedSince != null && lastModified > 0) {
+            long since = parseDate(ifModifiedSince);
+            // HTTP dates have a resolution of one second
+            return since < 0 || lastModified / 1000 > since / 1000;
+        }
+        return true;
+    }
+
+    /**
+     * Whether a {@code Range} is to be applied, given the {@code If-Range} header of the request. Only
+     * strong entity tags are accepted.
+     */
+    public static boolean isRangeValid(String ifRange, String etag, long lastModified) {
+        if (ifRange == null)
+            return true;
+        ifRange = ifRange.trim();
+        if (ifRange.startsWith("\""))
+            return ifRange.equals(etag);
+        if (ifRange.startsWith("W/"))
+            return false;
+        long date = parseDate(ifRange);
+        return date >= 0 && lastModified / 1000 == date / 1000;
+    }
+
+    /**
+     * Parses a single byte range.
+     *
+     * @return the first and last byte position, {@link #UNSATISFIABLE} or null if the header is to be
+     * ignored, i.e. the full content is sent
+     */
+    public static long[] parseRange(String range, long length) {
+        if (range == null)
+            return null;
+        range = range.trim();
+        if (!range.startsWith("bytes="))
+            return null;
+        String spec = range.substring(6).trim();
+        // multiple ranges are not supported, the full content is a valid answer
+        if (spec.indexOf(',') >= 0)
+            return null;
+        int dash = spec.indexOf('-');
+        if (dash < 0)
+            return null;
+        String first = spec.substring(0, dash).trim();
+        String last = spec.substring(dash + 1).trim();
+        try {
+            long start;
+            long end;
+            if (first.isEmpty()) {
+                // suffix range, the last n bytes
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0 || length == 0)
+                    return UNSATISFIABLE;
+                start = Math.max(0, length - suffix);
+                end = length - 1;
+            } else {
+                start = Long.parseLong(first);
+                end = last.isEmpty() ? length - 1 : Math.min(Long.parseLong(last), length - 1);
+                if (start < 0 || (!last.isEmpty() && Long.parseLong(last) < start))
+                    return null;
+                if (start >= length)
+                    return UNSATISFIABLE;
+            }
+            return new long[]{start, end};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    public static String formatDate(long millis) {
+        return dateFormat().format(new Date(millis));
+    }
+
+    /**
+     * Parses an HTTP date, returns -1 if it is invalid.
+     */
+    public static long parseDate(String date) {
+        try {
+            return dateFormat().parse(date.trim()).getTime();
+        } catch (ParseException e) {
+            return -1;
+        }
+    }
+
+    // SimpleDateFormat is not thread safe
+    private static SimpleDateFormat dateFormat() {
+        SimpleDateFormat format = new SimpleDateFormat(HTTP_DATE, Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format;
+    }
+}
@@ -0,0 +1,138 @@
+package org.surfsite.gexporter;
+
+/**
+ * Parser for the ISO-8601 timestamps used in GPX {@code <time>} elements.
+ * <p>
+ * Works directly on a character buffer, e.g. the one returned by
+ * {@link org.xmlpull.v1.XmlPullParser#getTextCharacters(int[])}, and returns milliseconds since the
+ * epoch without creating any objects. Accepts {@code yyyy-MM-dd'T'HH:mm:ss} with optional fractional
+ * seconds and an optional zone designator ({@code Z}, {@code +hh:mm}, {@code +hhmm} or {@code +hh}).
+ * Timestamps without a zone are taken as UTC, as required by the GPX schema.
+ */
+public final class Iso8601 {
+    /**
+     * Returned for text that is not a valid timestamp.
+     */
+    public static final long INVALID = Long.MIN_VALUE;
+
+    private Iso8601() {
+    }
+
+    public static long parse(String s) {
+        return parse(s.toCharArray(), 0, s.length());
+    }
+
+    public static long parse(char[] buf, int start, int len) {
+        int p = start;
+        int end = start + len;
+
+        // surrounding whitespace of the text node
+        while (p < end && buf[p] <= ' ')
+            p++;
+        while (end > p && buf[end - 1] <= ' ')
+            end--;
+
+        if (end - p < 19)
+            return INVALID;
+
+        int year = digits(buf, p, 4);
+        if (year < 0 || buf[p + 4] != '-')
+            return INVALID;
+        int month = digits(buf, p + 5, 2);
+        if (month < 1 || month > 12 || buf[p + 7] != '-')
+            return INVALID;
+        int day = digits(buf, p + 8, 2);
+        if (day < 1 || day > 31)
+            return INVALID;
+        char t = buf[p + 10];
+        if (t != 'T' && t != 't' && t != ' ')
+            return INVALID;
+        int hour = digits(buf, p + 11, 2);
+        if (hour < 0 || hour > 24 || buf[p + 13] != ':')
+            return INVALID;
+        int minute = digits(buf, p + 14, 2);
+        if (minute < 0 || minute > 59 || buf[p + 16] != ':')
+            return INVALID;
+        int second = digits(buf, p + 17, 2);
+        // allow a leap second
+        if (second < 0 || second > 60)
+            return INVALID;
+        p += 19;
+
+        int millis = 0;
+        if (p < end && (buf[p] == '.' || buf[p] == ',')) {
+            p++;
+            int scale = 100;
+            int fractionStart = p;
+            while (p < end && buf[p] >= '0' && buf[p] <= '9') {
+                millis += (buf[p] - '0') * scale;
+                scale /= 10;
+                p++;
+            }
+            if (p == fractionStart)
+                return INVALID;
+        }
+
+        int offset = 0;
+        if (p < end) {
+            char z = buf[p];
+            if (z == 'Z' || z == 'z') {
+                p++;
+            } else if (z == '+' || z == '-') {
+                p++;
+                int oh = digits(buf, p, 2, end);
+                if (oh < 0 || oh > 23)
+                    return INVALID;
+                p += 2;
+                int om = 0;
+                if (p < end && buf[p] == ':')
+                    p++;
+                if (p < end) {
+                    om = digits(buf, p, 2, end);
+                    if (om < 0 || om > 59)
+                        return INVALID;
+                    p += 2;
+                }
+                offset = (oh * 60 + om) * 60000;
+                if (z == '-')
+                    offset = -offset;
+            } else {
+                return INVALID;
+            }
+        }
+        if (p != end)
+            return INVALID;
+
+        long days = daysFromCivil(year, month, day);
+        return ((days * 24 + hour) * 60 + minute) * 60000L + second * 1000L + millis - offset;
+    }
+
+    private static int digits(char[] buf, int p, int n, int end) {
+        if (p + n > end)
+            return -1;
+        return digits(buf, p, n);
+    }
+
+    private static int digits(char[] buf, int p, int n) {
+        int v = 0;
+        for (int i = 0; i < n; i++) {
+            char c = buf[p + i];
+            if (c < '0' || c > '9')
+                return -1;
+            v = v * 10 + (c - '0');
+        }
+        return v;
+    }
+
+    /**
+     * Days since 1970-01-01 of a date in the proleptic Gregorian calendar.
+     */
+    private static long daysFromCivil(int y, int m, int d) {
+        y -= m <= 2 ? 1 : 0;
+        long era = (y >= 0 ? y : y - 399) / 400;
+        long yoe = y - era * 400;
+        long doy = (153 * (m + (m > 2 ? -3 : 9)) + 2) / 5 + d - 1;
+        long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146097 + doe - 719468;
+    }
+}
@@ -0,0 +1,80 @@
+package org.surfsite.gexporter;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Records the bytes read from a stream, the time spent reading them or the time until the stream is
+ * closed, whichever of the metrics are not null. The times are recorded once, when the stream is closed.
+ */
+class MeteredInputStream extends FilterInputStream {
+    private final StripedCounter mBytes;
+    private final Histogram mReadTimer;
+    private final Histogram mLifetimeTimer;
+    private final long mStarted;
+    private long mReadNanos;
+    private boolean mClosed;
+
+    /**
+     * @param bytes         counts the bytes read
+     * @param readTimer     records the time spent in {@code read}
+     * @param lifetimeTimer records the time from {@code started} until the stream is closed
+     * @param started       {@link System#nanoTime()} at the start of the lifetime
+     */
+    MeteredInputStream(InputStream in, StripedCounter bytes, Histogram readTimer, Histogram lifetimeTimer,
+                       long started) {
+        super(in);
+        mBytes = bytes;
+        mReadTimer = readTimer;
+        mLifetimeTimer = lifetimeTimer;
+        mStarted = started;
+    }
+
+    @Override
+    public int read() throws IOException {
+        long started = mReadTimer != null ? System.nanoTime() : 0;
+        int c = super.read();
+        if (mReadTimer != null)
+            mReadNanos += System.nanoTime() - started;
+        if (c >= 0 && mBytes != null)
+            mBytes.increment();
+        return c;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        long started = mReadTimer != null ? System.nanoTime() : 0;
+        int n = super.read(b, off, len);
+        if (mReadTimer != null)
+            mReadNanos += System.nanoTime() - started;
+        if (n > 0 && mBytes != null)
+            mBytes.add(n);
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        // skipped bytes are not served, but the time counts
+        long started = mReadTimer != null ? System.nanoTime() : 0;
+        long skipped = super.skip(n);
+        if (mReadTimer != null)
+            mReadNanos += System.nanoTime() - started;
+        return skipped;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            if (!mClosed) {
+                mClosed = true;
+                if (mReadTimer != null)
+                    mReadTimer.record(mReadNanos);
+                if (mLifetimeTimer != null)
+                    mLifetimeTimer.record(System.nanoTime() - mStarted);
+            }
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package org.surfsite.gexporter;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * In-process registry of the server's timers, histograms, counters and gauges, rendered as
+ * {@code /metrics.json}.
+ * <p>
+ * Metrics are looked up by name once and then kept by the code recording them, so recording only
+ * touches the lock free {@link Histogram} and {@link StripedCounter}. Registration and rendering are
+ * synchronized.
+ */
+public class Metrics {
+    /**
+     * A value read when the metrics are rendered, e.g. a queue depth.
+     */
+    public interface Gauge {
+        /**
+         * @return the current value, NaN if there is none
+         */
+        double getValue();
+    }
+
+    private final long mStarted = System.currentTimeMillis();
+    private final Map<String, Histogram> mTimers = new LinkedHashMap<>();
+    private final Map<String, Histogram> mHistograms = new LinkedHashMap<>();
+    private final Map<String, StripedCounter> mCounters = new LinkedHashMap<>();
+    private final Map<String, Gauge> mGauges = new LinkedHashMap<>();
+
+    /**
+     * Returns the histogram of durations {@code name}, recorded in nanoseconds and rendered in
+     * milliseconds.
+     */
+    public synchronized Histogram timer(String name) {
+        Histogram timer = mTimers.get(name);
+        if (timer == null) {
+            timer = new Histogram();
+            mTimers.put(name, timer);
+        }
+        return timer;
+    }
+
+    public synchronized Histogram histogram(String name) {
+        Histogram histogram = mHistograms.get(name);
+        if (histogram == null) {
+            histogram = new Histogram();
+            mHistograms.put(name, histogram);
+        }
+        return histogram;
+    }
+
+    public synchronized StripedCounter counter(String name) {
+        StripedCounter counter = mCounters.get(name);
+        if (counter == null) {
+            counter = new StripedCounter();
+            mCounters.put(name, counter);
+        }
+        return counter;
+    }
+
+    public synchronized void gauge(String name, Gauge gauge) {
+        mGauges.put(name, gauge);
+    }
+
+    /**
+     * Ratio of {@code hits} to all lookups, NaN before the first lookup.
+     */
+    public static double ratio(long hits, long misses) {
+        return hits + misses == 0 ? Double.NaN : (double) hits / (hits + misses);
+    }
+
+    public synchronized String toJson() {
+        StringBuilder json = new StringBuilder(2048);
+        json.append("{ \"uptime_ms\" : ").append(System.currentTimeMillis() - mStarted);
+
+        json.append(",\n  \"timers_ms\" : {");
+        boolean first = true;
+        for (Map.Entry<String, Histogram> entry : mTimers.entrySet()) {
+            first = appendName(json, first, entry.getKey());
+            appendSnapshot(json, entry.getValue().snapshot(), 1e-6);
+        }
+
+        json.append("},\n  \"histograms\" : {");
+        first = true;
+        for (Map.Entry<String, Histogram> entry : mHistograms.entrySet()) {
+            first = appendName(json, first, entry.getKey());
+            appendSnapshot(json, entry.getValue().snapshot(), 1);
+        }
+
+        json.append("},\n  \"counters\" : {");
+        first = true;
+        for (Map.Entry<String, StripedCounter> entry : mCounters.entrySet()) {
+            first = appendName(json, first, entry.getKey());
+            json.append(entry.getValue().sum());
+        }
+
+        json.append("},\n  \"gauges\" : {");
+        first = true;
+        for (Map.Entry<String, Gauge> entry : mGauges.entrySet()) {
+            first = appendName(json, first, entry.getKey());
+            appendNumber(json, entry.getValue().getValue());
+        }
+        json.append("}}");
+        return json.toString();
+    }
+
+    private static boolean appendName(StringBuilder json, boolean first, String name) {
+        if (!first)
+            json.append(',');
+        json.append("\n    \"").append(name).append("\" : ");
+        return false;
+    }
+
+    private static void appendSnapshot(StringBuilder json, Histogram.Snapshot snapshot, double scale) {
+        json.append("{ \"count\" : ").append(snapshot.getCount());
+        json.append(", \"mean\" : ");
+        appendNumber(json, snapshot.getMean() * scale);
+        json.append(", \"p50\" : ");
+        appendNumber(json, snapshot.getPercentile(0.5) * scale);
+        json.append(", \"p95\" : ");
+        appendNumber(json, snapshot.getPercentile(0.95) * scale);
+        json.append(", \"p99\" : ");
+        appendNumber(json, snapshot.getPercentile(0.99) * scale);
+        json.append(", \"max\" : ");
+        appendNumber(json, snapshot.getMax() * scale);
+        json.append(" }");
+    }
+
+    private static void appendNumber(StringBuilder json, double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value))
+            json.append("null");
+        else if (value == Math.rint(value) && Math.abs(value) < 1e15)
+            json.append((long) value);
+        else
+            json.append(String.format(Locale.US, "%.3f", value));
+    }
+}
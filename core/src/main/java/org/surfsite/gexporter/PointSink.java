@@ -0,0 +1,17 @@
+package org.surfsite.gexporter;
+
+import java.io.IOException;
+
+/**
+ * Receives track points in order, as they are read from a GPX document.
+ */
+public interface PointSink {
+    /**
+     * @param lat  latitude in degrees
+     * @param lon  longitude in degrees
+     * @param ele  elevation in meters, NaN if unknown
+     * @param time milliseconds since the epoch, {@link WayPoint#RefMilliSec} if unknown
+     * @throws IOException if a sink writing the points fails
+     */
+    void add(double lat, double lon, double ele, long time) throws IOException;
+}
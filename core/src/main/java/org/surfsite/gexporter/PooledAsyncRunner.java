@@ -0,0 +1,80 @@
+package org.surfsite.gexporter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import fi.iki.elonen.NanoHTTPD;
+
+/**
+ * Serves connections from a bounded thread pool instead of NanoHTTPD's thread per request. Connections
+ * that arrive while all threads are busy and the queue is full are closed right away.
+ */
+public class PooledAsyncRunner implements NanoHTTPD.AsyncRunner {
+    private static final Logger Log = LoggerFactory.getLogger(PooledAsyncRunner.class);
+
+    private final ThreadPoolExecutor mExecutor;
+    private final List<NanoHTTPD.ClientHandler> mRunning =
+            Collections.synchronizedList(new ArrayList<NanoHTTPD.ClientHandler>());
+
+    public PooledAsyncRunner(int threads, int queueCapacity) {
+        mExecutor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity), new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "NanoHttpd Request Processor (#" + mCount.incrementAndGet() + ")");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    @Override
+    public void closeAll() {
+        // copy of the list, closing removes the handler
+        List<NanoHTTPD.ClientHandler> running;
+        synchronized (mRunning) {
+            running = new ArrayList<>(mRunning);
+        }
+        for (NanoHTTPD.ClientHandler clientHandler : running) {
+            clientHandler.close();
+        }
+    }
+
+    @Override
+    public void closed(NanoHTTPD.ClientHandler clientHandler) {
+        mRunning.remove(clientHandler);
+    }
+
+    @Override
+    public void exec(NanoHTTPD.ClientHandler clientHandler) {
+        mRunning.add(clientHandler);
+        try {
+            mExecutor.execute(clientHandler);
+        } catch (RejectedExecutionException e) {
+            Log.warn("Too many connections, closing");
+            mRunning.remove(clientHandler);
+            clientHandler.close();
+        }
+    }
+
+    public int getActiveConnections() {
+        return mRunning.size();
+    }
+
+    public int getQueueDepth() {
+        return mExecutor.getQueue().size();
+    }
+}
@@ -0,0 +1,143 @@
+package org.surfsite.gexporter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Converts new or changed GPX files in the background, so the first request for a fresh download
+ * finds its FIT file already in the cache.
+ * <p>
+ * Files are converted one at a time on a thread of minimum priority, most recently modified first, as
+ * those are the ones most likely to be requested next.
+ */
+public class PreConverter {
+    private static final Logger Log = LoggerFactory.getLogger(PreConverter.class);
+
+    /**
+     * Most files taken from one batch, e.g. the initial scan of a download directory full of old tracks.
+     */
+    static final int MAX_BATCH = 32;
+
+    /**
+     * Does the actual conversion.
+     */
+    public interface Converter {
+        /**
+         * @return false if {@code gpx} did not need to be converted, e.g. as it is cached already
+         */
+        boolean convert(File gpx) throws Exception;
+    }
+
+    private final Converter mConverter;
+    private final ThreadPoolExecutor mExecutor;
+    // files waiting, to queue every file only once
+    private final ConcurrentMap<String, Task> mPending = new ConcurrentHashMap<>();
+    private final AtomicLong mConverted = new AtomicLong();
+    private final AtomicLong mFailed = new AtomicLong();
+
+    public PreConverter(Converter converter) {
+        mConverter = converter;
+        mExecutor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "gpx2fit-preconvert");
+                        t.setDaemon(true);
+                        t.setPriority(Thread.MIN_PRIORITY);
+                        return t;
+                    }
+                });
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Queues the GPX files among {@code files}, at most {@link #MAX_BATCH} of the most recently modified.
+     */
+    public void submit(File... files) {
+        Task[] tasks = new Task[files.length];
+        int n = 0;
+        for (File file : files) {
+            if (DirectoryCatalog.isGpx(file.getName()) && file.isFile())
+                tasks[n++] = new Task(file, file.lastModified());
+        }
+        Arrays.sort(tasks, 0, n);
+        for (int i = 0; i < Math.min(n, MAX_BATCH); i++) {
+            Task task = tasks[i];
+            if (mPending.putIfAbsent(task.mFile.getAbsolutePath(), task) == null) {
+                try {
+                    mExecutor.execute(task);
+                } catch (RuntimeException e) {
+                    // shut down
+                    mPending.remove(task.mFile.getAbsolutePath());
+                    return;
+                }
+            }
+        }
+    }
+
+    public void shutdown() {
+        mExecutor.shutdownNow();
+        mPending.clear();
+    }
+
+    /**
+     * Stops accepting files and waits for the queued ones to be converted.
+     *
+     * @return false if they were not all converted within {@code timeout}
+     */
+    public boolean drain(long timeout, TimeUnit unit) throws InterruptedException {
+        mExecutor.shutdown();
+        return mExecutor.awaitTermination(timeout, unit);
+    }
+
+    public int getQueueDepth() {
+        return mExecutor.getQueue().size();
+    }
+
+    public long getConverted() {
+        return mConverted.get();
+    }
+
+    public long getFailed() {
+        return mFailed.get();
+    }
+
+    private class Task implements Runnable, Comparable<Task> {
+        private final File mFile;
+        private final long mModified;
+
+        Task(File file, long modified) {
+            mFile = file;
+            mModified = modified;
+        }
+
+        @Override
+        public void run() {
+            // a change while queued is covered by this run, a change from now on queues the file again
+            mPending.remove(mFile.getAbsolutePath());
+            try {
+                if (mConverter.convert(mFile))
+                    mConverted.incrementAndGet();
+            } catch (Exception e) {
+                mFailed.incrementAndGet();
+                Log.warn("Pre-converting {} failed: {}", mFile.getName(), e.toString());
+            }
+        }
+
+        // most recently modified first
+        @Override
+        public int compareTo(Task other) {
+            return mModified < other.mModified ? 1 : (mModified == other.mModified ? 0 : -1);
+        }
+    }
+}
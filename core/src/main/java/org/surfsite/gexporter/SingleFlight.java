@@ -0,0 +1,55 @@
+package org.surfsite.gexporter;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs at most one computation per key at a time. Callers asking for a key that is already being
+ * computed wait for that computation and get its result, or its exception if it failed.
+ */
+public class SingleFlight<V> {
+    private final ConcurrentMap<String, FutureTask<V>> mInFlight = new ConcurrentHashMap<>();
+    private final AtomicLong mShared = new AtomicLong();
+
+    public V execute(String key, Callable<V> callable) throws Exception {
+        FutureTask<V> task = new FutureTask<>(callable);
+        FutureTask<V> inFlight = mInFlight.putIfAbsent(key, task);
+        if (inFlight == null) {
+            // this caller computes, on its own thread
+            try {
+                task.run();
+            } finally {
+                mInFlight.remove(key, task);
+            }
+            inFlight = task;
+        } else {
+            mShared.incrementAndGet();
+        }
+
+        try {
+            return inFlight.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception)
+                throw (Exception) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw e;
+        }
+    }
+
+    /**
+     * Number of calls that got the result of a computation started by another caller.
+     */
+    public long getShared() {
+        return mShared.get();
+    }
+
+    public int getInFlight() {
+        return mInFlight.size();
+    }
+}
@@ -0,0 +1,51 @@
+package org.surfsite.gexporter;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter for values added from many threads, like {@code java.util.concurrent.atomic.LongAdder}
+ * which is only available from Android API 24 on.
+ * <p>
+ * Each thread adds to one of several cells, each on its own cache line, so concurrent updates rarely
+ * contend. Reading sums all cells and is not atomic with respect to concurrent updates.
+ */
+public class StripedCounter {
+    // longs per cache line, cells are this far apart
+    static final int PAD = 8;
+
+    static final int STRIPES = stripes();
+
+    private final AtomicLongArray mCells = new AtomicLongArray(STRIPES * PAD);
+
+    public void increment() {
+        add(1);
+    }
+
+    public void add(long x) {
+        mCells.addAndGet(stripe() * PAD, x);
+    }
+
+    public long sum() {
+        long sum = 0;
+        for (int i = 0; i < STRIPES; i++)
+            sum += mCells.get(i * PAD);
+        return sum;
+    }
+
+    /**
+     * The cell of the current thread, in {@code [0, STRIPES)}.
+     */
+    static int stripe() {
+        long id = Thread.currentThread().getId();
+        int h = (int) (id ^ (id >>> 32)) * 0x9e3779b9;
+        return (h >>> 16) & (STRIPES - 1);
+    }
+
+    // a power of two, at least the number of cores, at most 16
+    private static int stripes() {
+        int n = 1;
+        while (n < Runtime.getRuntime().availableProcessors() && n < 16)
+            n <<= 1;
+        return n;
+    }
+}
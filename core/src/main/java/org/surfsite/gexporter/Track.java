@@ -0,0 +1,151 @@
+package org.surfsite.gexporter;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Growable columnar storage of track points.
+ * <p>
+ * Every attribute of a point lives in its own primitive array, so a track with a hundred thousand
+ * points costs a handful of arrays instead of a hundred thousand {@link WayPoint} and {@link Date}
+ * objects. Positions are kept in degrees, as distances are computed from them; semicircles are derived
+ * when encoding.
+ */
+public class Track implements PointSink {
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private int size;
+    private double[] lat;
+    private double[] lon;
+    private float[] ele;
+    private long[] time;
+    private double[] dist;
+
+    public Track() {
+        this(INITIAL_CAPACITY);
+    }
+
+    public Track(int capacity) {
+        capacity = Math.max(capacity, 16);
+        lat = new double[capacity];
+        lon = new double[capacity];
+        ele = new float[capacity];
+        time = new long[capacity];
+        dist = new double[capacity];
+    }
+
+    /**
+     * Appends a point. {@code ele} may be NaN if the elevation is unknown, {@code time} is in
+     * milliseconds since the epoch.
+     */
+    @Override
+    public void add(double lat, double lon, double ele, long time) {
+        if (size == this.lat.length)
+            grow();
+        this.lat[size] = lat;
+        this.lon[size] = lon;
+        this.ele[size] = (float) ele;
+        this.time[size] = time;
+        this.dist[size] = Double.NaN;
+        size++;
+    }
+
+    /**
+     * Appends all points of {@code other}.
+     */
+    public void addAll(Track other) {
+        if (size + other.size > lat.length)
+            grow(Math.max(size + other.size, lat.length + (lat.length >> 1)));
+        System.arraycopy(other.lat, 0, lat, size, other.size);
+        System.arraycopy(other.lon, 0, lon, size, other.size);
+        System.arraycopy(other.ele, 0, ele, size, other.size);
+        System.arraycopy(other.time, 0, time, size, other.size);
+        System.arraycopy(other.dist, 0, dist, size, other.size);
+        size += other.size;
+    }
+
+    private void grow() {
+        grow(lat.length + (lat.length >> 1));
+    }
+
+    private void grow(int capacity) {
+        lat = Arrays.copyOf(lat, capacity);
+        lon = Arrays.copyOf(lon, capacity);
+        ele = Arrays.copyOf(ele, capacity);
+        time = Arrays.copyOf(time, capacity);
+        dist = Arrays.copyOf(dist, capacity);
+    }
+
+    /**
+     * Removes all points, keeping the capacity.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public double getLat(int i) {
+        return lat[i];
+    }
+
+    public double getLon(int i) {
+        return lon[i];
+    }
+
+    public int getLatSemi(int i) {
+        return WayPoint.toSemiCircles(lat[i]);
+    }
+
+    public int getLonSemi(int i) {
+        return WayPoint.toSemiCircles(lon[i]);
+    }
+
+    public double getEle(int i) {
+        return ele[i];
+    }
+
+    public long getTime(int i) {
+        return time[i];
+    }
+
+    public void setTime(int i, long time) {
+        this.time[i] = time;
+    }
+
+    /**
+     * Cumulative distance from the first point in meters, NaN until computed by a conversion.
+     */
+    public double getDist(int i) {
+        return dist[i];
+    }
+
+    public void setDist(int i, double dist) {
+        this.dist[i] = dist;
+    }
+
+    /**
+     * Returns a read-only view of the points as {@link WayPoint}s, which are created on access.
+     */
+    public List<WayPoint> asWayPoints() {
+        return new AbstractList<WayPoint>() {
+            @Override
+            public WayPoint get(int i) {
+                if (i < 0 || i >= size)
+                    throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+                WayPoint wpt = new WayPoint(lat[i], lon[i], ele[i], new Date(time[i]));
+                wpt.setTotaldist(dist[i]);
+                return wpt;
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+}
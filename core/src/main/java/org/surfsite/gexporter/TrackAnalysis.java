@@ -0,0 +1,157 @@
+package org.surfsite.gexporter;
+
+/**
+ * The part of a conversion that depends on the geometry of a track only: the geodesic length of every
+ * segment, bounding box, elevation range, ascent and descent.
+ * <p>
+ * An analysis only has to be redone when the {@link DistanceCalculator.Mode} changes. Everything the
+ * other {@link Gpx2FitOptions} affect is projected from it in O(n) without geodesic math: the cumulative
+ * 2D or 3D distance, the forced speed timestamps and the points kept by a {@link TrackSimplifier}. Each
+ * projection is cached until the options it depends on change. Not thread safe.
+ */
+public class TrackAnalysis {
+    private final Track mTrack;
+    private final DistanceCalculator.Mode mDistanceMode;
+    // aggregates, its distance and forced times are replaced by the projections
+    private final TrackStatistics mStatistics;
+    // 2D length of the segment ending at a point, 0 for the first point
+    private final double[] mSegments;
+
+    // the cumulative distance of the track is the one of this setting, null if not projected yet
+    private Boolean mUse3dDistance;
+    private double mDistance;
+
+    private long[] mForcedTimes;
+    private double mForcedSpeed;
+    private boolean mForcedWalkingGrade;
+
+    private boolean[] mKeep;
+    private TrackSimplifier.Method mKeepMethod;
+    private int mKeepMaxPoints;
+
+    public TrackAnalysis(Track track, DistanceCalculator.Mode distanceMode) {
+        this(track, distanceMode, null);
+    }
+
+    /**
+     * @param segments the 2D length of the segment ending at every point, computed with
+     *                 {@code distanceMode}, or null to compute them
+     */
+    TrackAnalysis(Track track, DistanceCalculator.Mode distanceMode, double[] segments) {
+        Gpx2FitOptions options = new Gpx2FitOptions();
+        options.setDistanceMode(distanceMode);
+        options.setUse3dDistance(false);
+        options.setWalkingGrade(false);
+
+        mTrack = track;
+        mDistanceMode = distanceMode;
+        mStatistics = new TrackStatistics(options.snapshot());
+        int n = track.size();
+        if (segments != null) {
+            for (int i = 0; i < n; i++)
+                mStatistics.add(track.getLat(i), track.getLon(i), track.getEle(i), track.getTime(i), segments[i]);
+            mSegments = segments;
+            return;
+        }
+        mSegments = new double[n];
+        for (int i = 0; i < n; i++) {
+            mStatistics.add(track.getLat(i), track.getLon(i), track.getEle(i), track.getTime(i));
+            mSegments[i] = mStatistics.getSegmentDistance();
+        }
+    }
+
+    /**
+     * Whether this analysis is valid for {@code options}.
+     */
+    public boolean matches(Gpx2FitOptions.Snapshot options) {
+        return mDistanceMode == options.getDistanceMode();
+    }
+
+    /**
+     * Statistics of the track as converted with {@code options}. Also sets the cumulative distances of
+     * the track for them.
+     */
+    public TrackStatistics getStatistics(Gpx2FitOptions.Snapshot options) {
+        projectDistances(options.isUse3dDistance());
+        TrackStatistics stats = mStatistics.project(options, mDistance, mStatistics.getForcedTime());
+        if (!stats.isForceSpeed())
+            return stats;
+        long[] forcedTimes = getForcedTimes(options);
+        return mStatistics.project(options, mDistance, forcedTimes[forcedTimes.length - 1]);
+    }
+
+    private void projectDistances(boolean use3dDistance) {
+        if (mUse3dDistance != null && mUse3dDistance == use3dDistance)
+            return;
+        // summed in the same order as TrackStatistics, so both end up with the same bits
+        double distance = .0;
+        double lastEle = Double.NaN;
+        for (int i = 0; i < mSegments.length; i++) {
+            double ele = mTrack.getEle(i);
+            if (i > 0) {
+                if (use3dDistance)
+                    distance += DistanceCalculator.distance3D(mSegments[i], ele, lastEle);
+                else
+                    distance += mSegments[i];
+            }
+            mTrack.setDist(i, distance);
+            lastEle = ele;
+        }
+        mDistance = distance;
+        mUse3dDistance = use3dDistance;
+    }
+
+    /**
+     * Timestamps of the points when moving at the speed of {@code options}, from the time of the first
+     * point. The array is shared, do not modify it.
+     */
+    public long[] getForcedTimes(Gpx2FitOptions.Snapshot options) {
+        double speed = options.getSpeed();
+        boolean walkingGrade = options.isWalkingGrade();
+        if (mForcedTimes != null && Double.compare(mForcedSpeed, speed) == 0
+                && mForcedWalkingGrade == walkingGrade)
+            return mForcedTimes;
+
+        // like TrackStatistics.add
+        int n = mSegments.length;
+        long[] forcedTimes = new long[n];
+        long forcedTime = mTrack.getTime(0);
+        forcedTimes[0] = forcedTime;
+        double lastEle = mTrack.getEle(0);
+        for (int i = 1; i < n; i++) {
+            double d = mSegments[i];
+            double ele = mTrack.getEle(i);
+            double gspeed = speed;
+            if (walkingGrade && !Double.isNaN(ele) && !Double.isNaN(lastEle)) {
+                double grade = (ele - lastEle) / d;
+                gspeed = Gpx2Fit.getWalkingGradeFactor(grade) * speed;
+            }
+            forcedTime = forcedTime + (long) (d / gspeed * 1000.0);
+            forcedTimes[i] = forcedTime;
+            lastEle = ele;
+        }
+        mForcedTimes = forcedTimes;
+        mForcedSpeed = speed;
+        mForcedWalkingGrade = walkingGrade;
+        return forcedTimes;
+    }
+
+    /**
+     * Points selected by the {@link TrackSimplifier} of {@code options}, null to reduce points by
+     * distance. The array is shared, do not modify it.
+     */
+    public boolean[] getKeep(Gpx2FitOptions.Snapshot options) {
+        TrackSimplifier.Method method = options.getSimplification();
+        int maxPoints = options.getMaxPoints();
+        if (mKeepMethod != method || mKeepMaxPoints != maxPoints) {
+            TrackSimplifier simplifier = TrackSimplifier.create(method);
+            if (simplifier != null && maxPoints > 0 && mTrack.size() > maxPoints)
+                mKeep = simplifier.simplify(mTrack, maxPoints);
+            else
+                mKeep = null;
+            mKeepMethod = method;
+            mKeepMaxPoints = maxPoints;
+        }
+        return mKeep;
+    }
+}
@@ -0,0 +1,49 @@
+package org.surfsite.gexporter;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The most recently converted tracks, parsed and with their {@link TrackAnalysis}, so converting them
+ * again with changed options skips parsing and geodesic math.
+ * <p>
+ * Bounded by the number of tracks and their total number of points, the least recently used tracks
+ * are dropped first.
+ */
+class TrackCache {
+    private final int mMaxTracks;
+    private final long mMaxPoints;
+    private final LinkedHashMap<String, Gpx2Fit> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private long mPoints;
+
+    TrackCache(int maxTracks, long maxPoints) {
+        mMaxTracks = maxTracks;
+        mMaxPoints = maxPoints;
+    }
+
+    synchronized Gpx2Fit get(String key) {
+        return mEntries.get(key);
+    }
+
+    synchronized void put(String key, Gpx2Fit track) {
+        Gpx2Fit previous = mEntries.put(key, track);
+        if (previous != null)
+            mPoints -= previous.getTrack().size();
+        mPoints += track.getTrack().size();
+
+        Iterator<Map.Entry<String, Gpx2Fit>> it = mEntries.entrySet().iterator();
+        while ((mEntries.size() > mMaxTracks || mPoints > mMaxPoints) && it.hasNext()) {
+            Gpx2Fit eldest = it.next().getValue();
+            if (eldest == track)
+                break;
+            mPoints -= eldest.getTrack().size();
+            it.remove();
+        }
+    }
+
+    synchronized void clear() {
+        mEntries.clear();
+        mPoints = 0;
+    }
+}
@@ -0,0 +1,426 @@
+package org.surfsite.gexporter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Byte offsets of the {@code <trk>}, {@code <trkseg>} and {@code <rte>} elements of a GPX file, with
+ * their point counts and names.
+ * <p>
+ * The index is built by a single scan over the raw bytes, without parsing the XML. A track or route
+ * can then be read on its own: {@link #open(File, Entry)} returns a document made of the prolog and
+ * root start tag of the file, the bytes of the element and the closing root tag, so namespaces and
+ * encoding stay the same without reading anything in between.
+ */
+public class TrackIndex {
+    public static final int TRK = 0;
+    public static final int TRKSEG = 1;
+    public static final int RTE = 2;
+
+    private static final int VERSION = 1;
+
+    public static class Entry {
+        public final int kind;
+        // offset of the '<' of the start tag and after the '>' of the end tag
+        public final long start;
+        public long end;
+        public int points;
+        public String name;
+
+        Entry(int kind, long start) {
+            this.kind = kind;
+            this.start = start;
+        }
+    }
+
+    // bytes up to and including the root start tag
+    private long mHeaderEnd;
+    private String mRootName;
+    private final List<Entry> mEntries = new ArrayList<>();
+
+    private TrackIndex() {
+    }
+
+    /**
+     * All indexed elements in document order.
+     */
+    public List<Entry> getEntries() {
+        return Collections.unmodifiableList(mEntries);
+    }
+
+    /**
+     * The tracks and routes, numbered as in the {@code track} request parameter.
+     */
+    public List<Entry> getCourses() {
+        List<Entry> courses = new ArrayList<>();
+        for (Entry entry : mEntries) {
+            if (entry.kind != TRKSEG)
+                courses.add(entry);
+        }
+        return courses;
+    }
+
+    /**
+     * Returns the course {@code n}, or null if there is no such track or route.
+     */
+    public Entry getCourse(int n) {
+        List<Entry> courses = getCourses();
+        return n >= 0 && n < courses.size() ? courses.get(n) : null;
+    }
+
+    /**
+     * Number of courses with points.
+     */
+    public int getCourseCount() {
+        int n = 0;
+        for (Entry entry : getCourses()) {
+            if (entry.points > 0)
+                n++;
+        }
+        return n;
+    }
+
+    /**
+     * Opens a GPX document holding only {@code course} of {@code gpx}.
+     */
+    public InputStream open(File gpx, Entry course) throws IOException {
+        byte[] header = new byte[(int) mHeaderEnd];
+        RandomAccessFile raf = new RandomAccessFile(gpx, "r");
+        try {
+            raf.readFully(header);
+        } finally {
+            raf.close();
+        }
+        FileInputStream in = new FileInputStream(gpx);
+        in.getChannel().position(course.start);
+        return new SequenceInputStream(Collections.enumeration(Arrays.asList(
+                new ByteArrayInputStream(header),
+                new SliceInputStream(in, course.end - course.start),
+                new ByteArrayInputStream(("</" + mRootName + ">").getBytes("UTF-8")))));
+    }
+
+    /**
+     * Size of the document returned by {@link #open(File, Entry)}.
+     */
+    public long getLength(Entry course) {
+        return mHeaderEnd + course.end - course.start + mRootName.length() + 3;
+    }
+
+    public static TrackIndex scan(File gpx) throws IOException {
+        InputStream in = new FileInputStream(gpx);
+        try {
+            return new Scanner(in).scan();
+        } finally {
+            in.close();
+        }
+    }
+
+    public byte[] toBytes() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + mEntries.size() * 32);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(VERSION);
+            out.writeLong(mHeaderEnd);
+            out.writeUTF(mRootName);
+            out.writeInt(mEntries.size());
+            for (Entry entry : mEntries) {
+                out.writeByte(entry.kind);
+                out.writeLong(entry.start);
+                out.writeLong(entry.end);
+                out.writeInt(entry.points);
+                out.writeBoolean(entry.name != null);
+                if (entry.name != null)
+                    out.writeUTF(entry.name);
+            }
+            out.close();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            // not thrown by a ByteArrayOutputStream
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Reads an index written by {@link #toBytes()}, returns null if it has an unknown format.
+     */
+    public static TrackIndex fromBytes(byte[] data) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        if (in.readInt() != VERSION)
+            return null;
+        TrackIndex index = new TrackIndex();
+        index.mHeaderEnd = in.readLong();
+        index.mRootName = in.readUTF();
+        int n = in.readInt();
+        for (int i = 0; i < n; i++) {
+            Entry entry = new Entry(in.readByte(), in.readLong());
+            entry.end = in.readLong();
+            entry.points = in.readInt();
+            if (in.readBoolean())
+                entry.name = in.readUTF();
+            index.mEntries.add(entry);
+        }
+        return index;
+    }
+
+    /**
+     * Tag level scanner over the raw bytes. Comments, CDATA sections, processing instructions and
+     * attribute values are skipped, so markup inside them is not mistaken for elements.
+     */
+    private static class Scanner {
+        private final InputStream mIn;
+        private final byte[] mBuf = new byte[65536];
+        private int mPos;
+        private int mLimit;
+        // file offset of mBuf[0]
+        private long mBase;
+
+        private final TrackIndex mIndex = new TrackIndex();
+        private final StringBuilder mTag = new StringBuilder();
+        private int mDepth;
+        private Entry mCourse;
+        private int mCourseDepth;
+        private Entry mSegment;
+
+        Scanner(InputStream in) {
+            mIn = in;
+        }
+
+        TrackIndex scan() throws IOException {
+            int c;
+            while ((c = read()) >= 0) {
+                if (c != '<')
+                    continue;
+                long start = offset() - 1;
+                c = read();
+                if (c == '?') {
+                    skipTo("?>");
+                } else if (c == '!') {
+                    if (lookingAt("--"))
+                        skipTo("-->");
+                    else if (lookingAt("[CDATA["))
+                        skipTo("]]>");
+                    else
+                        skipTo(">");
+                } else if (c == '/') {
+                    String name = readName(-1);
+                    skipTo(">");
+                    endTag(name);
+                } else if (c >= 0) {
+                    String name = readName(c);
+                    boolean empty = skipAttributes();
+                    startTag(name, start, empty);
+                }
+            }
+            if (mIndex.mRootName == null)
+                throw new IOException("No root element");
+            return mIndex;
+        }
+
+        private void startTag(String qname, long start, boolean empty) throws IOException {
+            if (mIndex.mRootName == null) {
+                mIndex.mRootName = qname;
+                mIndex.mHeaderEnd = offset();
+            }
+            String name = localName(qname);
+            if (!empty)
+                mDepth++;
+            if (mCourse == null) {
+                if (!empty && (name.equals("trk") || name.equals("rte"))) {
+                    mCourse = new Entry(name.equals("trk") ? TRK : RTE, start);
+                    mCourseDepth = mDepth;
+                    mIndex.mEntries.add(mCourse);
+                }
+                return;
+            }
+            switch (name) {
+                case "trkseg":
+                    if (!empty && mCourse.kind == TRK) {
+                        mSegment = new Entry(TRKSEG, start);
+                        mIndex.mEntries.add(mSegment);
+                    }
+                    break;
+                case "trkpt":
+                    if (mSegment != null) {
+                        mSegment.points++;
+                        mCourse.points++;
+                    }
+                    break;
+                case "rtept":
+                    if (mCourse.kind == RTE)
+                        mCourse.points++;
+                    break;
+                case "name":
+                    if (!empty && mDepth == mCourseDepth + 1 && mCourse.name == null)
+                        mCourse.name = readText();
+                    break;
+            }
+        }
+
+        private void endTag(String qname) {
+            String name = localName(qname);
+            if (mCourse != null) {
+                if (mSegment != null && name.equals("trkseg")) {
+                    mSegment.end = offset();
+                    mSegment = null;
+                } else if (mDepth == mCourseDepth && (name.equals("trk") || name.equals("rte"))) {
+                    mCourse.end = offset();
+                    mCourse = null;
+                }
+            }
+            mDepth--;
+        }
+
+        private static String localName(String qname) {
+            int colon = qname.indexOf(':');
+            return colon < 0 ? qname : qname.substring(colon + 1);
+        }
+
+        private long offset() {
+            return mBase + mPos;
+        }
+
+        private int read() throws IOException {
+            if (mPos == mLimit) {
+                mBase += mLimit;
+                mPos = 0;
+                mLimit = Math.max(0, mIn.read(mBuf));
+                if (mLimit == 0)
+                    return -1;
+            }
+            return mBuf[mPos++] & 0xff;
+        }
+
+        private String readName(int c) throws IOException {
+            mTag.setLength(0);
+            if (c < 0)
+                c = read();
+            while (c > ' ' && c != '>' && c != '/') {
+                mTag.append((char) c);
+                c = read();
+            }
+            // keep the terminator for skipAttributes and skipTo
+            if (c >= 0)
+                mPos--;
+            return mTag.toString();
+        }
+
+        /**
+         * Skips to the end of a start tag, returns whether it was an empty element tag.
+         */
+        private boolean skipAttributes() throws IOException {
+            int quote = 0;
+            int last = 0;
+            int c;
+            while ((c = read()) >= 0) {
+                if (quote != 0) {
+                    if (c == quote)
+                        quote = 0;
+                } else if (c == '"' || c == '\'') {
+                    quote = c;
+                } else if (c == '>') {
+                    return last == '/';
+                }
+                last = c;
+            }
+            return false;
+        }
+
+        /**
+         * Reads the text of an element up to its end tag, which is consumed.
+         */
+        private String readText() throws IOException {
+            ByteArrayOutputStream text = new ByteArrayOutputStream();
+            int c;
+            while ((c = read()) >= 0) {
+                if (c != '<') {
+                    text.write(c);
+                    continue;
+                }
+                boolean end = read() == '/';
+                String name = end ? readName(-1) : null;
+                skipTo(">");
+                // markup inside the name is dropped, only its text is kept
+                if (end && localName(name).equals("name")) {
+                    endTag(name);
+                    break;
+                }
+            }
+            return unescape(text.toString("UTF-8").trim());
+        }
+
+        private boolean lookingAt(String s) throws IOException {
+            for (int i = 0; i < s.length(); i++) {
+                int c = read();
+                if (c != s.charAt(i)) {
+                    if (c >= 0)
+                        mPos--;
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void skipTo(String end) throws IOException {
+            int matched = 0;
+            int c;
+            while (matched < end.length() && (c = read()) >= 0) {
+                if (c == end.charAt(matched))
+                    matched++;
+                else
+                    matched = c == end.charAt(0) ? 1 : 0;
+            }
+        }
+
+        private static String unescape(String s) {
+            if (s.indexOf('&') < 0)
+                return s;
+            return s.replace("&lt;", "<").replace("&gt;", ">").replace("&quot;", "\"")
+                    .replace("&apos;", "'").replace("&amp;", "&");
+        }
+    }
+
+    /**
+     * Reads at most {@code remaining} bytes of a stream.
+     */
+    private static class SliceInputStream extends FilterInputStream {
+        private long mRemaining;
+
+        SliceInputStream(InputStream in, long length) {
+            super(in);
+            mRemaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (mRemaining <= 0)
+                return -1;
+            int c = super.read();
+            if (c >= 0)
+                mRemaining--;
+            return c;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (mRemaining <= 0)
+                return -1;
+            int n = super.read(b, off, (int) Math.min(len, mRemaining));
+            if (n > 0)
+                mRemaining -= n;
+            return n;
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package org.surfsite.gexporter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link TrackIndex}es of GPX files, kept in memory and persisted in the cache directory next to the
+ * converted FIT files, so every file is scanned only once as long as it does not change.
+ * <p>
+ * The index of an older version of a file is deleted once the current version is seen. At most
+ * {@link #MAX_FILES} indexes are kept in memory and on disk, the least recently used ones are dropped.
+ */
+public class TrackIndexCache {
+    private static final Logger Log = LoggerFactory.getLogger(TrackIndexCache.class);
+
+    static final int MAX_FILES = 256;
+
+    private final File mCacheDir;
+    private final Map<String, TrackIndex> mEntries = new LinkedHashMap<String, TrackIndex>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, TrackIndex> eldest) {
+            return size() > MAX_FILES;
+        }
+    };
+    // key of the latest version, by path
+    private final Map<String, String> mVersions = new LinkedHashMap<String, String>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > MAX_FILES;
+        }
+    };
+    private int mFiles;
+
+    public TrackIndexCache(File cacheDir) {
+        mCacheDir = cacheDir;
+        prune();
+    }
+
+    /**
+     * Returns the index of {@code gpx}, scanning the file if it was not indexed before.
+     */
+    public TrackIndex get(File gpx) throws IOException {
+        String key = getKey(gpx);
+        TrackIndex index = peek(key);
+        if (index != null)
+            return index;
+
+        index = TrackIndex.scan(gpx);
+        synchronized (this) {
+            mEntries.put(key, index);
+        }
+        Log.debug("Indexed {}: {} courses", gpx.getName(), index.getCourses().size());
+        store(key, index);
+        return index;
+    }
+
+    /**
+     * Returns the index of {@code gpx} if it is available without scanning the file, null otherwise.
+     */
+    public TrackIndex peek(File gpx) {
+        try {
+            return peek(getKey(gpx));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private TrackIndex peek(String key) {
+        TrackIndex index;
+        synchronized (this) {
+            index = mEntries.get(key);
+        }
+        if (index != null)
+            return index;
+        File file = getFile(key);
+        if (!file.isFile())
+            return null;
+        // the order in which indexes are pruned
+        //noinspection ResultOfMethodCallIgnored
+        file.setLastModified(System.currentTimeMillis());
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                byte[] data = new byte[(int) raf.length()];
+                raf.readFully(data);
+                index = TrackIndex.fromBytes(data);
+            } finally {
+                raf.close();
+            }
+        } catch (IOException e) {
+            Log.warn("Reading {} failed: {}", file, e.toString());
+            index = null;
+        }
+        if (index != null) {
+            synchronized (this) {
+                mEntries.put(key, index);
+            }
+        }
+        return index;
+    }
+
+    private void store(String key, TrackIndex index) {
+        File file = getFile(key);
+        File tmp = new File(mCacheDir, key + ".idx.tmp");
+        try {
+            FileOutputStream out = new FileOutputStream(tmp);
+            try {
+                out.write(index.toBytes());
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(file))
+                throw new IOException("Renaming " + tmp + " failed");
+            synchronized (this) {
+                if (++mFiles > MAX_FILES)
+                    prune();
+            }
+        } catch (IOException e) {
+            Log.error("Storing {} failed: {}", file, e.toString());
+            //noinspection ResultOfMethodCallIgnored
+            tmp.delete();
+        }
+    }
+
+    private File getFile(String key) {
+        return new File(mCacheDir, key + ".idx");
+    }
+
+    /**
+     * Identifies the current version of {@code gpx}, dropping the index of the version seen before.
+     */
+    private String getKey(File gpx) throws IOException {
+        String path = gpx.getAbsolutePath();
+        String key = Digests.sha1Hex((path + '|' + gpx.length() + '|' + gpx.lastModified()).getBytes("UTF-8"));
+        String previous;
+        synchronized (this) {
+            previous = mVersions.put(path, key);
+            if (previous != null && !previous.equals(key))
+                mEntries.remove(previous);
+        }
+        if (previous != null && !previous.equals(key) && getFile(previous).delete()) {
+            synchronized (this) {
+                mFiles--;
+            }
+        }
+        return key;
+    }
+
+    /**
+     * Deletes the least recently used indexes beyond {@link #MAX_FILES} and temporary files left by a
+     * crash.
+     */
+    private synchronized void prune() {
+        File[] files = mCacheDir.listFiles();
+        if (files == null)
+            return;
+        List<File> indexes = new ArrayList<>();
+        for (File file : files) {
+            if (file.getName().endsWith(".idx")) {
+                indexes.add(file);
+            } else if (file.getName().endsWith(".idx.tmp")) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+        Collections.sort(indexes, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long ma = a.lastModified();
+                long mb = b.lastModified();
+                return ma > mb ? -1 : (ma == mb ? 0 : 1);
+            }
+        });
+        mFiles = indexes.size();
+        for (int i = MAX_FILES; i < indexes.size(); i++) {
+            File file = indexes.get(i);
+            String name = file.getName();
+            mEntries.remove(name.substring(0, name.length() - ".idx".length()));
+            if (file.delete())
+                mFiles--;
+        }
+    }
+}
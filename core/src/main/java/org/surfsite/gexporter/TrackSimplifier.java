@@ -0,0 +1,76 @@
+package org.surfsite.gexporter;
+
+/**
+ * Selects the points of a track that are written as records when the number of points is limited by
+ * {@link Gpx2FitOptions#getMaxPoints()}.
+ * <p>
+ * Implementations work on a local equirectangular projection of the track in meters, which is accurate
+ * enough for comparing deviations within a course.
+ */
+public abstract class TrackSimplifier {
+
+    public enum Method {
+        /**
+         * Keep a point whenever the distance since the last kept point exceeds total distance / max points.
+         * Needs no extra memory and is used for streaming conversions.
+         */
+        DISTANCE,
+        /**
+         * Douglas-Peucker: repeatedly keep the point that deviates most from the simplified line.
+         */
+        DOUGLAS_PEUCKER,
+        /**
+         * Visvalingam-Whyatt: repeatedly drop the point whose triangle with its neighbours has the smallest area.
+         */
+        VISVALINGAM_WHYATT
+    }
+
+    private static final double EARTH_RADIUS = 6371008.8;
+
+    /**
+     * Returns the simplifier for {@code method}, or null for {@link Method#DISTANCE}, which is applied
+     * while writing the records.
+     */
+    public static TrackSimplifier create(Method method) {
+        switch (method) {
+            case DOUGLAS_PEUCKER:
+                return new DouglasPeuckerSimplifier();
+            case VISVALINGAM_WHYATT:
+                return new VisvalingamWhyattSimplifier();
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Returns which points of {@code track} to keep. At most {@code maxPoints} are kept, exactly
+     * {@code maxPoints} unless the track has fewer points or the remaining ones do not change its shape.
+     * The first and the last point are always kept.
+     */
+    public abstract boolean[] simplify(Track track, int maxPoints);
+
+    /**
+     * Projects the points of {@code track} into {@code x} and {@code y} in meters.
+     */
+    protected static void project(Track track, double[] x, double[] y) {
+        int n = track.size();
+        double minLat = 90.0, maxLat = -90.0;
+        for (int i = 0; i < n; i++) {
+            minLat = Math.min(minLat, track.getLat(i));
+            maxLat = Math.max(maxLat, track.getLat(i));
+        }
+        double k = Math.toRadians(1.0) * EARTH_RADIUS;
+        double kx = k * Math.cos(Math.toRadians((minLat + maxLat) / 2.0));
+        double lon0 = track.getLon(0);
+        for (int i = 0; i < n; i++) {
+            double dlon = track.getLon(i) - lon0;
+            // tracks crossing the antimeridian
+            if (dlon > 180.0)
+                dlon -= 360.0;
+            else if (dlon < -180.0)
+                dlon += 360.0;
+            x[i] = dlon * kx;
+            y[i] = track.getLat(i) * k;
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package org.surfsite.gexporter;
+
+/**
+ * Aggregates of a track that are needed before the first record can be written: total distance,
+ * bounding box, ascent/descent, elevation range, start and end time.
+ * <p>
+ * Points are processed one at a time in constant memory. The cumulative distance and the forced speed
+ * timestamp of the most recently added point are available after every {@link #add}, so the same class
+ * drives both the statistics pass and the record pass of a conversion and both see identical numbers.
+ */
+public class TrackStatistics implements PointSink {
+    private final Gpx2FitOptions.Snapshot mOptions;
+    private final DistanceCalculator.Mode mDistanceMode;
+
+    private int count;
+    private double firstLat, firstLon;
+    private double lastLat, lastLon, lastEle;
+    private long firstTime, lastTime;
+    private double minEle = Double.NaN;
+    private double maxEle = Double.NaN;
+    private double totalAsc = Double.NaN;
+    private double totalDesc = Double.NaN;
+    private double minLat = 1000.0, minLong = 1000.0;
+    private double maxLat = -1000.0, maxLong = -1000.0;
+    private double distance = .0;
+    private double segment = .0;
+    private long forcedTime;
+
+    public TrackStatistics(Gpx2FitOptions.Snapshot options) {
+        mOptions = options;
+        mDistanceMode = options.getDistanceMode();
+    }
+
+    /**
+     * Copy of {@code other} with {@code options} and the distance and end of the forced speed timestamps
+     * computed for them, see {@link TrackAnalysis}.
+     */
+    private TrackStatistics(TrackStatistics other, Gpx2FitOptions.Snapshot options, double distance, long forcedTime) {
+        mOptions = options;
+        mDistanceMode = options.getDistanceMode();
+        count = other.count;
+        firstLat = other.firstLat;
+        firstLon = other.firstLon;
+        lastLat = other.lastLat;
+        lastLon = other.lastLon;
+        lastEle = other.lastEle;
+        firstTime = other.firstTime;
+        lastTime = other.lastTime;
+        minEle = other.minEle;
+        maxEle = other.maxEle;
+        totalAsc = other.totalAsc;
+        totalDesc = other.totalDesc;
+        minLat = other.minLat;
+        minLong = other.minLong;
+        maxLat = other.maxLat;
+        maxLong = other.maxLong;
+        segment = other.segment;
+        this.distance = distance;
+        this.forcedTime = forcedTime;
+    }
+
+    TrackStatistics project(Gpx2FitOptions.Snapshot options, double distance, long forcedTime) {
+        return new TrackStatistics(this, options, distance, forcedTime);
+    }
+
+    @Override
+    public void add(double lat, double lon, double ele, long time) {
+        add(lat, lon, ele, time, count == 0 ? .0 : DistanceCalculator.distance(mDistanceMode, lastLat, lastLon, lat, lon));
+    }
+
+    /**
+     * Adds a point whose 2D distance {@code d} from the previous point is already known.
+     */
+    void add(double lat, double lon, double ele, long time, double d) {
+        if (!Double.isNaN(ele)) {
+            if (minEle > ele || Double.isNaN(minEle))
+                minEle = ele;
+            if (maxEle < ele || Double.isNaN(maxEle))
+                maxEle = ele;
+        }
+
+        minLat = Math.min(minLat, lat);
+        minLong = Math.min(minLong, lon);
+        maxLat = Math.max(maxLat, lat);
+        maxLong = Math.max(maxLong, lon);
+
+        if (count == 0) {
+            firstLat = lat;
+            firstLon = lon;
+            firstTime = time;
+            forcedTime = time;
+        } else {
+            double speed = mOptions.getSpeed();
+            double gspeed = speed;
+            segment = d;
+
+            if (mOptions.isUse3dDistance()) {
+                distance += DistanceCalculator.distance3D(d, ele, lastEle);
+            } else {
+                distance += d;
+            }
+
+            if ((!Double.isNaN(ele)) && (!Double.isNaN(lastEle))) {
+                double dele = ele - lastEle;
+                if (dele > 0.0) {
+                    if (Double.isNaN(totalAsc))
+                        totalAsc = .0;
+                    totalAsc += dele;
+                } else {
+                    if (Double.isNaN(totalDesc))
+                        totalDesc = .0;
+                    totalDesc += Math.abs(dele);
+                }
+
+                if (mOptions.isWalkingGrade()) {
+                    double grade = dele / d;
+                    gspeed = Gpx2Fit.getWalkingGradeFactor(grade) * speed;
+                }
+            }
+
+            forcedTime = forcedTime + (long) (d / gspeed * 1000.0);
+        }
+
+        lastLat = lat;
+        lastLon = lon;
+        lastEle = ele;
+        lastTime = time;
+        count++;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Cumulative distance up to the most recently added point, the total distance once all points are added.
+     */
+    public double getDistance() {
+        return distance;
+    }
+
+    /**
+     * 2D distance from the previous point to the most recently added one, 0 for the first point.
+     */
+    public double getSegmentDistance() {
+        return segment;
+    }
+
+    /**
+     * Timestamp of the most recently added point when moving at the configured speed from the first point.
+     */
+    public long getForcedTime() {
+        return forcedTime;
+    }
+
+    /**
+     * Whether timestamps are generated from the configured speed, either because the options ask for it or
+     * because the track has no usable times. Only meaningful once all points are added.
+     */
+    public boolean isForceSpeed() {
+        if (mOptions.isForceSpeed())
+            return true;
+        return firstTime == lastTime && !Double.isNaN(mOptions.getSpeed());
+    }
+
+    public long getStartTime() {
+        return firstTime;
+    }
+
+    public long getEndTime() {
+        return isForceSpeed() ? forcedTime : lastTime;
+    }
+
+    public double getFirstLat() {
+        return firstLat;
+    }
+
+    public double getFirstLon() {
+        return firstLon;
+    }
+
+    public double getLastLat() {
+        return lastLat;
+    }
+
+    public double getLastLon() {
+        return lastLon;
+    }
+
+    public double getMinEle() {
+        return minEle;
+    }
+
+    public double getMaxEle() {
+        return maxEle;
+    }
+
+    public double getTotalAsc() {
+        return totalAsc;
+    }
+
+    public double getTotalDesc() {
+        return totalDesc;
+    }
+
+    public double getMinLat() {
+        return minLat;
+    }
+
+    public double getMinLong() {
+        return minLong;
+    }
+
+    public double getMaxLat() {
+        return maxLat;
+    }
+
+    public double getMaxLong() {
+        return maxLong;
+    }
+}
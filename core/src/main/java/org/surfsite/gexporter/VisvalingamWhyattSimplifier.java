@@ -0,0 +1,156 @@
+package org.surfsite.gexporter;
+
+/**
+ * Visvalingam-Whyatt simplification targeting a number of points.
+ * <p>
+ * Every interior point is weighted with the area of the triangle it forms with its neighbours. The point
+ * with the smallest area is removed and its neighbours are re-weighted, until the point budget is
+ * reached. An indexed binary heap keeps this at O(n log n).
+ */
+public class VisvalingamWhyattSimplifier extends TrackSimplifier {
+
+    @Override
+    public boolean[] simplify(Track track, int maxPoints) {
+        int n = track.size();
+        boolean[] keep = new boolean[n];
+        for (int i = 0; i < n; i++)
+            keep[i] = true;
+        if (n <= Math.max(maxPoints, 2))
+            return keep;
+
+        double[] x = new double[n];
+        double[] y = new double[n];
+        project(track, x, y);
+
+        int[] prev = new int[n];
+        int[] next = new int[n];
+        for (int i = 0; i < n; i++) {
+            prev[i] = i - 1;
+            next[i] = i + 1;
+        }
+
+        Heap heap = new Heap(n);
+        for (int i = 1; i < n - 1; i++)
+            heap.add(i, area(x, y, i - 1, i, i + 1));
+
+        int remaining = n;
+        double lastArea = 0.0;
+        while (remaining > maxPoints && heap.size() > 0) {
+            int i = heap.peek();
+            // effective areas never decrease, so earlier removals cannot be undone by later ones
+            lastArea = Math.max(lastArea, heap.key(i));
+            heap.remove(i);
+            keep[i] = false;
+            remaining--;
+
+            int p = prev[i];
+            int q = next[i];
+            next[p] = q;
+            prev[q] = p;
+            if (p > 0)
+                heap.update(p, Math.max(lastArea, area(x, y, prev[p], p, q)));
+            if (q < n - 1)
+                heap.update(q, Math.max(lastArea, area(x, y, p, q, next[q])));
+        }
+        return keep;
+    }
+
+    private static double area(double[] x, double[] y, int a, int b, int c) {
+        return Math.abs((x[b] - x[a]) * (y[c] - y[a]) - (x[c] - x[a]) * (y[b] - y[a])) / 2.0;
+    }
+
+    /**
+     * Min-heap of point indices ordered by their area, with the heap position of every index so areas
+     * can be updated in place.
+     */
+    private static class Heap {
+        private final int[] heap;
+        private final int[] pos;
+        private final double[] keys;
+        private int size;
+
+        Heap(int capacity) {
+            heap = new int[capacity];
+            pos = new int[capacity];
+            keys = new double[capacity];
+        }
+
+        int size() {
+            return size;
+        }
+
+        int peek() {
+            return heap[0];
+        }
+
+        double key(int i) {
+            return keys[i];
+        }
+
+        void add(int i, double key) {
+            keys[i] = key;
+            heap[size] = i;
+            pos[i] = size;
+            size++;
+            up(pos[i]);
+        }
+
+        void remove(int i) {
+            int p = pos[i];
+            size--;
+            if (p == size)
+                return;
+            int moved = heap[size];
+            move(moved, p);
+            up(p);
+            down(pos[moved]);
+        }
+
+        void update(int i, double key) {
+            double old = keys[i];
+            keys[i] = key;
+            if (key < old)
+                up(pos[i]);
+            else
+                down(pos[i]);
+        }
+
+        private void move(int i, int p) {
+            heap[p] = i;
+            pos[i] = p;
+        }
+
+        private boolean less(int a, int b) {
+            // ties by index, for a deterministic order
+            return keys[a] < keys[b] || (keys[a] == keys[b] && a < b);
+        }
+
+        private void up(int p) {
+            int i = heap[p];
+            while (p > 0) {
+                int parent = (p - 1) / 2;
+                if (!less(i, heap[parent]))
+                    break;
+                move(heap[parent], p);
+                p = parent;
+            }
+            move(i, p);
+        }
+
+        private void down(int p) {
+            int i = heap[p];
+            while (true) {
+                int c = 2 * p + 1;
+                if (c >= size)
+                    break;
+                if (c + 1 < size && less(heap[c + 1], heap[c]))
+                    c++;
+                if (!less(heap[c], i))
+                    break;
+                move(heap[c], p);
+                p = c;
+            }
+            move(i, p);
+        }
+    }
+}
@@ -1,22 +1,12 @@
 package org.surfsite.gexporter;
 
-import org.gavaghan.geodesy.Ellipsoid;
-import org.gavaghan.geodesy.GeodeticCalculator;
-import org.gavaghan.geodesy.GlobalCoordinates;
-
 import java.util.Date;
 
 public class WayPoint {
-    // instantiate the calculator
-    private static final GeodeticCalculator geoCalc = new GeodeticCalculator();
-
     // milliseconds since UTC 00:00 Dec 31 1989"
     public static final long RefMilliSec = 631065600000L;
     public static final Date RefDate = new Date(RefMilliSec);
 
-    // select a reference ellipsoid
-    private static final Ellipsoid reference = Ellipsoid.WGS84;
-
     private double lat = Double.NaN;
     private double lon = Double.NaN;
     private double ele = Double.NaN;
@@ -78,22 +68,15 @@ public class WayPoint {
     }
 
     public double distance(WayPoint other) {
-        return geoCalc.calculateGeodeticCurve(reference,
-                new GlobalCoordinates(getLat(), this.getLon()),
-                new GlobalCoordinates(other.getLat(), other.getLon())
-        ).getEllipsoidalDistance();
+        return distance(other, DistanceCalculator.Mode.VINCENTY);
+    }
+
+    public double distance(WayPoint other, DistanceCalculator.Mode mode) {
+        return DistanceCalculator.distance(mode, getLat(), getLon(), other.getLat(), other.getLon());
     }
 
     public double distance3D(WayPoint other) {
-        double d = geoCalc.calculateGeodeticCurve(reference,
-                new GlobalCoordinates(getLat(), this.getLon()),
-                new GlobalCoordinates(other.getLat(), other.getLon())
-        ).getEllipsoidalDistance();
-
-        if (!Double.isNaN(getEle()) && !Double.isNaN(other.getEle())) {
-            double h = (getEle() - other.getEle());
-            return Math.sqrt(d * d + h * h);
-        } else return d;
+        return DistanceCalculator.distance3D(distance(other), getEle(), other.getEle());
     }
 
     public double getTotaldist() {
@@ -0,0 +1,855 @@
+package org.surfsite.gexporter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+
+import fi.iki.elonen.NanoHTTPD;
+
+import java.io.PushbackInputStream;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class WebServer extends NanoHTTPD {
+    private static final Logger Log = LoggerFactory.getLogger(NanoHTTPD.class);
+
+    private File mRootDir;
+    private File mCacheDir;
+    private volatile Gpx2FitOptions.Snapshot mGpx2FitOptions;
+    private ConversionCache mConversionCache;
+    private final DirectoryCatalog mCatalog;
+    private final TrackIndexCache mTrackIndexes;
+    private final TrackCache mTracks = new TrackCache(TRACK_CACHE_TRACKS, TRACK_CACHE_POINTS);
+    private final HotCache mHotCache = new HotCache(HOT_CACHE_BYTES, HOT_CACHE_FILES);
+    private volatile long mOptionsModified = System.currentTimeMillis();
+    private boolean mPersistentCache = true;
+    private final ExecutorService mWriteBehindExecutor = Executors.newSingleThreadExecutor();
+    private final SingleFlight<Conversion> mConversions = new SingleFlight<>();
+    private final ConversionExecutor mConversionExecutor = new ConversionExecutor();
+    // helps scanning large files, tasks that find no idle thread run on the converting thread
+    private final ThreadPoolExecutor mScanExecutor = new ThreadPoolExecutor(0, SCAN_THREADS, 60, TimeUnit.SECONDS,
+            new SynchronousQueue<Runnable>(), new ThreadFactory() {
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "gpx2fit-scan-" + mCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    });
+    private final GzipCache mGzipCache;
+    private final PreConverter mPreConverter;
+    private final PooledAsyncRunner mAsyncRunner = new PooledAsyncRunner(MAX_CONNECTIONS, MAX_CONNECTIONS);
+
+    private final Metrics mMetrics = new Metrics();
+    private final Histogram mParseTimer = mMetrics.timer("parse");
+    private final Histogram mStatisticsTimer = mMetrics.timer("statistics");
+    private final Histogram mEncodeTimer = mMetrics.timer("encode");
+    private final Histogram mIoTimer = mMetrics.timer("io");
+    private final Histogram mRequestTimer = mMetrics.timer("request");
+    private final Histogram mPoints = mMetrics.histogram("points_per_conversion");
+    private final StripedCounter mRequests = mMetrics.counter("requests");
+    private final StripedCounter mBytesServed = mMetrics.counter("bytes_served");
+    private final StripedCounter mTrackCacheHits = mMetrics.counter("track_cache_hits");
+
+    public WebServer(File rootDir, File cacheDir, int port, Gpx2FitOptions.Snapshot options)
+            throws IOException, NoSuchAlgorithmException {
+
+        super(port);
+        mRootDir = rootDir;
+        mCacheDir = cacheDir;
+        mGpx2FitOptions = options;
+        mConversionCache = new ConversionCache(cacheDir);
+        mTrackIndexes = new TrackIndexCache(cacheDir);
+        mCatalog = new DirectoryCatalog(rootDir);
+        mCatalog.setTrackIndexes(mTrackIndexes);
+        mGzipCache = new GzipCache(cacheDir, mWriteBehindExecutor);
+        mPreConverter = new PreConverter(new PreConverter.Converter() {
+            @Override
+            public boolean convert(File gpx) throws Exception {
+                return preconvert(gpx);
+            }
+        });
+        mCatalog.setListener(new DirectoryCatalog.Listener() {
+            @Override
+            public void coursesChanged(File... files) {
+                mPreConverter.submit(files);
+            }
+        });
+        setAsyncRunner(mAsyncRunner);
+        registerGauges();
+    }
+
+    private void registerGauges() {
+        mMetrics.gauge("active_connections", new Metrics.Gauge() {
+            @Override
+            public double getValue() {
+                return mAsyncRunner.getActiveConnections();
+            }
+        });
+        mMetrics.gauge("connection_queue_depth", new Metrics.Gauge() {
+            @Override
+            public double getValue() {
+                return mAsyncRunner.getQueueDepth();
+            }
+        });
+        mMetrics.gauge("conversion_queue_depth", new Metrics.Gauge() {
+            @Override
+            public double getValue() {
+                return mConversionExecutor.getQueueDepth();
+            }
+        });
+        mMetrics.gauge("conversions_active", new Metrics.Gauge() {
+            @Override
+            public double getValue() {
+                return mConversionExecutor.getActiveCount();
+            }
+        });
+        mMetrics.gauge("conversions_rejected", new Metrics.Gauge() {
+            @Override
+            public double getValue() {
+                return mConversionExecutor.getRejected();
+            }
+        });
+        mMetrics.gauge("preconvert_queue_depth", new Metrics.Gauge() {
+            @Override
+            public double getValue() {
+                return mPreConverter.getQueueDepth();
+            }
+        });
+        mMetrics.gauge("conversion_cache_hit_ratio", new Metrics.Gauge() {
+            @Override
+            public double getValue() {
+                return Metrics.ratio(mConversionCache.getHits(), mConversionCache.getMisses());
+            }
+        });
+        mMetrics.gauge("conversion_cache_bytes", new Metrics.Gauge() {
+            @Override
+            public double getValue() {
+                return mConversionCache.getSize();
+            }
+        });
+        mMetrics.gauge("conversion_cache_evictions", new Metrics.Gauge() {
+            @Override
+            public double getValue() {
+                return mConversionCache.getEvictions();
+            }
+        });
+        mMetrics.gauge("hot_cache_hit_ratio", new Metrics.Gauge() {
+            @Override
+            public double getValue() {
+                return Metrics.ratio(mHotCache.getHits(), mHotCache.getMisses());
+            }
+        });
+        mMetrics.gauge("hot_cache_bytes", new Metrics.Gauge() {
+            @Override
+            public double getValue() {
+                return mHotCache.getWeight();
+            }
+        });
+        mMetrics.gauge("gzip_cache_hit_ratio", new Metrics.Gauge() {
+            @Override
+            public double getValue() {
+                return Metrics.ratio(mGzipCache.getHits(), mGzipCache.getMisses());
+            }
+        });
+        mMetrics.gauge("gzip_cache_bytes", new Metrics.Gauge() {
+            @Override
+            public double getValue() {
+                return mGzipCache.getSize();
+            }
+        });
+    }
+
+    public ConversionCache getConversionCache() {
+        return mConversionCache;
+    }
+
+    /**
+     * Index behind {@code /dir.json}. Report changes in the root directory to
+     * {@link DirectoryCatalog#fileChanged(String, boolean)}, anything missed is picked up by a periodic rescan.
+     */
+    public DirectoryCatalog getCatalog() {
+        return mCatalog;
+    }
+
+    /**
+     * Background conversion of new or changed GPX files in the root directory.
+     */
+    public PreConverter getPreConverter() {
+        return mPreConverter;
+    }
+
+    /**
+     * Whether FIT files converted in memory are also written to the cache directory, so later requests
+     * for the same source and options are served without converting again. Enabled by default.
+     */
+    public void setPersistentCache(boolean persistentCache) {
+        mPersistentCache = persistentCache;
+    }
+
+    public boolean isPersistentCache() {
+        return mPersistentCache;
+    }
+
+    /**
+     * Conversion thread pool, for monitoring its queue depth and wait times.
+     */
+    public ConversionExecutor getConversionExecutor() {
+        return mConversionExecutor;
+    }
+
+    /**
+     * Latencies and counters of the server, also served as {@code /metrics.json}.
+     */
+    public Metrics getMetrics() {
+        return mMetrics;
+    }
+
+    private static final String MIME_JSON = "application/json";
+    private static final String MIME_GPX = "application/gpx+xml";
+    private static final String MIME_FIT = "application/fit";
+    private static final String GZIP = "gzip";
+
+    // threads serving connections, conversions run on the separate ConversionExecutor
+    private static final int MAX_CONNECTIONS = 16;
+
+    // fallback for directory changes that were not reported to the catalog
+    private static final long CATALOG_RESCAN_SECONDS = 30;
+
+    // GPX files larger than this are converted without loading all points into memory
+    private static final long STREAMING_THRESHOLD = 8 * 1024 * 1024;
+
+    // cores besides the converting thread that scan chunks of large files
+    private static final int SCAN_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+
+    // parsed tracks kept for conversions with changed options
+    private static final int TRACK_CACHE_TRACKS = 8;
+    private static final long TRACK_CACHE_POINTS = 200000;
+
+    // query parameters overriding the options of a single conversion
+    private static final String[] OPTION_PARAMETERS = {"speed", "maxPoints", "forceSpeed", "walkingGrade", "inject"};
+
+    // encoded FIT files served from memory, a small share of the heap
+    private static final long HOT_CACHE_BYTES = Math.min(16 * 1024 * 1024, Runtime.getRuntime().maxMemory() / 8);
+    private static final int HOT_CACHE_FILES = 256;
+
+    /**
+     * Serves the request and meters its response: the total request time is recorded once the response
+     * body was sent, which is when NanoHTTPD closes it.
+     */
+    @Override public Response serve(IHTTPSession session) {
+        long started = System.nanoTime();
+        mRequests.increment();
+        Response response = serveRequest(session);
+        InputStream data = response.getData();
+        if (data == null) {
+            mRequestTimer.record(System.nanoTime() - started);
+            return response;
+        }
+        response.setData(new MeteredInputStream(data, mBytesServed, null, mRequestTimer, started));
+        return response;
+    }
+
+    private Response serveRequest(IHTTPSession session) {
+        String mime_type = NanoHTTPD.MIME_HTML;
+        Method method = session.getMethod();
+        Map<String, List<String>> parms = session.getParameters();
+
+        String uri = session.getUri();
+        Log.info("{} '{}'", method, uri);
+
+        if (method == Method.GET || method == Method.HEAD) {
+            boolean doGPXonly = false;
+            if (parms.containsKey("type") && parms.get("type").get(0).equals("GPX")) {
+                doGPXonly = true;
+                Log.debug("doGPXonly == true");
+            }
+
+            boolean doShort = false;
+            if (parms.containsKey("short") && parms.get("short").get(0).equals("1")) {
+                doShort = true;
+                Log.debug("doShort == true");
+            }
+
+            boolean doLongname = false;
+            if (parms.containsKey("longname") && parms.get("longname").get(0).equals("1")) {
+                doLongname = true;
+                Log.debug("doLongname == true");
+            }
+
+            if (uri.equals("/metrics.json")) {
+                Response response = NanoHTTPD.newFixedLengthResponse(Response.Status.OK, MIME_JSON,
+                        mMetrics.toJson());
+                response.addHeader("Cache-Control", "no-store");
+                return response;
+            }
+
+            if(uri.equals("/dir.json")){
+                return getDir(session, doGPXonly, doShort, doLongname);
+            }
+
+            String path;
+
+            path = uri;
+            File src = null;
+            byte[] data = null;
+            String etag = null;
+            long lastModified = 0;
+            boolean compress = false;
+            try{
+                if(path.endsWith(".json")){
+                    mime_type = MIME_JSON;
+                } else if(path.endsWith(".fit") || path.endsWith(".FIT")) {
+                    mime_type = MIME_FIT;
+                    src = new File(mRootDir, path);
+                } else if(path.endsWith(".gpx") || path.endsWith(".GPX")) {
+                    src = new File(mRootDir, path);
+
+                    if (doGPXonly) {
+                        mime_type = MIME_GPX;
+                    } else {
+                        int track;
+                        Gpx2FitOptions.Snapshot requested;
+                        try {
+                            track = getTrack(parms);
+                            requested = getOptions(mGpx2FitOptions, parms);
+                        } catch (IllegalArgumentException e) {
+                            Log.warn("Bad request '{}': {}", uri, e.getMessage());
+                            return errorResponse(Response.Status.BAD_REQUEST, e.getMessage());
+                        }
+                        final TrackIndex index = track >= 0 ? mTrackIndexes.get(src) : null;
+                        final TrackIndex.Entry course = index != null ? index.getCourse(track) : null;
+                        if (track >= 0 && course == null)
+                            throw new FileNotFoundException(path + " has no track " + track);
+
+                        String title = course != null ? getTrackTitle(src.getName(), course, track) : src.getName();
+                        final String courseName = (doLongname ? title : getCourseName(title));
+
+                        // taken once, the whole conversion sees the same options
+                        final Gpx2FitOptions.Snapshot options = getEffectiveOptions(requested,
+                                course != null ? index.getLength(course) : src.length());
+                        // reads the source only the first time, a hot course is served without disk I/O
+                        final String key = mConversionCache.getKey(src, track, courseName, options);
+                        lastModified = Math.max(src.lastModified(), mOptionsModified);
+                        HotCache.Entry hot = mHotCache.get(key);
+                        File fit = null;
+                        if (hot != null) {
+                            data = hot.data;
+                            etag = hot.etag;
+                        } else {
+                            fit = mConversionCache.get(key);
+                            if (fit == null) {
+                                final File gpx = src;
+                                // concurrent requests for the same course share one conversion
+                                Conversion conversion = mConversions.execute(key, new Callable<Conversion>() {
+                                    @Override
+                                    public Conversion call() throws Exception {
+                                        return mConversionExecutor.execute(new Callable<Conversion>() {
+                                            @Override
+                                            public Conversion call() throws Exception {
+                                                return convert(key, gpx, index, course, courseName, options);
+                                            }
+                                        });
+                                    }
+                                });
+                                fit = conversion.file;
+                                data = conversion.data;
+                                etag = conversion.etag;
+                            } else if (fit.length() <= mHotCache.getMaxEntryBytes()) {
+                                data = readCached(fit);
+                            }
+                            if (etag == null)
+                                etag = mConversionCache.getETag(key);
+                            if (data != null && etag != null)
+                                mHotCache.put(key, data, etag);
+                            Log.info("Conversion cache hits: {} misses: {}",
+                                    mConversionCache.getHits(), mConversionCache.getMisses());
+                        }
+                        src = fit;
+                        mime_type = MIME_FIT;
+                    }
+                }
+                if (src != null && etag == null && src.isFile()) {
+                    // served as is, identified by name, size and modification time
+                    lastModified = src.lastModified();
+                    String identity = Digests.sha1Hex((src.getAbsolutePath() + '|' + src.length() + '|'
+                            + lastModified).getBytes("UTF-8"));
+                    etag = "\"" + identity + "\"";
+                    if (MIME_GPX.equals(mime_type) && session.getHeaders().get("range") == null
+                            && HttpConditions.acceptsGzip(session.getHeaders().get("accept-encoding"))) {
+                        File gz = mGzipCache.get(identity, src);
+                        if (gz != null)
+                            return serveContent(session, mime_type, HttpConditions.gzipETag(etag), lastModified,
+                                    null, gz, GZIP, false);
+                        compress = true;
+                    }
+                }
+            } catch (RejectedExecutionException e) {
+                Log.warn("Conversion queue full ({} waiting)", mConversionExecutor.getQueueDepth());
+
+                return overloadResponse();
+            }catch(Exception e){
+                Log.error("Error Serving:", e);
+
+                return errorResponse(Response.Status.NOT_FOUND, e.toString());
+            }
+
+            if (data == null && src == null) {
+                Log.warn("src == null");
+
+                return NanoHTTPD.newFixedLengthResponse(Response.Status.NOT_FOUND, "text/html", "Not found");
+            }
+
+            try {
+                if (compress)
+                    return serveContent(session, mime_type, HttpConditions.gzipETag(etag), lastModified,
+                            null, src, GZIP, true);
+                return serveContent(session, mime_type, etag, lastModified, data, src, null, false);
+            } catch(IOException ioe) {
+                Log.error("Serving exception {}", ioe.toString());
+                return errorResponse(Response.Status.NOT_FOUND, ioe.toString());
+            }
+
+        }
+        return NanoHTTPD.newFixedLengthResponse(Response.Status.NOT_FOUND, "text/html", "Not found");
+    }
+
+    /**
+     * Sends {@code data}, or {@code file} if it is null, honouring the validators and a single byte range
+     * of the request. HEAD requests get the same headers without a body.
+     *
+     * @param encoding content encoding of the response, null for identity
+     * @param compress whether the content is to be compressed to {@code encoding} while it is sent,
+     *                 instead of already being encoded
+     */
+    private Response serveContent(IHTTPSession session, String mimeType, String etag, long lastModified,
+                                   byte[] data, File file, String encoding, boolean compress) throws IOException {
+        Map<String, String> headers = session.getHeaders();
+        if (data == null && !file.isFile())
+            throw new FileNotFoundException(file.getAbsolutePath());
+        long length = data != null ? data.length : file.length();
+
+        Response response;
+        if (!HttpConditions.isModified(headers.get("if-none-match"), headers.get("if-modified-since"),
+                etag, lastModified)) {
+            response = NanoHTTPD.newFixedLengthResponse(Response.Status.NOT_MODIFIED, mimeType, "");
+        } else if (compress) {
+            Log.warn("Serving compressed bytes: {}", length);
+            response = NanoHTTPD.newChunkedResponse(Response.Status.OK, mimeType,
+                    GzipCache.gzip(open(data, file, 0, length)));
+            response.addHeader("Content-Encoding", encoding);
+        } else {
+            long[] range = null;
+            if (HttpConditions.isRangeValid(headers.get("if-range"), etag, lastModified))
+                range = HttpConditions.parseRange(headers.get("range"), length);
+
+            if (range == HttpConditions.UNSATISFIABLE) {
+                response = NanoHTTPD.newFixedLengthResponse(Response.Status.RANGE_NOT_SATISFIABLE,
+                        NanoHTTPD.MIME_PLAINTEXT, "");
+                response.addHeader("Content-Range", "bytes */" + length);
+            } else if (range != null) {
+                long count = range[1] - range[0] + 1;
+                Log.warn("Serving bytes: {}-{}/{}", range[0], range[1], length);
+                response = NanoHTTPD.newFixedLengthResponse(Response.Status.PARTIAL_CONTENT, mimeType,
+                        open(data, file, range[0], count), count);
+                response.addHeader("Content-Range", "bytes " + range[0] + "-" + range[1] + "/" + length);
+            } else {
+                Log.warn("Serving bytes: {}", length);
+                response = NanoHTTPD.newFixedLengthResponse(Response.Status.OK, mimeType,
+                        open(data, file, 0, length), length);
+            }
+            response.addHeader("Accept-Ranges", "bytes");
+            if (encoding != null)
+                response.addHeader("Content-Encoding", encoding);
+        }
+        if (MIME_GPX.equals(mimeType))
+            response.addHeader("Vary", "Accept-Encoding");
+        if (etag != null)
+            response.addHeader("ETag", etag);
+        if (lastModified > 0)
+            response.addHeader("Last-Modified", HttpConditions.formatDate(lastModified));
+        return response;
+    }
+
+    /**
+     * NanoHTTPD compresses text and JSON on its own. Responses that are already encoded or have no body
+     * to compress are excluded.
+     */
+    @Override
+    protected boolean useGzipWhenAccepted(Response r) {
+        if (r.getHeader("content-encoding") != null || r.getStatus() == Response.Status.NOT_MODIFIED
+                || r.getStatus() == Response.Status.PARTIAL_CONTENT)
+            return false;
+        return super.useGzipWhenAccepted(r);
+    }
+
+    private InputStream open(byte[] data, File file, long offset, long count) throws IOException {
+        if (data != null)
+            return new ByteArrayInputStream(data, (int) offset, (int) count);
+        // Open file from SD Card
+        FileInputStream in = new FileInputStream(file);
+        if (offset > 0)
+            in.getChannel().position(offset);
+        return new MeteredInputStream(in, null, mIoTimer, null, 0);
+    }
+
+    /**
+     * Converts courses with {@code options} from now on. Conversions running meanwhile keep the options
+     * they started with.
+     */
+    public synchronized void setOptions(Gpx2FitOptions.Snapshot options) {
+        // conversions do not get older than this, so clients validating with If-Modified-Since pick up
+        // courses converted with the new options
+        if (!options.equals(mGpx2FitOptions))
+            mOptionsModified = System.currentTimeMillis();
+        mGpx2FitOptions = options;
+    }
+
+    public Gpx2FitOptions.Snapshot getOptions() {
+        return mGpx2FitOptions;
+    }
+
+    /**
+     * The track or route a request asks for with {@code track}, -1 for the whole file.
+     */
+    static int getTrack(Map<String, List<String>> parms) {
+        if (!parms.containsKey("track"))
+            return -1;
+        String value = parms.get("track").get(0);
+        try {
+            int track = Integer.parseInt(value);
+            if (track >= 0)
+                return track;
+        } catch (NumberFormatException ignored) {
+        }
+        throw new IllegalArgumentException("Invalid track " + value);
+    }
+
+    /**
+     * The current options with the overrides of the request applied: {@code speed} in km/h,
+     * {@code maxPoints} (0 keeps all points), and {@code forceSpeed}, {@code walkingGrade} and
+     * {@code inject} (course points) switched on by 1 and off by 0.
+     *
+     * @throws IllegalArgumentException if a value is invalid, answered with 400 Bad Request
+     */
+    static Gpx2FitOptions.Snapshot getOptions(Gpx2FitOptions.Snapshot options, Map<String, List<String>> parms) {
+        Gpx2FitOptions overridden = null;
+        for (String name : OPTION_PARAMETERS) {
+            if (!parms.containsKey(name))
+                continue;
+            String value = parms.get(name).get(0);
+            if (overridden == null)
+                overridden = new Gpx2FitOptions(options);
+            try {
+                switch (name) {
+                    case "speed":
+                        double speed = Double.parseDouble(value) / 3.6;
+                        if (!(speed > 0) || Double.isInfinite(speed))
+                            throw new IllegalArgumentException("Invalid speed " + value);
+                        overridden.setSpeed(speed);
+                        break;
+                    case "maxPoints":
+                        int maxPoints = Integer.parseInt(value);
+                        if (maxPoints < 0)
+                            throw new IllegalArgumentException("Invalid maxPoints " + value);
+                        overridden.setMaxPoints(maxPoints);
+                        break;
+                    case "forceSpeed":
+                        overridden.setForceSpeed(value.equals("1"));
+                        break;
+                    case "walkingGrade":
+                        overridden.setWalkingGrade(value.equals("1"));
+                        break;
+                    case "inject":
+                        overridden.setInjectCoursePoints(value.equals("1"));
+                        break;
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid " + name + " " + value);
+            }
+        }
+        return overridden != null ? overridden.snapshot() : options;
+    }
+
+    /**
+     * The options a source of {@code length} bytes is converted with. Sources too large to load are
+     * streamed, which always reduces points by distance, so their cache key must say so.
+     */
+    static Gpx2FitOptions.Snapshot getEffectiveOptions(Gpx2FitOptions.Snapshot options, long length) {
+        if (length <= STREAMING_THRESHOLD || options.getSimplification() == TrackSimplifier.Method.DISTANCE)
+            return options;
+        Gpx2FitOptions streamed = new Gpx2FitOptions(options);
+        streamed.setSimplification(TrackSimplifier.Method.DISTANCE);
+        return streamed.snapshot();
+    }
+
+    /**
+     * Result of a conversion, either in memory or, for very large sources, in the cache directory.
+     */
+    private static class Conversion {
+        final File file;
+        final byte[] data;
+        final String etag;
+
+        Conversion(File file, byte[] data, String etag) {
+            this.file = file;
+            this.data = data;
+            this.etag = etag;
+        }
+    }
+
+    /**
+     * Converts {@code src}, or only its track or route {@code course} if that is not null.
+     */
+    private Conversion convert(String key, final File src, final TrackIndex index, final TrackIndex.Entry course,
+                               String courseName, Gpx2FitOptions.Snapshot options) throws Exception {
+        Gpx2Fit.InputSource source = new Gpx2Fit.InputSource() {
+            @Override
+            public InputStream open() throws IOException {
+                return course != null ? index.open(src, course) : new FileInputStream(src);
+            }
+        };
+        long length = course != null ? index.getLength(course) : src.length();
+
+        if (length > STREAMING_THRESHOLD) {
+            File tmp = mConversionCache.newTempFile(key);
+            Log.warn("Generating {}", tmp.getAbsolutePath());
+            try {
+                record(Gpx2Fit.writeFitStreaming(courseName, source, src.lastModified(), tmp, options), true);
+                File fit = mConversionCache.commit(key, tmp);
+                return new Conversion(fit, null, null);
+            } finally {
+                //noinspection ResultOfMethodCallIgnored
+                tmp.delete();
+            }
+        }
+
+        Log.warn("Generating {}", courseName);
+        // the same source converted before, with other options
+        String trackKey = src.getAbsolutePath() + '#' + (course != null ? course.start : -1) + '@'
+                + src.lastModified() + ':' + courseName;
+        Gpx2Fit loader = mTracks.get(trackKey);
+        boolean parsed = loader == null;
+        if (parsed) {
+            loader = course != null ? new Gpx2Fit(courseName, source.open(), options)
+                    : new Gpx2Fit(courseName, src, options, mScanExecutor, SCAN_THREADS + 1);
+            loader.setTimeCreated(src.lastModified());
+        } else {
+            mTrackCacheHits.increment();
+        }
+        byte[] data = loader.writeFit(options);
+        if (parsed)
+            mTracks.put(trackKey, loader);
+        record(loader, parsed);
+        String etag = HttpConditions.etag(data);
+        if (mPersistentCache)
+            writeBehind(key, data, etag);
+        return new Conversion(null, data, etag);
+    }
+
+    /**
+     * Reads a small file of the conversion cache to keep it in memory, null if it was evicted meanwhile.
+     */
+    private static byte[] readCached(File fit) {
+        try {
+            RandomAccessFile raf = new RandomAccessFile(fit, "r");
+            try {
+                byte[] data = new byte[(int) raf.length()];
+                raf.readFully(data);
+                return data;
+            } finally {
+                raf.close();
+            }
+        } catch (IOException e) {
+            Log.warn("Reading {} failed: {}", fit, e.toString());
+            return null;
+        }
+    }
+
+    /**
+     * Releases memory when the system runs low on it: keeps at most {@code keep} of the FIT files served
+     * from memory, and drops the parsed tracks if {@code keep} is 0. Both fill up again on demand.
+     */
+    public void trimMemory(double keep) {
+        mHotCache.trim(keep);
+        if (keep <= 0)
+            mTracks.clear();
+        Log.info("Trimmed memory, {} bytes of FIT files kept", mHotCache.getWeight());
+    }
+
+    private void record(Gpx2Fit conversion, boolean parsed) {
+        if (parsed)
+            mParseTimer.record(conversion.getParseNanos());
+        mStatisticsTimer.record(conversion.getStatisticsNanos());
+        mEncodeTimer.record(conversion.getEncodeNanos());
+        mPoints.record(conversion.getPointCount());
+    }
+
+    /**
+     * Indexes the tracks of {@code gpx} and converts it with the current options into the cache, unless
+     * it is cached already. Files with several tracks or routes are converted per track, as they are
+     * listed. Courses are named like requests without {@code longname} name them. A request arriving
+     * meanwhile waits for this conversion instead of starting its own.
+     */
+    private boolean preconvert(File gpx) throws Exception {
+        boolean indexed = mTrackIndexes.peek(gpx) != null;
+        TrackIndex index = mTrackIndexes.get(gpx);
+        boolean multiTrack = index.getCourseCount() > 1;
+        // the listing shows the tracks once they are known
+        if (!indexed && multiTrack)
+            mCatalog.refresh();
+        if (!mPersistentCache)
+            return false;
+
+        boolean converted = false;
+        if (multiTrack) {
+            List<TrackIndex.Entry> courses = index.getCourses();
+            for (int n = 0; n < courses.size(); n++) {
+                if (courses.get(n).points > 0) {
+                    String courseName = getCourseName(getTrackTitle(gpx.getName(), courses.get(n), n));
+                    converted |= preconvert(gpx, index, courses.get(n), n, courseName);
+                }
+            }
+        } else {
+            converted = preconvert(gpx, null, null, -1, getCourseName(gpx.getName()));
+        }
+        if (converted)
+            Log.info("Pre-converted {}", gpx.getName());
+        return converted;
+    }
+
+    private boolean preconvert(final File gpx, final TrackIndex index, final TrackIndex.Entry course, int track,
+                               final String courseName) throws Exception {
+        final Gpx2FitOptions.Snapshot options = getEffectiveOptions(mGpx2FitOptions,
+                course != null ? index.getLength(course) : gpx.length());
+        final String key = mConversionCache.getKey(gpx, track, courseName, options);
+        if (mConversionCache.contains(key))
+            return false;
+        mConversions.execute(key, new Callable<Conversion>() {
+            @Override
+            public Conversion call() throws Exception {
+                return convert(key, gpx, index, course, courseName, options);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Stores a FIT file generated in memory in the conversion cache, without delaying the response.
+     */
+    private void writeBehind(final String key, final byte[] data, final String etag) {
+        mWriteBehindExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    long started = System.nanoTime();
+                    mConversionCache.put(key, data, etag);
+                    mIoTimer.record(System.nanoTime() - started);
+                } catch (IOException e) {
+                    Log.error("Caching {} failed: {}", key, e.toString());
+                }
+            }
+        });
+    }
+
+    @Override
+    public void start(int timeout, boolean daemon) throws IOException {
+        super.start(timeout, daemon);
+        mCatalog.start(CATALOG_RESCAN_SECONDS);
+        // the initial scan queues the existing files for pre-conversion
+        mCatalog.rescan();
+    }
+
+    @Override
+    public void stop() {
+        super.stop();
+        mCatalog.stop();
+        mPreConverter.shutdown();
+        mWriteBehindExecutor.shutdown();
+        mConversionExecutor.shutdown();
+        mScanExecutor.shutdown();
+        mConversionCache.flush();
+        mGzipCache.flush();
+    }
+
+    private Response getDir(IHTTPSession session, boolean doGPXonly, boolean doShort, boolean doLongname) {
+        DirectoryCatalog.Listing listing = mCatalog.getListing(doGPXonly, doShort, doLongname, getListeningPort());
+
+        if (listing == null) {
+            return NanoHTTPD.newFixedLengthResponse(Response.Status.NOT_FOUND, MIME_JSON, "{ \"error\" : \"No permission or no files\" } ");
+        }
+
+        boolean gzip = HttpConditions.acceptsGzip(session.getHeaders().get("accept-encoding"));
+        byte[] json = gzip ? listing.gzip : listing.json;
+        String etag = gzip ? listing.gzipETag : listing.etag;
+
+        Response response;
+        if (HttpConditions.matchesAny(session.getHeaders().get("if-none-match"), etag)) {
+            response = NanoHTTPD.newFixedLengthResponse(Response.Status.NOT_MODIFIED, MIME_JSON, "");
+        } else {
+            response = NanoHTTPD.newFixedLengthResponse(Response.Status.OK, MIME_JSON,
+                    new ByteArrayInputStream(json), json.length);
+            if (gzip)
+                response.addHeader("Content-Encoding", GZIP);
+        }
+        response.addHeader("Vary", "Accept-Encoding");
+        response.addHeader("ETag", etag);
+        return response;
+    }
+
+    private Response overloadResponse() {
+        Response response = NanoHTTPD.newFixedLengthResponse(Response.Status.SERVICE_UNAVAILABLE, MIME_JSON,
+                "{ \"error\" : \"Too many conversions, try again later\" } ");
+        response.addHeader("Retry-After", Long.toString(mConversionExecutor.getRetryAfterSeconds()));
+        return response;
+    }
+
+    private static Response errorResponse(Response.Status status, String message) {
+        StringBuilder json = new StringBuilder("{ \"error\" : \"");
+        DirectoryCatalog.appendEscaped(json, message);
+        json.append("\" } ");
+        return NanoHTTPD.newFixedLengthResponse(status, MIME_JSON, json.toString());
+    }
+
+    /**
+     * Title of track or route {@code n} of a file with several of them: its name, if it has one.
+     */
+    public static String getTrackTitle(String fileName, TrackIndex.Entry course, int n) {
+        if (course.name != null && !course.name.isEmpty())
+            return course.name;
+        return getCourseName(fileName) + " " + (n + 1);
+    }
+
+    public static String getCourseName(String courseName) {
+        if (courseName.endsWith(".fit") || courseName.endsWith(".FIT")
+                || courseName.endsWith(".gpx") || courseName.endsWith(".GPX")  ) {
+            courseName = courseName.substring(0, courseName.length()-4);
+        }
+
+        if (courseName.getBytes().length > 15) {
+            courseName = courseName.substring(0, 15);
+            while (courseName.getBytes().length > 15)
+                courseName = courseName.substring(0, courseName.length()-1);
+        }
+        return courseName;
+    }
+}
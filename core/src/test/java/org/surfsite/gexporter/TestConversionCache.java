@@ -0,0 +1,198 @@
+package org.surfsite.gexporter;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestConversionCache {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testPersistent() throws IOException {
+        File dir = folder.newFolder();
+        ConversionCache cache = new ConversionCache(dir);
+        File fit = cache.put("a", data(100, 1), "\"a\"");
+        assertEquals(fit, cache.get("a"));
+
+        File tmp = cache.newTempFile("b");
+        write(tmp, data(200, 2));
+        File streamed = cache.commit("b", tmp);
+        assertFalse(tmp.exists());
+        assertEquals("\"" + Digests.sha1Hex(data(200, 2)) + "\"", cache.getETag("b"));
+
+        // a restart finds both, the unjournaled file and the temporary file of a crash are deleted
+        File orphan = new File(dir, "c.fit");
+        write(orphan, data(10, 3));
+        File crashed = cache.newTempFile("d");
+        write(crashed, data(10, 4));
+        File other = new File(dir, "e.idx");
+        write(other, data(10, 5));
+
+        cache = new ConversionCache(dir);
+        assertEquals(2, cache.size());
+        assertEquals(300, cache.getSize());
+        assertEquals(fit, cache.get("a"));
+        assertEquals(streamed, cache.get("b"));
+        assertEquals("\"a\"", cache.getETag("a"));
+        assertNull(cache.get("c"));
+        assertFalse(orphan.exists());
+        assertFalse(crashed.exists());
+        assertTrue(other.exists());
+    }
+
+    @Test
+    public void testEviction() throws IOException {
+        File dir = folder.newFolder();
+        ConversionCache cache = new ConversionCache(dir, 250);
+        cache.put("a", data(100, 1), null);
+        cache.put("b", data(100, 2), null);
+        assertNotNull(cache.get("a"));
+        cache.put("c", data(100, 3), null);
+
+        // b was used least recently
+        assertNull(cache.get("b"));
+        assertFalse(new File(dir, "b.fit").exists());
+        assertNotNull(cache.get("a"));
+        assertNotNull(cache.get("c"));
+        assertEquals(200, cache.getSize());
+        assertEquals(1, cache.getEvictions());
+
+        // the order of use survives a restart
+        assertNotNull(cache.get("a"));
+        cache.flush();
+        cache = new ConversionCache(dir, 250);
+        cache.put("d", data(100, 4), null);
+        assertNull(cache.get("c"));
+        assertNotNull(cache.get("a"));
+
+        // the most recently used file is kept even if it is larger than the cache
+        cache.setMaxBytes(50);
+        assertEquals(1, cache.size());
+        assertNotNull(cache.get("a"));
+    }
+
+    @Test
+    public void testVerification() throws IOException {
+        File dir = folder.newFolder();
+        ConversionCache cache = new ConversionCache(dir);
+        File a = cache.put("a", data(100, 1), null);
+        File b = cache.put("b", data(100, 2), null);
+        cache.put("c", data(100, 3), null);
+
+        // changed with the same length, truncated, and a journal line cut short by a crash
+        RandomAccessFile raf = new RandomAccessFile(a, "rw");
+        raf.seek(50);
+        raf.write(0x55);
+        raf.close();
+        raf = new RandomAccessFile(b, "rw");
+        raf.setLength(60);
+        raf.close();
+        FileOutputStream journal = new FileOutputStream(new File(dir, ConversionCache.JOURNAL), true);
+        journal.write("PUT d 100".getBytes("UTF-8"));
+        journal.close();
+
+        cache = new ConversionCache(dir);
+        assertEquals(2, cache.size());
+        assertNull(cache.get("a"));
+        assertFalse(a.exists());
+        assertNull(cache.get("b"));
+        assertNull(cache.get("d"));
+        assertNotNull(cache.get("c"));
+        assertEquals(100, cache.getSize());
+    }
+
+    @Test
+    public void testCompaction() throws IOException {
+        File dir = folder.newFolder();
+        ConversionCache cache = new ConversionCache(dir);
+        cache.put("a", data(10, 1), null);
+        for (int i = 0; i < 5000; i++)
+            cache.get("a");
+        cache.flush();
+        assertTrue(new File(dir, ConversionCache.JOURNAL).length() < 2001 * "READ a\n".length());
+        assertNotNull(new ConversionCache(dir).get("a"));
+    }
+
+    @Test
+    public void testKey() throws IOException {
+        ConversionCache cache = new ConversionCache(folder.newFolder());
+        Gpx2FitOptions.Snapshot options = new Gpx2FitOptions().snapshot();
+        byte[] gpx = data(10000, 1);
+        File src = new File(folder.newFolder(), "course.gpx");
+        write(src, gpx);
+        String key = cache.getKey(src, "course", options);
+
+        // a shared file copied again, to another directory and with a fresh mtime
+        File copy = new File(folder.newFolder(), "course.gpx");
+        write(copy, gpx);
+        assertTrue(copy.setLastModified(src.lastModified() + 60000));
+        assertEquals(key, cache.getKey(copy, "course", options));
+
+        assertNotEquals(key, cache.getKey(src, 0, "course", options));
+        assertNotEquals(key, cache.getKey(src, "other", options));
+        Gpx2FitOptions faster = new Gpx2FitOptions();
+        faster.setSpeed(faster.getSpeed() * 2);
+        assertNotEquals(key, cache.getKey(src, "course", faster.snapshot()));
+
+        // an edit in the middle that keeps the length
+        gpx[gpx.length / 2] = 2;
+        write(copy, gpx);
+        assertTrue(copy.setLastModified(src.lastModified() + 120000));
+        assertNotEquals(key, cache.getKey(copy, "course", options));
+        gpx[gpx.length / 2] = 1;
+
+        gpx[gpx.length - 1] = 2;
+        write(copy, gpx);
+        assertTrue(copy.setLastModified(src.lastModified() + 180000));
+        assertNotEquals(key, cache.getKey(copy, "course", options));
+        write(copy, Arrays.copyOf(gpx, gpx.length + 1));
+        assertNotEquals(key, cache.getKey(copy, "course", options));
+    }
+
+    @Test
+    public void testKeyWithoutRead() throws IOException {
+        ConversionCache cache = new ConversionCache(folder.newFolder());
+        Gpx2FitOptions.Snapshot options = new Gpx2FitOptions().snapshot();
+        File src = new File(folder.newFolder(), "course.gpx");
+        write(src, data(10000, 1));
+        long modified = src.lastModified();
+        String key = cache.getKey(src, "course", options);
+
+        // rewritten with the same size and mtime, the remembered hash is used without reading it
+        write(src, data(10000, 2));
+        assertTrue(src.setLastModified(modified));
+        assertEquals(key, cache.getKey(src, "course", options));
+
+        assertTrue(src.setLastModified(modified + 60000));
+        assertNotEquals(key, cache.getKey(src, "course", options));
+    }
+
+    private static byte[] data(int length, int value) {
+        byte[] data = new byte[length];
+        Arrays.fill(data, (byte) value);
+        return data;
+    }
+
+    private static void write(File file, byte[] data) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+    }
+}
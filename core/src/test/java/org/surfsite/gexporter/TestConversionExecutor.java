@@ -0,0 +1,70 @@
+package org.surfsite.gexporter;
+
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestConversionExecutor {
+
+    @Test
+    public void testBackpressure() throws Exception {
+        final ConversionExecutor conversionExecutor = new ConversionExecutor(1, 1);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Callable<String> blocking = new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                started.countDown();
+                release.await();
+                return "done";
+            }
+        };
+
+        ExecutorService requests = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> running = requests.submit(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    return conversionExecutor.execute(blocking);
+                }
+            });
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+
+            Future<String> queued = requests.submit(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    return conversionExecutor.execute(blocking);
+                }
+            });
+            while (conversionExecutor.getQueueDepth() < 1)
+                Thread.sleep(1);
+
+            try {
+                conversionExecutor.execute(blocking);
+                fail();
+            } catch (RejectedExecutionException e) {
+                assertEquals(1, conversionExecutor.getRejected());
+                assertTrue(conversionExecutor.getRetryAfterSeconds() >= 1);
+            }
+
+            release.countDown();
+            assertEquals("done", running.get());
+            assertEquals("done", queued.get());
+            assertEquals(2, conversionExecutor.getCompleted());
+            assertEquals(0, conversionExecutor.getQueueDepth());
+        } finally {
+            requests.shutdown();
+            conversionExecutor.shutdown();
+        }
+    }
+}
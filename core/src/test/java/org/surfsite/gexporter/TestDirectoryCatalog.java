@@ -0,0 +1,95 @@
+package org.surfsite.gexporter;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TestDirectoryCatalog {
+
+    @Test
+    public void testListing() throws IOException {
+        File dir = createDir();
+        touch(new File(dir, "b track.gpx"));
+        touch(new File(dir, "a.fit"));
+        touch(new File(dir, "notes.txt"));
+
+        DirectoryCatalog catalog = new DirectoryCatalog(dir);
+        assertArrayEquals(new String[]{"a.fit", "b track.gpx"}, catalog.getFiles());
+
+        DirectoryCatalog.Listing all = catalog.getListing(false, true, true, 22222);
+        assertEquals("{ \"tracks\" : [{ \"title\": \"a.fit\", \"url\": \"a.fit\"  },\n"
+                + "{ \"title\": \"b track.gpx\", \"url\": \"b+track.gpx\"  }]}", new String(all.json, "UTF-8"));
+        DirectoryCatalog.Listing gpx = catalog.getListing(true, false, false, 22222);
+        assertEquals("{ \"tracks\" : [{ \"title\": \"b track\", \"url\": \"http://127.0.0.1:22222/b+track.gpx\"  }]}",
+                new String(gpx.json, "UTF-8"));
+
+        // rendered once until something changes
+        assertSame(all, catalog.getListing(false, true, true, 22222));
+
+        final List<File> notified = new ArrayList<>();
+        catalog.setListener(new DirectoryCatalog.Listener() {
+            @Override
+            public void coursesChanged(File... files) {
+                notified.addAll(Arrays.asList(files));
+            }
+        });
+        touch(new File(dir, "c.GPX"));
+        // listed once created, but only converted once written completely
+        catalog.fileChanged("c.GPX", false);
+        assertEquals(3, catalog.getFiles().length);
+        assertTrue(notified.isEmpty());
+        catalog.fileChanged("c.GPX", true);
+        assertEquals(Collections.singletonList(new File(dir, "c.GPX")), notified);
+        DirectoryCatalog.Listing changed = catalog.getListing(false, true, true, 22222);
+        assertNotEquals(all.etag, changed.etag);
+        assertEquals(3, catalog.getFiles().length);
+
+        // a missed notification is picked up by the rescan
+        //noinspection ResultOfMethodCallIgnored
+        new File(dir, "a.fit").delete();
+        catalog.rescan();
+        assertArrayEquals(new String[]{"b track.gpx", "c.GPX"}, catalog.getFiles());
+
+        // an unchanged rescan keeps the rendered listing
+        DirectoryCatalog.Listing current = catalog.getListing(false, true, true, 22222);
+        catalog.rescan();
+        assertSame(current, catalog.getListing(false, true, true, 22222));
+    }
+
+    @Test
+    public void testEmptyAndMissing() throws IOException {
+        File dir = createDir();
+        DirectoryCatalog catalog = new DirectoryCatalog(dir);
+        assertEquals("{ \"tracks\" : []}", new String(catalog.getListing(false, true, false, 0).json, "UTF-8"));
+
+        assertNull(new DirectoryCatalog(new File(dir, "missing")).getListing(false, true, false, 0));
+    }
+
+    private static File createDir() throws IOException {
+        File dir = File.createTempFile("catalog", "");
+        //noinspection ResultOfMethodCallIgnored
+        dir.delete();
+        //noinspection ResultOfMethodCallIgnored
+        dir.mkdir();
+        dir.deleteOnExit();
+        return dir;
+    }
+
+    private static void touch(File file) throws IOException {
+        new FileOutputStream(file).close();
+        file.deleteOnExit();
+    }
+}
@@ -0,0 +1,105 @@
+package org.surfsite.gexporter;
+
+import org.gavaghan.geodesy.Ellipsoid;
+import org.gavaghan.geodesy.GeodeticCalculator;
+import org.gavaghan.geodesy.GlobalCoordinates;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestDistance {
+
+    @Test
+    public void testAgainstGeodesy() {
+        GeodeticCalculator geoCalc = new GeodeticCalculator();
+        Random random = new Random(4711);
+        for (int i = 0; i < 10000; i++) {
+            double lat1 = random.nextDouble() * 170.0 - 85.0;
+            double lon1 = random.nextDouble() * 360.0 - 180.0;
+            double scale = (i % 2 == 0) ? 0.001 : 1.0;
+            double lat2 = lat1 + (random.nextDouble() - 0.5) * scale;
+            double lon2 = lon1 + (random.nextDouble() - 0.5) * scale;
+
+            double expected = geoCalc.calculateGeodeticCurve(Ellipsoid.WGS84,
+                    new GlobalCoordinates(lat1, lon1),
+                    new GlobalCoordinates(lat2, lon2)).getEllipsoidalDistance();
+
+            assertEquals(expected, DistanceCalculator.vincenty(lat1, lon1, lat2, lon2), 1e-4);
+            assertEquals(expected, DistanceCalculator.andoyer(lat1, lon1, lat2, lon2), expected * 1e-5 + 1e-3);
+        }
+    }
+
+    @Test
+    public void test3D() {
+        assertEquals(5.0, DistanceCalculator.distance3D(3.0, 104.0, 100.0), 0.0);
+        assertEquals(3.0, DistanceCalculator.distance3D(3.0, Double.NaN, 100.0), 0.0);
+    }
+
+    @Test
+    public void testConcurrentConversions() throws Exception {
+        testConcurrentConversions(DistanceCalculator.Mode.VINCENTY);
+        testConcurrentConversions(DistanceCalculator.Mode.ANDOYER);
+    }
+
+    private void testConcurrentConversions(DistanceCalculator.Mode mode) throws Exception {
+        final String[] samples = { "sample10.gpx", "sample11.gpx", "sample11-route.gpx", "sample2.gpx" };
+        Gpx2FitOptions modeOptions = new Gpx2FitOptions();
+        modeOptions.setDistanceMode(mode);
+        final Gpx2FitOptions.Snapshot options = modeOptions.snapshot();
+
+        final List<double[]> expected = new ArrayList<>();
+        for (String sample : samples)
+            expected.add(convert(sample, options));
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<double[]>> results = new ArrayList<>();
+            for (int i = 0; i < 64; i++) {
+                final String sample = samples[i % samples.length];
+                results.add(executor.submit(new Callable<double[]>() {
+                    @Override
+                    public double[] call() throws Exception {
+                        return convert(sample, options);
+                    }
+                }));
+            }
+            for (int i = 0; i < results.size(); i++) {
+                assertArrayEquals(expected.get(i % samples.length), results.get(i).get(), 0.0);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private double[] convert(String filename, Gpx2FitOptions.Snapshot options) throws Exception {
+        URL resource = getClass().getClassLoader().getResource(filename);
+        assertTrue(resource != null);
+        Gpx2Fit loader = new Gpx2Fit(WebServer.getCourseName(filename),
+                new FileInputStream(new File(resource.getFile())), options);
+        File out = File.createTempFile("gexporter", ".fit");
+        try {
+            loader.writeFit(out);
+        } finally {
+            //noinspection ResultOfMethodCallIgnored
+            out.delete();
+        }
+        List<WayPoint> wpts = loader.getWaypoints();
+        double[] dist = new double[wpts.size()];
+        for (int i = 0; i < dist.length; i++)
+            dist[i] = wpts.get(i).getTotaldist();
+        return dist;
+    }
+}
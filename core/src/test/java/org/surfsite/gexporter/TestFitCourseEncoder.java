@@ -0,0 +1,319 @@
+package org.surfsite.gexporter;
+
+import com.garmin.fit.BufferEncoder;
+import com.garmin.fit.CourseMesg;
+import com.garmin.fit.CoursePoint;
+import com.garmin.fit.CoursePointMesg;
+import com.garmin.fit.DateTime;
+import com.garmin.fit.Decode;
+import com.garmin.fit.Event;
+import com.garmin.fit.EventMesg;
+import com.garmin.fit.EventType;
+import com.garmin.fit.Field;
+import com.garmin.fit.FileIdMesg;
+import com.garmin.fit.Fit;
+import com.garmin.fit.LapMesg;
+import com.garmin.fit.Manufacturer;
+import com.garmin.fit.Mesg;
+import com.garmin.fit.MesgListener;
+import com.garmin.fit.MesgNum;
+import com.garmin.fit.Profile;
+import com.garmin.fit.RecordMesg;
+import com.garmin.fit.Sport;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestFitCourseEncoder {
+    private static final String[] SAMPLES = { "sample10.gpx", "sample11.gpx", "sample11-2.gpx", "sample11-3.gpx",
+            "sample11-route.gpx", "sample2.gpx" };
+
+    @Test
+    public void testSameBytesAsSdk() throws Exception {
+        for (String sample : SAMPLES) {
+            for (Gpx2FitOptions.Snapshot options : options()) {
+                Gpx2Fit gpx2Fit = new Gpx2Fit(WebServer.getCourseName(sample), new FileInputStream(file(sample)),
+                        options);
+                byte[] encoded = gpx2Fit.writeFit();
+
+                SdkCourseEncoder sdk = new SdkCourseEncoder();
+                gpx2Fit.writeFit(sdk);
+                sdk.close();
+                assertArrayEquals(sample, sdk.toByteArray(), encoded);
+            }
+        }
+    }
+
+    @Test
+    public void testDecode() throws Exception {
+        for (String sample : SAMPLES) {
+            Gpx2FitOptions options = new Gpx2FitOptions();
+            options.setInjectCoursePoints(true);
+            Gpx2Fit gpx2Fit = new Gpx2Fit(WebServer.getCourseName(sample), new FileInputStream(file(sample)),
+                    options.snapshot());
+            byte[] encoded = gpx2Fit.writeFit();
+
+            assertTrue(sample, new Decode().checkFileIntegrity(new ByteArrayInputStream(encoded)));
+            final List<Mesg> mesgs = new ArrayList<>();
+            new Decode().read(new ByteArrayInputStream(encoded), new MesgListener() {
+                @Override
+                public void onMesg(Mesg mesg) {
+                    mesgs.add(mesg);
+                }
+            });
+
+            assertEquals(MesgNum.FILE_ID, mesgs.get(0).getNum());
+            // the file number fits the uint16 field, an invalid value would decode as null
+            Integer number = new FileIdMesg(mesgs.get(0)).getNumber();
+            assertNotNull(sample, number);
+            assertTrue(sample, number >= 0 && number < 0xFFFF);
+            assertEquals(gpx2Fit.getName(), new CourseMesg(mesgs.get(1)).getName());
+            Track track = gpx2Fit.getTrack();
+            LapMesg lap = new LapMesg(mesgs.get(2));
+            assertEquals(track.getDist(track.size() - 1), lap.getTotalDistance(), 0.01);
+            assertEquals(WayPoint.toSemiCircles(track.getLat(0)), (int) lap.getStartPositionLat());
+
+            RecordMesg first = null;
+            int coursePoints = 0;
+            for (Mesg mesg : mesgs) {
+                if (mesg.getNum() == MesgNum.RECORD && first == null)
+                    first = new RecordMesg(mesg);
+                if (mesg.getNum() == MesgNum.COURSE_POINT)
+                    coursePoints++;
+            }
+            if (first == null) throw new AssertionError();
+            assertEquals(WayPoint.toSemiCircles(track.getLat(0)), (int) first.getPositionLat());
+            assertEquals(WayPoint.toSemiCircles(track.getLon(0)), (int) first.getPositionLong());
+            assertEquals(0.0, first.getDistance(), 0.0);
+            assertTrue(coursePoints >= 2);
+            assertEquals(MesgNum.EVENT, mesgs.get(mesgs.size() - 1).getNum());
+        }
+    }
+
+    @Test
+    public void testHeaderAndCrc() throws Exception {
+        for (String sample : SAMPLES) {
+            Gpx2FitOptions options = new Gpx2FitOptions();
+            options.setInjectCoursePoints(true);
+            options.setSimplification(TrackSimplifier.Method.DISTANCE);
+            File src = file(sample);
+            Gpx2Fit gpx2Fit = new Gpx2Fit(WebServer.getCourseName(sample), new FileInputStream(src),
+                    options.snapshot());
+            gpx2Fit.setTimeCreated(src.lastModified());
+            byte[] encoded = gpx2Fit.writeFit();
+
+            assertEquals(14, encoded[0]);
+            assertEquals(0x20, encoded[1]);
+            long dataSize = (encoded[4] & 0xFF) | (encoded[5] & 0xFF) << 8 | (encoded[6] & 0xFF) << 16
+                    | (long) (encoded[7] & 0xFF) << 24;
+            assertEquals(encoded.length - 16, dataSize);
+            // a CRC over data followed by its CRC is 0
+            assertEquals(0, FitCourseEncoder.crc(0, encoded, 0, 14));
+            assertEquals(0, FitCourseEncoder.crc(0, encoded, 0, encoded.length));
+
+            // the file encoder writes the header last, with the same CRC
+            File fit = File.createTempFile("streaming", ".fit");
+            try {
+                Gpx2Fit.writeFitStreaming(WebServer.getCourseName(sample), src, fit, options.snapshot());
+                assertArrayEquals(sample, encoded, readFile(fit));
+            } finally {
+                //noinspection ResultOfMethodCallIgnored
+                fit.delete();
+            }
+        }
+    }
+
+    @Test
+    public void testOutOfRange() throws Exception {
+        // header, definition of 6 fields, record header, manufacturer, type, product and serial number
+        int numberOffset = 14 + 6 + 3 * 6 + 1 + 2 + 1 + 2 + 4;
+        assertEquals(0x1234, fileIdNumber(0x1234, numberOffset));
+        // like the SDK, what a uint16 cannot hold is written as invalid instead of its low bits
+        assertEquals(0xFFFF, fileIdNumber(0x12345, numberOffset));
+        assertEquals(0xFFFF, fileIdNumber(-2, numberOffset));
+    }
+
+    private static int fileIdNumber(int number, int offset) throws IOException {
+        FitCourseEncoder encoder = new FitCourseEncoder();
+        encoder.writeFileId(FitCourseEncoder.MANUFACTURER_DYNASTREAM, FitCourseEncoder.FILE_COURSE, 12345, 12345L,
+                number, 0);
+        encoder.close();
+        byte[] encoded = encoder.toByteArray();
+        return (encoded[offset] & 0xFF) << 8 | (encoded[offset + 1] & 0xFF);
+    }
+
+    private List<Gpx2FitOptions.Snapshot> options() {
+        List<Gpx2FitOptions.Snapshot> options = new ArrayList<>();
+        options.add(new Gpx2FitOptions().snapshot());
+
+        Gpx2FitOptions coursePoints = new Gpx2FitOptions();
+        coursePoints.setInjectCoursePoints(true);
+        coursePoints.setMaxPoints(0);
+        options.add(coursePoints.snapshot());
+
+        Gpx2FitOptions forced = new Gpx2FitOptions();
+        forced.setSpeed(1000.0 / (13.0 * 60.0));
+        forced.setForceSpeed(true);
+        forced.setWalkingGrade(true);
+        forced.setInjectCoursePoints(true);
+        forced.setMinCoursePointDistance(100.0);
+        forced.setSimplification(TrackSimplifier.Method.DISTANCE);
+        options.add(forced.snapshot());
+        return options;
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        byte[] bytes = new byte[(int) file.length()];
+        FileInputStream in = new FileInputStream(file);
+        try {
+            int n = 0;
+            while (n < bytes.length) {
+                int r = in.read(bytes, n, bytes.length - n);
+                if (r < 0)
+                    throw new IOException("Short read of " + file);
+                n += r;
+            }
+        } finally {
+            in.close();
+        }
+        return bytes;
+    }
+
+    private File file(String name) {
+        URL resource = getClass().getClassLoader().getResource(name);
+        if (resource == null) throw new AssertionError();
+        return new File(resource.getFile());
+    }
+
+    /**
+     * Builds the messages with the SDK, the way {@link Gpx2Fit} did before {@link FitCourseEncoder}.
+     */
+    private static class SdkCourseEncoder extends FitCourseEncoder {
+        private final BufferEncoder mEncoder = new BufferEncoder(Fit.ProtocolVersion.V2_0);
+        private final CoursePointMesg mCoursePoint = new CoursePointMesg();
+        private final RecordMesg mRecord = new RecordMesg();
+        private byte[] mBytes;
+
+        @Override
+        void writeFileId(int manufacturer, int type, int product, long serialNumber, int number, long timeCreated) {
+            FileIdMesg fileIdMesg = new FileIdMesg();
+            fileIdMesg.setManufacturer(Manufacturer.DYNASTREAM);
+            fileIdMesg.setType(com.garmin.fit.File.COURSE);
+            fileIdMesg.setProduct(product);
+            fileIdMesg.setSerialNumber(serialNumber);
+            fileIdMesg.setNumber(number);
+            fileIdMesg.setTimeCreated(new DateTime(new Date(timeCreated)));
+            mEncoder.write(fileIdMesg);
+        }
+
+        @Override
+        void writeCourse(String name, int sport) {
+            CourseMesg courseMesg = new CourseMesg();
+            courseMesg.setLocalNum(0);
+            courseMesg.setName(name);
+            courseMesg.setSport(Sport.GENERIC);
+            mEncoder.write(courseMesg);
+        }
+
+        @Override
+        void writeLap(Lap lap) {
+            LapMesg lapMesg = new LapMesg();
+            lapMesg.setLocalNum(0);
+            lapMesg.setTimestamp(new DateTime(new Date(lap.startTime)));
+            lapMesg.setStartTime(new DateTime(new Date(lap.startTime)));
+            lapMesg.setStartPositionLat(lap.startLat);
+            lapMesg.setStartPositionLong(lap.startLon);
+            lapMesg.setEndPositionLat(lap.endLat);
+            lapMesg.setEndPositionLong(lap.endLon);
+            lapMesg.setTotalTimerTime(lap.totalTimerTime);
+            lapMesg.setTotalDistance(lap.totalDistance);
+            lapMesg.setAvgSpeed(lap.avgSpeed);
+            lapMesg.setTotalElapsedTime(lap.totalElapsedTime);
+            if (lap.totalAscent != NO_VALUE)
+                lapMesg.setTotalAscent(lap.totalAscent);
+            if (lap.totalDescent != NO_VALUE)
+                lapMesg.setTotalDescent(lap.totalDescent);
+            if (!Float.isNaN(lap.maxAltitude))
+                lapMesg.setMaxAltitude(lap.maxAltitude);
+            if (!Float.isNaN(lap.minAltitude))
+                lapMesg.setMinAltitude(lap.minAltitude);
+            try {
+                Constructor<Field> c = Field.class.getDeclaredConstructor(String.class, int.class, int.class,
+                        double.class, double.class, String.class, boolean.class, Profile.Type.class);
+                c.setAccessible(true);
+                lapMesg.addField(c.newInstance("bound_max_position_lat", 27, 133, 1.0D, 0.0D, "semicircles", false, Profile.Type.SINT32));
+                lapMesg.addField(c.newInstance("bound_max_position_long", 28, 133, 1.0D, 0.0D, "semicircles", false, Profile.Type.SINT32));
+                lapMesg.addField(c.newInstance("bound_min_position_lat", 29, 133, 1.0D, 0.0D, "semicircles", false, Profile.Type.SINT32));
+                lapMesg.addField(c.newInstance("bound_min_position_long", 30, 133, 1.0D, 0.0D, "semicircles", false, Profile.Type.SINT32));
+            } catch (ReflectiveOperationException e) {
+                throw new AssertionError(e);
+            }
+            lapMesg.setFieldValue(27, 0, lap.boundMaxLat, '\uffff');
+            lapMesg.setFieldValue(28, 0, lap.boundMaxLon, '\uffff');
+            lapMesg.setFieldValue(29, 0, lap.boundMinLat, '\uffff');
+            lapMesg.setFieldValue(30, 0, lap.boundMinLon, '\uffff');
+            mEncoder.write(lapMesg);
+        }
+
+        @Override
+        void writeEvent(int event, int eventType, int eventGroup, long timestamp) {
+            EventMesg eventMesg = new EventMesg();
+            eventMesg.setLocalNum(0);
+            eventMesg.setEvent(Event.TIMER);
+            eventMesg.setEventType(eventType == EVENT_TYPE_START ? EventType.START : EventType.STOP_DISABLE_ALL);
+            eventMesg.setEventGroup((short) eventGroup);
+            eventMesg.setTimestamp(new DateTime(new Date(timestamp)));
+            mEncoder.write(eventMesg);
+        }
+
+        @Override
+        void writeCoursePoint(int lat, int lon, String name, int type, float distance, long timestamp) {
+            // like the previous writer, the first point sets the field order
+            mCoursePoint.setLocalNum(0);
+            mCoursePoint.setPositionLat(lat);
+            mCoursePoint.setPositionLong(lon);
+            mCoursePoint.setName(name);
+            mCoursePoint.setType(CoursePoint.GENERIC);
+            mCoursePoint.setDistance(distance);
+            mCoursePoint.setTimestamp(new DateTime(new Date(timestamp)));
+            mEncoder.write(mCoursePoint);
+        }
+
+        @Override
+        void writeRecord(int lat, int lon, float distance, long timestamp, float altitude, float speed) {
+            mRecord.setLocalNum(0);
+            mRecord.setPositionLat(lat);
+            mRecord.setPositionLong(lon);
+            mRecord.setDistance(distance);
+            mRecord.setTimestamp(new DateTime(new Date(timestamp)));
+            if (!Float.isNaN(altitude))
+                mRecord.setAltitude(altitude);
+            mRecord.setSpeed(speed);
+            mEncoder.write(mRecord);
+        }
+
+        @Override
+        void close() throws IOException {
+            mBytes = mEncoder.close();
+        }
+
+        @Override
+        byte[] toByteArray() {
+            return mBytes;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package org.surfsite.gexporter;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestGpx2FitOptions {
+    @Test
+    public void testSnapshot() {
+        Gpx2FitOptions options = new Gpx2FitOptions();
+        options.setSpeed(3.0);
+        options.setSimplification(TrackSimplifier.Method.DISTANCE);
+        Gpx2FitOptions.Snapshot snapshot = options.snapshot();
+        assertEquals(options.snapshot(), snapshot);
+        assertEquals(TrackSimplifier.Method.DISTANCE, snapshot.getSimplification());
+
+        // later edits do not reach the snapshot
+        options.setSpeed(4.0);
+        assertEquals(3.0, snapshot.getSpeed(), 0.0);
+        assertNotEquals(options.snapshot().getFingerprint(), snapshot.getFingerprint());
+
+        // the speed unit only matters for editing
+        options.setSpeed(3.0);
+        options.setSpeedUnit(1);
+        assertEquals(snapshot, options.snapshot());
+
+        Gpx2FitOptions copy = new Gpx2FitOptions(snapshot);
+        assertEquals(snapshot, copy.snapshot());
+        assertEquals(snapshot.hashCode(), copy.snapshot().hashCode());
+        copy.setMaxPoints(10);
+        assertNotEquals(snapshot, copy.snapshot());
+    }
+
+    @Test
+    public void testOverrides() {
+        Gpx2FitOptions.Snapshot options = new Gpx2FitOptions().snapshot();
+        Map<String, List<String>> parms = new HashMap<>();
+        parms.put("longname", Collections.singletonList("1"));
+        assertSame(options, WebServer.getOptions(options, parms));
+
+        parms.put("speed", Collections.singletonList("7.2"));
+        parms.put("maxPoints", Collections.singletonList("0"));
+        parms.put("forceSpeed", Collections.singletonList("1"));
+        parms.put("walkingGrade", Collections.singletonList("1"));
+        parms.put("inject", Collections.singletonList("1"));
+        Gpx2FitOptions.Snapshot overridden = WebServer.getOptions(options, parms);
+        assertEquals(2.0, overridden.getSpeed(), 1e-12);
+        assertEquals(0, overridden.getMaxPoints());
+        assertTrue(overridden.isForceSpeed());
+        assertTrue(overridden.isWalkingGrade());
+        assertTrue(overridden.isInjectCoursePoints());
+        assertEquals(options.getMinRoutePointDistance(), overridden.getMinRoutePointDistance(), 0.0);
+        assertNotEquals(options, overridden);
+        assertEquals(overridden, WebServer.getOptions(options, parms));
+
+        parms.put("speed", Collections.singletonList("-1"));
+        try {
+            WebServer.getOptions(options, parms);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        parms.put("speed", Collections.singletonList("abc"));
+        try {
+            WebServer.getOptions(options, parms);
+            fail();
+        } catch (IllegalArgumentException expected) {
+            assertEquals("Invalid speed abc", expected.getMessage());
+        }
+    }
+
+    @Test
+    public void testTrack() {
+        Map<String, List<String>> parms = new HashMap<>();
+        assertEquals(-1, WebServer.getTrack(parms));
+        parms.put("track", Collections.singletonList("2"));
+        assertEquals(2, WebServer.getTrack(parms));
+        for (String invalid : new String[]{ "x", "-1", "" }) {
+            parms.put("track", Collections.singletonList(invalid));
+            try {
+                WebServer.getTrack(parms);
+                fail(invalid);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void testEffectiveOptions() {
+        Gpx2FitOptions.Snapshot options = new Gpx2FitOptions().snapshot();
+        assertSame(options, WebServer.getEffectiveOptions(options, 1000));
+
+        // streamed sources are reduced by distance, which their key has to reflect
+        Gpx2FitOptions.Snapshot streamed = WebServer.getEffectiveOptions(options, Long.MAX_VALUE);
+        assertEquals(TrackSimplifier.Method.DISTANCE, streamed.getSimplification());
+        assertNotEquals(options.getFingerprint(), streamed.getFingerprint());
+        assertSame(streamed, WebServer.getEffectiveOptions(streamed, Long.MAX_VALUE));
+    }
+}
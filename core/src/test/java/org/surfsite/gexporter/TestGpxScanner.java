@@ -0,0 +1,295 @@
+package org.surfsite.gexporter;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The scanner reads the same points as the pull parser, or leaves the document to it.
+ */
+public class TestGpxScanner {
+    private static final String HEAD = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<gpx version=\"1.1\" creator=\"test\" xmlns=\"http://www.topografix.com/GPX/1/1\""
+            + " xmlns:gpxtpx=\"http://www.garmin.com/xmlschemas/TrackPointExtension/v1\">\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSamples() throws Exception {
+        for (String name : new String[]{ "sample10.gpx", "sample11.gpx", "sample11-2.gpx", "sample11-3.gpx",
+                "sample11-route.gpx", "sample2.gpx" }) {
+            File file = file(name);
+            Track scanned = new Track();
+            assertTrue(name, GpxScanner.scan(file, scanned) > 0);
+            assertSameTrack(name, parse(readFile(file)), scanned);
+
+            Gpx2Fit mapped = new Gpx2Fit(name, file, new Gpx2FitOptions().snapshot());
+            Gpx2Fit streamed = new Gpx2Fit(name, new FileInputStream(file), new Gpx2FitOptions().snapshot());
+            assertEquals(streamed.getPointCount(), mapped.getPointCount());
+            assertArrayEquals(name, streamed.writeFit(), mapped.writeFit());
+        }
+    }
+
+    @Test
+    public void testSkipped() throws Exception {
+        String gpx = "\uFEFF" + HEAD
+                + "<!-- exported <trk> -->\n<?pi <trkpt?>\n"
+                + "<metadata><name>A &amp; B &#38; &#x26;</name><link href='x'/><desc><![CDATA[<trk></trk>]]></desc></metadata>\n"
+                + "<wpt lat=\"1\" lon=\"2\"><ele>3</ele></wpt>\n"
+                + "<trk><name>empty</name><trkseg/></trk>\n"
+                + "<trk><name>t</name><extensions><x><trk/></x></extensions>\n"
+                + "<trkseg>\n"
+                + "<trkpt lat=\"47.1\" lon='8.2'><ele> 400.5 </ele><time>2016-05-01T10:00:00Z</time>"
+                + "<extensions><gpxtpx:TrackPointExtension><gpxtpx:hr>120</gpxtpx:hr></gpxtpx:TrackPointExtension></extensions></trkpt>\n"
+                + "<trkpt lon=\"8.3\" lat=\"47.2\" ><time/><ele>401</ele></trkpt>\n"
+                + "<trkpt\n\tlat = \"47.3\"\n\tlon=\"8.4\"/>\n"
+                + "<trkpt lat=\"47.4\" lon=\"8.5\"><time>garbage</time><ele>1e2</ele></trkpt>\n"
+                + "<trkpt lat=\"47.5\" lon=\"8.6\"><time>2016-05-01T10:00:01.250+02:00</time></trkpt>\n"
+                + "</trkseg><trkseg><trkpt lat=\"-0\" lon=\"+.5\"><ele>-.25</ele></trkpt></trkseg>\n"
+                + "</trk>\n<rte><rtept lat=\"1\" lon=\"1\"/></rte>\n</gpx>\n";
+        assertScanned(gpx, 6);
+
+        String route = HEAD + "<trk><trkseg></trkseg></trk>"
+                + "<rte><name>r</name><rtept lat=\"47.1\" lon=\"8.2\"><ele>400</ele><name>p</name></rtept>"
+                + "<rtept lat=\"47.2\" lon=\"8.3\"></rtept></rte></gpx>";
+        assertScanned(route, 2);
+
+        assertScanned("<gpx xmlns=\"http://www.topografix.com/GPX/1/0\"><trk><trkseg>"
+                + "<trkpt lat=\"1\" lon=\"2\"/></trkseg></trk></gpx>", 1);
+        assertScanned("<gpx><trk><trkseg><trkpt lat=\"1\" lon=\"2\"/></trkseg></trk></gpx>", 1);
+        assertScanned(HEAD + "</gpx>", 0);
+    }
+
+    @Test
+    public void testNumbers() throws Exception {
+        Random random = new Random(42);
+        StringBuilder gpx = new StringBuilder(HEAD).append("<trk><trkseg>\n");
+        String[] fixed = { "0", "-0.0", "1.", "00012.50", "1e5", "1E-5", "12345678901234567890.5",
+                "0.000000000000000000000000001", "4.9e-324", "1.7976931348623157e308", "1e-400",
+                "47.123456789012345678", "8.5d", "3f", "  7 ", "123456789012345678", "9007199254740993" };
+        for (String value : fixed)
+            point(gpx, value, value);
+        for (int i = 0; i < 2000; i++) {
+            double lat = (random.nextDouble() - 0.5) * 180;
+            double lon = (random.nextDouble() - 0.5) * 360;
+            double ele = random.nextGaussian() * 1000;
+            String latText = i % 3 == 0 ? Double.toString(lat) : String.format(Locale.ROOT, "%." + (i % 12) + "f", lat);
+            String eleText = i % 2 == 0 ? Double.toString(ele) : String.format(Locale.ROOT, "%.2e", ele);
+            point(gpx, latText, Double.toString(lon), eleText);
+        }
+        gpx.append("</trkseg></trk></gpx>");
+        assertScanned(gpx.toString(), fixed.length + 2000);
+    }
+
+    @Test
+    public void testFallback() throws Exception {
+        String point = "<trk><trkseg><trkpt lat=\"47.1\" lon=\"8.2\"><ele>400</ele></trkpt></trkseg></trk></gpx>";
+        String gpx11 = "<gpx xmlns=\"http://www.topografix.com/GPX/1/1\">";
+        String[] documents = {
+                "<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?>" + gpx11 + point,
+                "<!DOCTYPE gpx>" + gpx11 + point,
+                "<g:gpx xmlns:g=\"http://www.topografix.com/GPX/1/1\"><g:trk><g:trkseg>"
+                        + "<g:trkpt lat=\"47.1\" lon=\"8.2\"/></g:trkseg></g:trk></g:gpx>",
+                gpx11 + "<trk><trkseg><trkpt lat=\"47.1\" lon=\"8.2\"><ele>4&#48;0</ele></trkpt></trkseg></trk></gpx>",
+                gpx11 + "<trk><trkseg><trkpt lat=\"47.1\" lon=\"8.2\"><ele><![CDATA[400]]></ele></trkpt></trkseg></trk></gpx>",
+                gpx11 + "<trk><trkseg><trkpt lat=\"47.1\" lon=\"8.2\"><time>2016-05-01T10:00:00Z<!-- c --></time></trkpt>"
+                        + "</trkseg></trk></gpx>",
+                gpx11 + "<trk xmlns=\"http://www.topografix.com/GPX/1/1\"><trkseg><trkpt lat=\"47.1\" lon=\"8.2\"/>"
+                        + "</trkseg></trk></gpx>",
+                gpx11 + "<trk><trkseg><trkpt lat=\"4&#55;\" lon=\"8.2\"/></trkseg></trk></gpx>",
+        };
+        for (String gpx : documents) {
+            assertEquals(gpx, -1, GpxScanner.scan(ByteBuffer.wrap(gpx.getBytes("UTF-8")), new Track()));
+            assertSameTrack(gpx, parse(gpx.getBytes("UTF-8")), load(gpx).getTrack());
+        }
+
+        // broken documents are left to the pull parser to report
+        String[] broken = {
+                "<!DOCTYPE gpx [<!ENTITY e \"400\">]>" + gpx11
+                        + "<trk><trkseg><trkpt lat=\"47.1\" lon=\"8.2\"><ele>&e;</ele></trkpt></trkseg></trk></gpx>",
+                gpx11 + "<trk><trkseg><trkpt lat=\"47.1\"><ele>400</ele></trkpt></trkseg></trk></gpx>",
+                gpx11 + "<trk><trkseg><trkpt lat=\"47.1\" lon=\"8.2\"><ele></ele></trkpt></trkseg></trk></gpx>",
+                gpx11 + "<trk><trkseg><trkpt lat=\"47.1\" lon=\"8.2\"><ele>high</ele></trkpt></trkseg></trk></gpx>",
+                gpx11 + "<trk><trkseg><trkpt lat=\"47.1\" lon=\"8.2\"></trkseg></trk></gpx>",
+                gpx11 + "<trk><extensions><a></b></extensions><trkseg/></trk></gpx>",
+                gpx11 + "<trk><trkseg><trkpt lat=\"47.1\" lon=\"8.2\"/>",
+                "<kml xmlns=\"http://www.opengis.net/kml/2.2\"></kml>",
+        };
+        for (String gpx : broken) {
+            assertEquals(gpx, -1, GpxScanner.scan(ByteBuffer.wrap(gpx.getBytes("UTF-8")), new Track()));
+            boolean failed = false;
+            try {
+                load(gpx);
+            } catch (Exception e) {
+                failed = true;
+            }
+            assertTrue(gpx, failed);
+        }
+    }
+
+    @Test
+    public void testChunks() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            for (String name : new String[]{ "sample10.gpx", "sample11.gpx", "sample11-route.gpx", "sample2.gpx" }) {
+                byte[] bytes = readFile(file(name));
+                for (int chunks : new int[]{ 2, 3, 8, 64 })
+                    assertChunked(name, bytes, executor, chunks);
+            }
+
+            String segments = HEAD + "<trk><trkseg>" + points(0, 20) + "</trkseg>\n<extensions/>\n<trkseg>"
+                    + points(20, 20) + "</trkseg><trkseg/><trkseg>" + points(40, 20) + "</trkseg></trk></gpx>";
+            String tracks = HEAD + "<trk><trkseg></trkseg></trk>\n<trk><trkseg>" + points(0, 30)
+                    + "</trkseg></trk>\n<trk><trkseg>" + points(30, 30) + "</trkseg></trk>\n<rte>"
+                    + points(60, 30).replace("trkpt", "rtept") + "</rte></gpx>";
+            String route = HEAD + "<trk/><rte><name>r</name>" + points(0, 50).replace("trkpt", "rtept") + "</rte></gpx>";
+            for (String gpx : new String[]{ segments, tracks, route }) {
+                for (int chunks : new int[]{ 2, 5, 50, 1000 })
+                    assertChunked(gpx, gpx.getBytes("UTF-8"), executor, chunks);
+            }
+
+            // chunks may start at points inside comments or extensions, the previous chunk detects it
+            String hidden = HEAD + "<trk><trkseg>" + points(0, 5) + "<!-- <trkpt lat=\"1\" lon=\"1\"/> -->"
+                    + "<trkpt lat=\"2\" lon=\"2\"><extensions><trkpt lat=\"3\" lon=\"3\"/></extensions></trkpt>"
+                    + points(5, 5) + "</trkseg></trk></gpx>";
+            byte[] bytes = hidden.getBytes("UTF-8");
+            assertNull(GpxScanner.scan(ByteBuffer.wrap(bytes), new Track(), DistanceCalculator.Mode.VINCENTY,
+                    executor, bytes.length, 1));
+
+            // a file above the threshold, converted to the same bytes
+            File file = folder.newFile();
+            FileOutputStream out = new FileOutputStream(file);
+            try {
+                out.write(HEAD.getBytes("UTF-8"));
+                out.write("<trk><trkseg>".getBytes("UTF-8"));
+                for (int i = 0; file.length() < Gpx2Fit.PARALLEL_THRESHOLD + 1024; i += 1000) {
+                    out.write(points(i, 1000).getBytes("UTF-8"));
+                    out.flush();
+                }
+                out.write("</trkseg></trk></gpx>".getBytes("UTF-8"));
+            } finally {
+                out.close();
+            }
+            Gpx2Fit parallel = new Gpx2Fit("large", file, new Gpx2FitOptions().snapshot(), executor, 4);
+            Gpx2Fit streamed = new Gpx2Fit("large", new FileInputStream(file), new Gpx2FitOptions().snapshot());
+            assertEquals(streamed.getPointCount(), parallel.getPointCount());
+            assertArrayEquals(streamed.writeFit(), parallel.writeFit());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static void assertChunked(String message, byte[] bytes, Executor executor, int chunks) throws Exception {
+        Track expected = new Track();
+        assertTrue(message, GpxScanner.scan(ByteBuffer.wrap(bytes), expected) > 0);
+        Track track = new Track();
+        double[] segments = GpxScanner.scan(ByteBuffer.wrap(bytes), track, DistanceCalculator.Mode.VINCENTY,
+                executor, chunks, 1);
+        assertNotNull(message, segments);
+        assertSameTrack(message, expected, track);
+        assertEquals(message, track.size(), segments.length);
+        assertEquals(message, 0.0, segments[0], 0.0);
+        for (int i = 1; i < track.size(); i++)
+            assertEquals(message, DistanceCalculator.distance(DistanceCalculator.Mode.VINCENTY, track.getLat(i - 1),
+                    track.getLon(i - 1), track.getLat(i), track.getLon(i)), segments[i], 0.0);
+    }
+
+    /**
+     * Points along a line with elevation, time and extensions.
+     */
+    private static String points(int first, int count) {
+        StringBuilder gpx = new StringBuilder();
+        for (int i = first; i < first + count; i++) {
+            gpx.append(String.format(Locale.ROOT, "<trkpt lat=\"%.7f\" lon=\"%.7f\"><ele>%.1f</ele>"
+                            + "<time>2016-05-01T10:%02d:%02dZ</time><extensions><gpxtpx:TrackPointExtension>"
+                            + "<gpxtpx:hr>%d</gpxtpx:hr></gpxtpx:TrackPointExtension></extensions></trkpt>\n",
+                    47.0 + i * 1e-4, 8.0 + i * 2e-4, 400 + (i % 50) * 0.5, (i / 60) % 60, i % 60, 100 + i % 40));
+        }
+        return gpx.toString();
+    }
+
+    private static void point(StringBuilder gpx, String lat, String ele) {
+        point(gpx, lat, "8.5", ele);
+    }
+
+    private static void point(StringBuilder gpx, String lat, String lon, String ele) {
+        gpx.append("<trkpt lat=\"").append(lat).append("\" lon=\"").append(lon).append("\"><ele>").append(ele)
+                .append("</ele></trkpt>\n");
+    }
+
+    private void assertScanned(String gpx, int points) throws Exception {
+        byte[] bytes = gpx.getBytes("UTF-8");
+        Track scanned = new Track();
+        assertEquals(gpx, points, GpxScanner.scan(ByteBuffer.wrap(bytes), scanned));
+        assertSameTrack(gpx, parse(bytes), scanned);
+        if (points > 0)
+            assertArrayEquals(new Gpx2Fit("test", new ByteArrayInputStream(bytes), new Gpx2FitOptions().snapshot()).writeFit(),
+                    load(gpx).writeFit());
+    }
+
+    private static void assertSameTrack(String message, Track expected, Track actual) {
+        assertEquals(message, expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(message, Double.doubleToLongBits(expected.getLat(i)), Double.doubleToLongBits(actual.getLat(i)));
+            assertEquals(message, Double.doubleToLongBits(expected.getLon(i)), Double.doubleToLongBits(actual.getLon(i)));
+            assertEquals(message, Double.doubleToLongBits(expected.getEle(i)), Double.doubleToLongBits(actual.getEle(i)));
+            assertEquals(message, expected.getTime(i), actual.getTime(i));
+        }
+    }
+
+    private static Track parse(byte[] gpx) throws Exception {
+        return new Gpx2Fit("test", new ByteArrayInputStream(gpx), new Gpx2FitOptions().snapshot()).getTrack();
+    }
+
+    /**
+     * Through a file, like the server reads it.
+     */
+    private Gpx2Fit load(String gpx) throws Exception {
+        File file = folder.newFile();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(gpx.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        return new Gpx2Fit("test", file, new Gpx2FitOptions().snapshot());
+    }
+
+    private static byte[] readFile(File file) throws Exception {
+        byte[] data = new byte[(int) file.length()];
+        FileInputStream in = new FileInputStream(file);
+        try {
+            int n = 0;
+            while (n < data.length)
+                n += in.read(data, n, data.length - n);
+        } finally {
+            in.close();
+        }
+        return data;
+    }
+
+    private File file(String name) {
+        URL resource = getClass().getClassLoader().getResource(name);
+        if (resource == null) throw new AssertionError();
+        return new File(resource.getFile());
+    }
+}
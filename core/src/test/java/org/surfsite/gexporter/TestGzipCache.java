@@ -0,0 +1,130 @@
+package org.surfsite.gexporter;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestGzipCache {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Test
+    public void testStreaming() throws IOException {
+        File gpx = getResource("sample2.gpx");
+        byte[] original = read(new FileInputStream(gpx));
+
+        byte[] compressed = read(GzipCache.gzip(new FileInputStream(gpx)));
+        assertArrayEquals(original, read(new GZIPInputStream(new ByteArrayInputStream(compressed))));
+
+        byte[] empty = read(GzipCache.gzip(new ByteArrayInputStream(new byte[0])));
+        assertArrayEquals(new byte[0], read(new GZIPInputStream(new ByteArrayInputStream(empty))));
+    }
+
+    @Test
+    public void testHot() throws IOException {
+        File dir = folder.newFolder();
+        File gpx = getResource("sample11.gpx");
+
+        GzipCache cache = new GzipCache(dir, DIRECT);
+        for (int i = 0; i < GzipCache.HOT_REQUESTS; i++)
+            assertNull(cache.get("sample11", gpx));
+        File gz = cache.get("sample11", gpx);
+        assertNotNull(gz);
+        assertArrayEquals(read(new FileInputStream(gpx)), read(new GZIPInputStream(new FileInputStream(gz))));
+
+        // kept across a restart, copies of earlier versions next to the FIT files are deleted
+        cache.flush();
+        File unbounded = new File(dir, "old.gz");
+        assertTrue(unbounded.createNewFile());
+        cache = new GzipCache(dir, DIRECT);
+        assertEquals(gz, cache.get("sample11", gpx));
+        assertFalse(unbounded.exists());
+    }
+
+    @Test
+    public void testBounded() throws IOException {
+        File dir = folder.newFolder();
+        File gpx = folder.newFile("course.gpx");
+        byte[] content = read(new FileInputStream(getResource("sample2.gpx")));
+        write(gpx, content);
+
+        GzipCache cache = new GzipCache(dir, DIRECT);
+        for (int i = 0; i < GzipCache.HOT_REQUESTS; i++)
+            cache.get("v1", gpx);
+        File v1 = cache.get("v1", gpx);
+        assertNotNull(v1);
+
+        // a new version of the file supersedes the copy of the old one
+        write(gpx, Arrays.copyOf(content, content.length / 2));
+        for (int i = 0; i < GzipCache.HOT_REQUESTS; i++)
+            cache.get("v2", gpx);
+        assertNotNull(cache.get("v2", gpx));
+        assertFalse(v1.exists());
+        assertNull(cache.get("v1", gpx));
+
+        // other files are evicted once the copies exceed the size
+        long size = cache.getSize();
+        cache = new GzipCache(dir, DIRECT, size * 2);
+        File[] others = new File[5];
+        for (int n = 0; n < others.length; n++) {
+            others[n] = folder.newFile("other" + n + ".gpx");
+            write(others[n], Arrays.copyOf(content, content.length / 2));
+            for (int i = 0; i < GzipCache.HOT_REQUESTS; i++)
+                cache.get("other" + n, others[n]);
+        }
+        assertTrue(cache.getSize() <= size * 2);
+        assertNull(cache.get("other0", others[0]));
+        assertNotNull(cache.get("other4", others[4]));
+    }
+
+    private File getResource(String name) {
+        URL resource = getClass().getClassLoader().getResource(name);
+        if (resource == null) throw new AssertionError();
+        return new File(resource.getFile());
+    }
+
+    private static void write(File file, byte[] data) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        int n;
+        while ((n = in.read(buf)) > 0)
+            out.write(buf, 0, n);
+        in.close();
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,102 @@
+package org.surfsite.gexporter;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TestHotCache {
+    @Test
+    public void testWeight() {
+        HotCache cache = new HotCache(10000, 16);
+        for (int i = 0; i < 100; i++) {
+            cache.put("f" + i, new byte[500], "\"" + i + "\"");
+            assertTrue(cache.getWeight() <= 10000);
+        }
+        assertTrue(cache.size() >= 10000 / 500 - 2);
+
+        // larger than an eighth of the capacity
+        cache.put("large", new byte[1251], "\"large\"");
+        assertNull(cache.get("large"));
+
+        byte[] data = new byte[500];
+        cache.put("same", data, "\"same\"");
+        HotCache.Entry entry = cache.get("same");
+        assertSame(data, entry.data);
+        assertEquals("\"same\"", entry.etag);
+    }
+
+    @Test
+    public void testScanResistance() {
+        HotCache cache = new HotCache(10000, 64);
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 10; i++) {
+                if (cache.get("hot" + i) == null)
+                    cache.put("hot" + i, new byte[800], null);
+            }
+        }
+        // a client walking through many courses once
+        for (int i = 0; i < 200; i++) {
+            if (cache.get("scan" + i) == null)
+                cache.put("scan" + i, new byte[800], null);
+        }
+        int kept = 0;
+        for (int i = 0; i < 10; i++) {
+            if (cache.get("hot" + i) != null)
+                kept++;
+        }
+        assertTrue("kept " + kept, kept >= 9);
+        assertTrue(cache.getRejected() > 150);
+        assertTrue(cache.getWeight() <= 10000);
+    }
+
+    @Test
+    public void testTrim() {
+        HotCache cache = new HotCache(10000, 16);
+        for (int i = 0; i < 10; i++)
+            cache.put("f" + i, new byte[1000], null);
+        cache.trim(0.5);
+        assertTrue(cache.getWeight() <= 5000);
+        cache.trim(0);
+        assertEquals(0, cache.getWeight());
+        assertEquals(0, cache.size());
+        assertNull(cache.get("f9"));
+    }
+
+    @Test
+    public void testConcurrentReads() throws InterruptedException {
+        final HotCache cache = new HotCache(100000, 64);
+        for (int i = 0; i < 50; i++)
+            cache.put("f" + i, new byte[1000], "\"" + i + "\"");
+        final AtomicInteger failures = new AtomicInteger();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int seed = t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 20000; i++) {
+                        int n = (i * 7 + seed) % 60;
+                        HotCache.Entry entry = cache.get("f" + n);
+                        if (entry != null && (!entry.key.equals("f" + n) || entry.data.length != 1000))
+                            failures.incrementAndGet();
+                        if (n >= 50 && i % 100 == 0)
+                            cache.put("f" + n, new byte[1000], null);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        assertEquals(0, failures.get());
+        assertEquals(80000, cache.getHits() + cache.getMisses());
+        assertTrue(cache.getWeight() <= 100000);
+        assertNotNull(cache.get("f0"));
+    }
+}
@@ -0,0 +1,57 @@
+package org.surfsite.gexporter;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TestHttpConditions {
+    private static final String ETAG = "\"abc\"";
+
+    @Test
+    public void testRange() {
+        assertArrayEquals(new long[]{0, 99}, HttpConditions.parseRange("bytes=0-99", 1000));
+        assertArrayEquals(new long[]{500, 999}, HttpConditions.parseRange("bytes=500-", 1000));
+        assertArrayEquals(new long[]{900, 999}, HttpConditions.parseRange("bytes=-100", 1000));
+        assertArrayEquals(new long[]{0, 999}, HttpConditions.parseRange("bytes=-2000", 1000));
+        assertArrayEquals(new long[]{990, 999}, HttpConditions.parseRange("bytes=990-2000", 1000));
+
+        assertSame(HttpConditions.UNSATISFIABLE, HttpConditions.parseRange("bytes=1000-", 1000));
+        assertSame(HttpConditions.UNSATISFIABLE, HttpConditions.parseRange("bytes=-0", 1000));
+
+        // ignored, the full content is sent
+        assertNull(HttpConditions.parseRange(null, 1000));
+        assertNull(HttpConditions.parseRange("bytes=0-1,5-6", 1000));
+        assertNull(HttpConditions.parseRange("bytes=10-5", 1000));
+        assertNull(HttpConditions.parseRange("items=0-1", 1000));
+        assertNull(HttpConditions.parseRange("bytes=x-1", 1000));
+    }
+
+    @Test
+    public void testValidators() {
+        long modified = 1500000000000L;
+        String date = HttpConditions.formatDate(modified);
+        assertEquals("Fri, 14 Jul 2017 02:40:00 GMT", date);
+        assertEquals(modified, HttpConditions.parseDate(date));
+
+        assertTrue(HttpConditions.isModified(null, null, ETAG, modified));
+        assertFalse(HttpConditions.isModified(ETAG, null, ETAG, modified));
+        assertFalse(HttpConditions.isModified("\"x\", W/\"abc\"", null, ETAG, modified));
+        assertFalse(HttpConditions.isModified("*", null, ETAG, modified));
+        assertTrue(HttpConditions.isModified("\"x\"", date, ETAG, modified));
+
+        assertFalse(HttpConditions.isModified(null, date, ETAG, modified + 999));
+        assertTrue(HttpConditions.isModified(null, date, ETAG, modified + 1000));
+        assertTrue(HttpConditions.isModified(null, "yesterday", ETAG, modified));
+
+        assertTrue(HttpConditions.isRangeValid(null, ETAG, modified));
+        assertTrue(HttpConditions.isRangeValid(ETAG, ETAG, modified));
+        assertFalse(HttpConditions.isRangeValid("\"x\"", ETAG, modified));
+        assertFalse(HttpConditions.isRangeValid("W/\"abc\"", ETAG, modified));
+        assertTrue(HttpConditions.isRangeValid(date, ETAG, modified));
+    }
+}
@@ -0,0 +1,47 @@
+package org.surfsite.gexporter;
+
+import org.junit.Test;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestIso8601 {
+
+    @Test
+    public void testParse() {
+        assertEquals(0L, Iso8601.parse("1970-01-01T00:00:00Z"));
+        assertEquals(1496000000000L, Iso8601.parse("2017-05-28T19:33:20Z"));
+        assertEquals(1496000000123L, Iso8601.parse("2017-05-28T19:33:20.123Z"));
+        assertEquals(1496000000120L, Iso8601.parse("2017-05-28T19:33:20.12Z"));
+        assertEquals(1496000000123L, Iso8601.parse("2017-05-28T19:33:20.123456Z"));
+        assertEquals(1496000000000L, Iso8601.parse("2017-05-28T21:33:20+02:00"));
+        assertEquals(1496000000000L, Iso8601.parse("2017-05-28T21:33:20+0200"));
+        assertEquals(1496000000000L, Iso8601.parse("2017-05-28T21:33:20+02"));
+        assertEquals(1496000000000L, Iso8601.parse("2017-05-28T15:03:20-04:30"));
+        assertEquals(1496000000000L, Iso8601.parse("2017-05-28T19:33:20"));
+        assertEquals(1496000000000L, Iso8601.parse("\n    2017-05-28T19:33:20Z  \n"));
+        assertEquals(951782400000L, Iso8601.parse("2000-02-29T00:00:00Z"));
+
+        assertEquals(Iso8601.INVALID, Iso8601.parse(""));
+        assertEquals(Iso8601.INVALID, Iso8601.parse("2017-05-28"));
+        assertEquals(Iso8601.INVALID, Iso8601.parse("2017-05-28T19:33:20.Z"));
+        assertEquals(Iso8601.INVALID, Iso8601.parse("2017-05-28T19:33:20+2"));
+        assertEquals(Iso8601.INVALID, Iso8601.parse("2017-13-28T19:33:20Z"));
+        assertEquals(Iso8601.INVALID, Iso8601.parse("2017-05-28T19:33:20Zx"));
+    }
+
+    @Test
+    public void testSameAsSimpleDateFormat() throws ParseException {
+        // what readTime used to do for every point
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        for (int i = 0; i < 1000; i++) {
+            char[] s = String.format("2017-05-%02dT%02d:%02d:%02dZ", 1 + i % 28, i % 24, i % 60, (i * 7) % 60)
+                    .toCharArray();
+            assertEquals(dateFormat.parse(new String(s)).getTime(), Iso8601.parse(s, 0, s.length));
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package org.surfsite.gexporter;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestMetrics {
+
+    @Test
+    public void testBuckets() {
+        for (long v = 0; v < 100000; v++) {
+            int bucket = Histogram.bucket(v);
+            assertTrue(v <= Histogram.upperBound(bucket));
+            if (bucket > 0)
+                assertTrue(v > Histogram.upperBound(bucket - 1));
+        }
+        assertEquals(Histogram.BUCKETS - 1, Histogram.bucket(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testPercentiles() {
+        Histogram histogram = new Histogram();
+        for (long v = 1; v <= 10000; v++)
+            histogram.record(v * 1000);
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(10000, snapshot.getCount());
+        assertEquals(10000000, snapshot.getMax());
+        assertEquals(5000500, snapshot.getMean(), 1e-6);
+        assertEquals(5000000, snapshot.getPercentile(0.5), 5000000 / 16);
+        assertEquals(9500000, snapshot.getPercentile(0.95), 9500000 / 16);
+        assertEquals(9900000, snapshot.getPercentile(0.99), 9900000 / 16);
+        assertEquals(10000000, snapshot.getPercentile(1.0));
+        assertEquals(0, new Histogram().snapshot().getPercentile(0.5));
+    }
+
+    @Test
+    public void testConcurrentRecording() throws Exception {
+        final Histogram histogram = new Histogram();
+        final StripedCounter counter = new StripedCounter();
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            final long seed = t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Random random = new Random(seed);
+                    for (int i = 0; i < 100000; i++) {
+                        histogram.record(random.nextInt(1000000));
+                        counter.add(2);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        assertEquals(800000, histogram.snapshot().getCount());
+        assertEquals(1600000, counter.sum());
+    }
+
+    @Test
+    public void testJson() {
+        Metrics metrics = new Metrics();
+        metrics.timer("parse").record(1500000);
+        metrics.histogram("points").record(35);
+        metrics.counter("requests").increment();
+        metrics.gauge("ratio", new Metrics.Gauge() {
+            @Override
+            public double getValue() {
+                return Metrics.ratio(1, 2);
+            }
+        });
+        metrics.gauge("none", new Metrics.Gauge() {
+            @Override
+            public double getValue() {
+                return Metrics.ratio(0, 0);
+            }
+        });
+        String json = metrics.toJson();
+        assertTrue(json.contains("\"parse\" : { \"count\" : 1, \"mean\" : 1.500, \"p50\" : 1.500"));
+        assertTrue(json.contains("\"points\" : { \"count\" : 1, \"mean\" : 35, \"p50\" : 35"));
+        assertTrue(json.contains("\"requests\" : 1"));
+        assertTrue(json.contains("\"ratio\" : 0.333"));
+        assertTrue(json.contains("\"none\" : null"));
+    }
+}
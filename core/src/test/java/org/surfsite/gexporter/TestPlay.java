@@ -0,0 +1,165 @@
+package org.surfsite.gexporter;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestPlay {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void test10() {
+        ClassLoader classLoader = getClass().getClassLoader();
+        String filename = "sample10.gpx";
+        File file = new File(classLoader.getResource(filename).getFile());
+        try {
+            Gpx2Fit loader = new Gpx2Fit(WebServer.getCourseName(filename), new FileInputStream(file), new Gpx2FitOptions().snapshot());
+            System.out.println(String.format("Track: %s", loader.getName()));
+            assertEquals("sample10", loader.getName());
+            List<WayPoint> wpts = loader.getWaypoints();
+            assertEquals(wpts.size(), 35);
+        } catch (Exception e) {
+            fail(e.toString());
+        }
+    }
+
+    @Test
+    public void test11() {
+        ClassLoader classLoader = getClass().getClassLoader();
+        String filename = "sample11.gpx";
+        File file = new File(classLoader.getResource(filename).getFile());
+        try {
+            Gpx2Fit loader = new Gpx2Fit(WebServer.getCourseName(filename), new FileInputStream(file), new Gpx2FitOptions().snapshot());
+            System.out.println(String.format("Track: %s", loader.getName()));
+            assertEquals("sample11", loader.getName());
+            List<WayPoint> wpts = loader.getWaypoints();
+            assertEquals(wpts.size(), 339);
+        } catch (Exception e) {
+            fail(e.toString());
+        }
+
+    }
+
+    @Test
+    public void test2() {
+        // GPX 1.0 file larger than any mark/reset buffer
+        ClassLoader classLoader = getClass().getClassLoader();
+        String filename = "sample2.gpx";
+        File file = new File(classLoader.getResource(filename).getFile());
+        try {
+            Gpx2Fit loader = new Gpx2Fit(WebServer.getCourseName(filename), new FileInputStream(file), new Gpx2FitOptions().snapshot());
+            assertEquals("sample2", loader.getName());
+            List<WayPoint> wpts = loader.getWaypoints();
+            assertEquals(wpts.size(), 19986);
+        } catch (Exception e) {
+            fail(e.toString());
+        }
+    }
+
+    @Test
+    public void testFit() {
+
+        testFit("sample10.gpx", "sample10.fit");
+        testFit("sample11.gpx", "sample11.fit");
+        testFit("sample11-2.gpx", "sample11-2.fit");
+        testFit("sample11-3.gpx", "sample11-3.fit");
+        testFit("sample11-route.gpx", "sample11-route.fit");
+        testFit("sample2.gpx", "sample2.fit");
+    }
+
+    @Test
+    public void testFitDeterministic() throws Exception {
+        URL resource = getClass().getClassLoader().getResource("sample11.gpx");
+        if (resource == null) throw new AssertionError();
+        File file = new File(resource.getFile());
+        Gpx2FitOptions.Snapshot options = new Gpx2FitOptions().snapshot();
+
+        // validators depend on the same source always encoding to the same bytes
+        byte[] first = new Gpx2Fit("sample11", new FileInputStream(file), options).writeFit();
+        Thread.sleep(1100);
+        byte[] second = new Gpx2Fit("sample11", new FileInputStream(file), options).writeFit();
+        assertArrayEquals(first, second);
+    }
+
+    @Test
+    public void testFitStreaming() throws Exception {
+        String[] samples = { "sample10.gpx", "sample11.gpx", "sample11-2.gpx", "sample11-3.gpx", "sample11-route.gpx", "sample2.gpx" };
+        File dir = folder.newFolder();
+        for (String inFileName : samples) {
+            URL resource = getClass().getClassLoader().getResource(inFileName);
+            if (resource == null) throw new AssertionError();
+            File file = new File(resource.getFile());
+            // streaming always reduces points by distance
+            Gpx2FitOptions options = new Gpx2FitOptions();
+            options.setInjectCoursePoints(true);
+            options.setSimplification(TrackSimplifier.Method.DISTANCE);
+            Gpx2FitOptions.Snapshot snapshot = options.snapshot();
+            File streamed = new File(dir, WebServer.getCourseName(inFileName) + "-streaming.fit");
+            Gpx2Fit.writeFitStreaming(WebServer.getCourseName(inFileName), file, streamed, snapshot);
+
+            // the same bytes as the in-memory conversion
+            Gpx2Fit loader = new Gpx2Fit(WebServer.getCourseName(inFileName), new FileInputStream(file), snapshot);
+            loader.setTimeCreated(file.lastModified());
+            assertArrayEquals(inFileName, loader.writeFit(), read(streamed));
+
+            // the statistics pass sees the same distances as the in-memory conversion
+            TrackStatistics stats = new TrackStatistics(snapshot);
+            Track track = loader.getTrack();
+            for (int i = 0; i < track.size(); i++)
+                stats.add(track.getLat(i), track.getLon(i), track.getEle(i), track.getTime(i));
+            assertEquals(track.getDist(track.size() - 1), stats.getDistance(), 0.0);
+        }
+    }
+
+    private static byte[] read(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            byte[] data = new byte[(int) raf.length()];
+            raf.readFully(data);
+            return data;
+        } finally {
+            raf.close();
+        }
+    }
+
+    private void testFit(String inFileName, String outFileName) {
+
+        ClassLoader classLoader = getClass().getClassLoader();
+        URL resource = classLoader.getResource(inFileName);
+        if (resource == null) throw new AssertionError();
+        File file = new File(resource.getFile());
+
+        Gpx2Fit loader;
+        try {
+            Gpx2FitOptions options = new Gpx2FitOptions();
+            loader = new Gpx2Fit(WebServer.getCourseName(inFileName), new FileInputStream(file), options.snapshot());
+            loader.writeFit(new File(outFileName));
+            // in memory, FIT header of 14 bytes plus messages
+            assertTrue(loader.writeFit().length >= 14);
+            options.setSpeed(1000.0 / (13.0 * 60.0) );
+            options.setMaxPoints(1000);
+            options.setInjectCoursePoints(false);
+            options.setForceSpeed(true);
+            options.setWalkingGrade(true);
+            options.setMinRoutePointDistance(5.0);
+            options.setMinCoursePointDistance(1000.0);
+            loader.writeFit(options.snapshot());
+            loader.writeFit(new File(outFileName));
+        } catch (Exception e) {
+            fail(e.toString());
+        }
+    }
+}
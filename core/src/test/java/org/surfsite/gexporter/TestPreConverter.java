@@ -0,0 +1,69 @@
+package org.surfsite.gexporter;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestPreConverter {
+
+    @Test
+    public void testMostRecentFirst() throws Exception {
+        File dir = File.createTempFile("preconvert", "");
+        //noinspection ResultOfMethodCallIgnored
+        dir.delete();
+        //noinspection ResultOfMethodCallIgnored
+        dir.mkdir();
+        dir.deleteOnExit();
+
+        File blocker = touch(dir, "blocker.gpx", 0);
+        File old = touch(dir, "old.gpx", 1000000000000L);
+        File recent = touch(dir, "recent.gpx", 1500000000000L);
+        File middle = touch(dir, "middle.gpx", 1200000000000L);
+        File fit = touch(dir, "course.fit", 1600000000000L);
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> converted = Collections.synchronizedList(new ArrayList<String>());
+        PreConverter preConverter = new PreConverter(new PreConverter.Converter() {
+            @Override
+            public boolean convert(File gpx) throws Exception {
+                started.countDown();
+                release.await();
+                converted.add(gpx.getName());
+                return true;
+            }
+        });
+
+        // keeps the single worker busy until everything else is queued
+        preConverter.submit(blocker);
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        preConverter.submit(old, middle, fit);
+        preConverter.submit(recent, old);
+        assertEquals(3, preConverter.getQueueDepth());
+        release.countDown();
+
+        assertTrue(preConverter.drain(10, TimeUnit.SECONDS));
+        assertEquals("[blocker.gpx, recent.gpx, middle.gpx, old.gpx]", converted.toString());
+        assertEquals(4, preConverter.getConverted());
+        assertEquals(0, preConverter.getFailed());
+    }
+
+    private static File touch(File dir, String name, long modified) throws IOException {
+        File file = new File(dir, name);
+        new FileOutputStream(file).close();
+        //noinspection ResultOfMethodCallIgnored
+        file.setLastModified(modified);
+        file.deleteOnExit();
+        return file;
+    }
+}
@@ -17,7 +17,7 @@ public class TestRunServer {
             Log.debug("Serving from homedir {}", homedir);
 
             server = new WebServer(new File(homedir),
-                    new File("/tmp"), 22222, new Gpx2FitOptions());
+                    new File("/tmp"), 22222, new Gpx2FitOptions().snapshot());
             server.start();
         } catch (IOException | NoSuchAlgorithmException e) {
             e.printStackTrace();
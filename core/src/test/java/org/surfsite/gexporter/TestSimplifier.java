@@ -0,0 +1,137 @@
+package org.surfsite.gexporter;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.net.URL;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestSimplifier {
+
+    private final TrackSimplifier[] simplifiers = {
+            new DouglasPeuckerSimplifier(), new VisvalingamWhyattSimplifier()
+    };
+
+    @Test
+    public void testPointBudget() {
+        Track track = randomTrack(5000, 1);
+        for (TrackSimplifier simplifier : simplifiers) {
+            for (int maxPoints : new int[] { 2, 3, 10, 1000, 4999, 5000, 10000 }) {
+                boolean[] keep = simplifier.simplify(track, maxPoints);
+                assertEquals(track.size(), keep.length);
+                assertEquals(Math.min(maxPoints, track.size()), count(keep));
+                assertTrue(keep[0]);
+                assertTrue(keep[keep.length - 1]);
+            }
+        }
+    }
+
+    @Test
+    public void testStraightLine() {
+        Track track = new Track();
+        for (int i = 0; i < 100; i++)
+            track.add(47.0 + i * 0.0001, 11.0, Double.NaN, WayPoint.RefMilliSec);
+        track.add(47.0 + 99 * 0.0001, 11.01, Double.NaN, WayPoint.RefMilliSec);
+
+        for (TrackSimplifier simplifier : simplifiers) {
+            boolean[] keep = simplifier.simplify(track, 3);
+            assertTrue(keep[0]);
+            // the corner
+            assertTrue(keep[99]);
+            assertTrue(keep[100]);
+        }
+    }
+
+    @Test
+    public void testShape() throws Exception {
+        Track track = load("sample2.gpx");
+        int maxPoints = 1000;
+
+        // the previous selection by distance steps
+        Gpx2FitOptions.Snapshot options = new Gpx2FitOptions().snapshot();
+        TrackStatistics stats = new TrackStatistics(options);
+        double[] dist = new double[track.size()];
+        for (int i = 0; i < track.size(); i++) {
+            stats.add(track.getLat(i), track.getLon(i), track.getEle(i), track.getTime(i));
+            dist[i] = stats.getDistance();
+        }
+        double step = Math.max(stats.getDistance() / maxPoints, options.getMinRoutePointDistance());
+        boolean[] byDistance = new boolean[track.size()];
+        double ldist = 0;
+        for (int i = 0; i < track.size(); i++) {
+            if (i == 0 || dist[i] - ldist > step) {
+                byDistance[i] = true;
+                ldist = dist[i];
+            }
+        }
+
+        double legacy = maxDeviation(track, byDistance);
+        for (TrackSimplifier simplifier : simplifiers) {
+            boolean[] keep = simplifier.simplify(track, maxPoints);
+            double deviation = maxDeviation(track, keep);
+            // Douglas-Peucker minimizes exactly this, Visvalingam-Whyatt the displaced area
+            if (simplifier instanceof DouglasPeuckerSimplifier)
+                assertTrue(deviation <= legacy);
+        }
+    }
+
+    private Track load(String filename) throws Exception {
+        URL resource = getClass().getClassLoader().getResource(filename);
+        assertTrue(resource != null);
+        Gpx2Fit loader = new Gpx2Fit(filename, new FileInputStream(new File(resource.getFile())), new Gpx2FitOptions().snapshot());
+        return loader.getTrack();
+    }
+
+    private static Track randomTrack(int n, long seed) {
+        Random random = new Random(seed);
+        Track track = new Track();
+        double lat = 47.0, lon = 11.0;
+        for (int i = 0; i < n; i++) {
+            lat += (random.nextDouble() - 0.5) * 0.001;
+            lon += (random.nextDouble() - 0.5) * 0.001;
+            track.add(lat, lon, Double.NaN, WayPoint.RefMilliSec + i * 1000L);
+        }
+        return track;
+    }
+
+    private static int count(boolean[] keep) {
+        int n = 0;
+        for (boolean k : keep)
+            if (k)
+                n++;
+        return n;
+    }
+
+    /**
+     * Largest distance of a dropped point from the simplified line, in meters.
+     */
+    private static double maxDeviation(Track track, boolean[] keep) {
+        double[] x = new double[track.size()];
+        double[] y = new double[track.size()];
+        double k = Math.toRadians(1.0) * 6371008.8;
+        double kx = k * Math.cos(Math.toRadians(track.getLat(0)));
+        for (int i = 0; i < track.size(); i++) {
+            x[i] = track.getLon(i) * kx;
+            y[i] = track.getLat(i) * k;
+        }
+        double max = 0;
+        int start = 0;
+        for (int end = 1; end < keep.length; end++) {
+            if (!keep[end] && end != keep.length - 1)
+                continue;
+            double dx = x[end] - x[start], dy = y[end] - y[start];
+            double len2 = dx * dx + dy * dy;
+            for (int i = start + 1; i < end; i++) {
+                double px = x[i] - x[start], py = y[i] - y[start];
+                double t = len2 == 0.0 ? 0.0 : Math.max(0.0, Math.min(1.0, (px * dx + py * dy) / len2));
+                max = Math.max(max, Math.hypot(px - t * dx, py - t * dy));
+            }
+            start = end;
+        }
+        return max;
+    }
+}
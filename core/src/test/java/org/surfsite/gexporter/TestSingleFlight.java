@@ -0,0 +1,108 @@
+package org.surfsite.gexporter;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestSingleFlight {
+    private static final int CALLERS = 16;
+
+    @Test
+    public void testShared() throws Exception {
+        final SingleFlight<Object> singleFlight = new SingleFlight<>();
+        final AtomicInteger runs = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Object result = new Object();
+
+        List<Future<Object>> futures = submit(new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                return singleFlight.execute("course", new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        runs.incrementAndGet();
+                        started.countDown();
+                        release.await();
+                        return result;
+                    }
+                });
+            }
+        }, started, release, singleFlight);
+
+        for (Future<Object> future : futures)
+            assertSame(result, future.get());
+        assertEquals(1, runs.get());
+        assertEquals(CALLERS - 1, singleFlight.getShared());
+        assertEquals(0, singleFlight.getInFlight());
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+        final SingleFlight<Object> singleFlight = new SingleFlight<>();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        List<Future<Object>> futures = submit(new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                return singleFlight.execute("course", new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        started.countDown();
+                        release.await();
+                        throw new IOException("broken");
+                    }
+                });
+            }
+        }, started, release, singleFlight);
+
+        for (Future<Object> future : futures) {
+            try {
+                future.get();
+                fail();
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IOException);
+            }
+        }
+
+        // the next call starts a new computation
+        assertEquals("ok", singleFlight.execute("course", new Callable<Object>() {
+            @Override
+            public Object call() {
+                return "ok";
+            }
+        }));
+    }
+
+    private List<Future<Object>> submit(Callable<Object> caller, CountDownLatch started, CountDownLatch release,
+                                         SingleFlight<Object> singleFlight) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(CALLERS);
+        List<Future<Object>> futures = new ArrayList<>();
+        futures.add(executor.submit(caller));
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        for (int i = 1; i < CALLERS; i++)
+            futures.add(executor.submit(caller));
+        // wait until all callers joined the computation in flight
+        while (singleFlight.getShared() < CALLERS - 1)
+            Thread.sleep(1);
+        release.countDown();
+        executor.shutdown();
+        return futures;
+    }
+}
@@ -0,0 +1,107 @@
+package org.surfsite.gexporter;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.net.URL;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TestTrackAnalysis {
+
+    @Test
+    public void testProjectionMatchesStatistics() throws Exception {
+        Track track = load("sample11.gpx").getTrack();
+        TrackAnalysis analysis = new TrackAnalysis(track, DistanceCalculator.Mode.VINCENTY);
+
+        for (boolean use3d : new boolean[]{ true, false }) {
+            for (boolean walkingGrade : new boolean[]{ true, false }) {
+                Gpx2FitOptions options = new Gpx2FitOptions();
+                options.setUse3dDistance(use3d);
+                options.setWalkingGrade(walkingGrade);
+                options.setForceSpeed(true);
+                options.setSpeed(use3d ? 2.5 : 1.2);
+                Gpx2FitOptions.Snapshot snapshot = options.snapshot();
+
+                TrackStatistics expected = new TrackStatistics(snapshot);
+                long[] forcedTimes = new long[track.size()];
+                for (int i = 0; i < track.size(); i++) {
+                    expected.add(track.getLat(i), track.getLon(i), track.getEle(i), track.getTime(i));
+                    forcedTimes[i] = expected.getForcedTime();
+                }
+
+                TrackStatistics stats = analysis.getStatistics(snapshot);
+                assertEquals(expected.getDistance(), stats.getDistance(), 0.0);
+                assertEquals(expected.getDistance(), track.getDist(track.size() - 1), 0.0);
+                assertEquals(expected.getEndTime(), stats.getEndTime());
+                assertEquals(expected.getTotalAsc(), stats.getTotalAsc(), 0.0);
+                assertEquals(expected.getMaxLat(), stats.getMaxLat(), 0.0);
+                assertArrayEquals(forcedTimes, analysis.getForcedTimes(snapshot));
+            }
+        }
+    }
+
+    @Test
+    public void testInvalidation() throws Exception {
+        Track track = load("sample11.gpx").getTrack();
+        TrackAnalysis analysis = new TrackAnalysis(track, DistanceCalculator.Mode.VINCENTY);
+        Gpx2FitOptions options = new Gpx2FitOptions();
+
+        long[] forcedTimes = analysis.getForcedTimes(options.snapshot());
+        boolean[] keep = analysis.getKeep(options.snapshot());
+        options.setInjectCoursePoints(true);
+        options.setUse3dDistance(false);
+        assertSame(forcedTimes, analysis.getForcedTimes(options.snapshot()));
+        assertSame(keep, analysis.getKeep(options.snapshot()));
+
+        options.setSpeed(options.getSpeed() * 2);
+        assertNotSame(forcedTimes, analysis.getForcedTimes(options.snapshot()));
+        assertSame(keep, analysis.getKeep(options.snapshot()));
+
+        options.setMaxPoints(100);
+        assertNotSame(keep, analysis.getKeep(options.snapshot()));
+
+        assertTrue(analysis.matches(options.snapshot()));
+        options.setDistanceMode(DistanceCalculator.Mode.ANDOYER);
+        assertFalse(analysis.matches(options.snapshot()));
+    }
+
+    @Test
+    public void testOptionChanges() throws Exception {
+        // converting again with new options gives what a new conversion gives
+        Gpx2Fit gpx2Fit = load("sample11.gpx");
+        gpx2Fit.writeFit();
+        Gpx2FitOptions[] changes = new Gpx2FitOptions[4];
+        for (int i = 0; i < changes.length; i++) {
+            changes[i] = new Gpx2FitOptions();
+            changes[i].setForceSpeed(true);
+        }
+        changes[0].setSpeed(3.0);
+        changes[1].setWalkingGrade(true);
+        changes[2].setUse3dDistance(false);
+        changes[3].setDistanceMode(DistanceCalculator.Mode.ANDOYER);
+        changes[3].setMaxPoints(50);
+
+        for (Gpx2FitOptions options : changes) {
+            Gpx2Fit fresh = new Gpx2Fit("sample11", new FileInputStream(file("sample11.gpx")), options.snapshot());
+            assertArrayEquals(fresh.writeFit(), gpx2Fit.writeFit(options.snapshot()));
+        }
+    }
+
+    private Gpx2Fit load(String name) throws Exception {
+        return new Gpx2Fit(WebServer.getCourseName(name), new FileInputStream(file(name)),
+                new Gpx2FitOptions().snapshot());
+    }
+
+    private File file(String name) {
+        URL resource = getClass().getClassLoader().getResource(name);
+        if (resource == null) throw new AssertionError();
+        return new File(resource.getFile());
+    }
+}
@@ -0,0 +1,175 @@
+package org.surfsite.gexporter;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TestTrackIndex {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final String MULTI_TRACK = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<gpx xmlns=\"http://www.topografix.com/GPX/1/1\" version=\"1.1\" creator=\"test\">\n"
+            + "  <!-- <trk><trkseg><trkpt lat=\"0\" lon=\"0\"/></trkseg></trk> -->\n"
+            + "  <metadata><name>Tour</name></metadata>\n"
+            + "  <trk>\n"
+            + "    <name>Stage 1 &amp; 2</name>\n"
+            + "    <trkseg>\n"
+            + "      <trkpt lat=\"48.1\" lon=\"11.5\"><ele>500</ele><name>a</name></trkpt>\n"
+            + "      <trkpt lat=\"48.2\" lon=\"11.6\"/>\n"
+            + "    </trkseg>\n"
+            + "    <trkseg>\n"
+            + "      <trkpt lat=\"48.3\" lon=\"11.7\"><desc><![CDATA[</trk>]]></desc></trkpt>\n"
+            + "    </trkseg>\n"
+            + "  </trk>\n"
+            + "  <trk><name>empty</name></trk>\n"
+            + "  <rte>\n"
+            + "    <rtept lat=\"47.1\" lon=\"12.5\"></rtept>\n"
+            + "    <rtept lat=\"47.2\" lon=\"12.6\"></rtept>\n"
+            + "  </rte>\n"
+            + "</gpx>\n";
+
+    @Test
+    public void testScan() throws Exception {
+        File gpx = write(MULTI_TRACK);
+        TrackIndex index = TrackIndex.scan(gpx);
+
+        List<TrackIndex.Entry> entries = index.getEntries();
+        assertEquals(5, entries.size());
+        assertEquals(TrackIndex.TRK, entries.get(0).kind);
+        assertEquals(3, entries.get(0).points);
+        assertEquals("Stage 1 & 2", entries.get(0).name);
+        assertEquals(TrackIndex.TRKSEG, entries.get(1).kind);
+        assertEquals(2, entries.get(1).points);
+        assertEquals(1, entries.get(2).points);
+        assertEquals(0, entries.get(3).points);
+        assertEquals(TrackIndex.RTE, entries.get(4).kind);
+        assertNull(entries.get(4).name);
+
+        assertEquals(3, index.getCourses().size());
+        assertEquals(2, index.getCourseCount());
+        assertNull(index.getCourse(3));
+
+        // the offsets cover the elements exactly
+        TrackIndex.Entry trk = index.getCourse(0);
+        assertEquals(MULTI_TRACK.indexOf("<trk>\n"), trk.start);
+        assertEquals(MULTI_TRACK.indexOf("  <trk><name>empty") - 1, trk.end);
+
+        // each course reads as a document of its own
+        Gpx2Fit first = new Gpx2Fit("first", index.open(gpx, index.getCourse(0)), new Gpx2FitOptions().snapshot());
+        assertEquals(3, first.getTrack().size());
+        Gpx2Fit route = new Gpx2Fit("route", index.open(gpx, index.getCourse(2)), new Gpx2FitOptions().snapshot());
+        assertEquals(2, route.getTrack().size());
+        assertEquals(47.2, route.getTrack().getLat(1), 0.0);
+        assertEquals(index.getLength(index.getCourse(2)), read(index.open(gpx, index.getCourse(2))).length);
+
+        TrackIndex copy = TrackIndex.fromBytes(index.toBytes());
+        assertNotNull(copy);
+        assertEquals(index.getEntries().size(), copy.getEntries().size());
+        assertEquals("Stage 1 & 2", copy.getCourse(0).name);
+        assertEquals(trk.end, copy.getCourse(0).end);
+    }
+
+    @Test
+    public void testSamples() throws Exception {
+        String[] samples = { "sample10.gpx", "sample11.gpx", "sample11-2.gpx", "sample11-3.gpx", "sample11-route.gpx", "sample2.gpx" };
+        for (String sample : samples) {
+            URL resource = getClass().getClassLoader().getResource(sample);
+            if (resource == null) throw new AssertionError();
+            File file = new File(resource.getFile());
+
+            TrackIndex index = TrackIndex.scan(file);
+
+            Gpx2Fit whole = new Gpx2Fit(sample, new FileInputStream(file), new Gpx2FitOptions().snapshot());
+            // the first course with points is the one read from the whole file
+            for (TrackIndex.Entry course : index.getCourses()) {
+                if (course.points == 0)
+                    continue;
+                assertEquals(sample, whole.getTrack().size(), course.points);
+                Gpx2Fit single = new Gpx2Fit(sample, index.open(file, course), new Gpx2FitOptions().snapshot());
+                assertEquals(sample, course.points, single.getTrack().size());
+                break;
+            }
+        }
+    }
+
+    @Test
+    public void testCache() throws Exception {
+        File gpx = write(MULTI_TRACK);
+        File dir = folder.newFolder();
+        TrackIndexCache cache = new TrackIndexCache(dir);
+        assertNull(cache.peek(gpx));
+        TrackIndex index = cache.get(gpx);
+        assertSame(index, cache.peek(gpx));
+
+        // persisted for the next run
+        TrackIndex restored = new TrackIndexCache(dir).peek(gpx);
+        assertNotNull(restored);
+        assertEquals(index.getEntries().size(), restored.getEntries().size());
+    }
+
+    @Test
+    public void testCacheBounded() throws Exception {
+        File gpx = write(MULTI_TRACK);
+        File dir = folder.newFolder();
+        TrackIndexCache cache = new TrackIndexCache(dir);
+        cache.get(gpx);
+        File[] first = dir.listFiles();
+        assertEquals(1, first.length);
+
+        // a new version replaces the index of the old one
+        assertTrue(gpx.setLastModified(gpx.lastModified() + 60000));
+        cache.get(gpx);
+        File[] second = dir.listFiles();
+        assertEquals(1, second.length);
+        assertFalse(first[0].getName().equals(second[0].getName()));
+
+        // the least recently used indexes beyond the limit are deleted on start
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < TrackIndexCache.MAX_FILES + 10; i++) {
+            File idx = new File(dir, "stale" + i + ".idx");
+            assertTrue(idx.createNewFile());
+            assertTrue(idx.setLastModified(now - 3600000 - i * 1000L));
+        }
+        new TrackIndexCache(dir);
+        assertEquals(TrackIndexCache.MAX_FILES, dir.listFiles().length);
+        assertTrue(second[0].exists());
+        assertTrue(new File(dir, "stale0.idx").exists());
+        assertFalse(new File(dir, "stale" + (TrackIndexCache.MAX_FILES + 9) + ".idx").exists());
+    }
+
+    private static File write(String content) throws IOException {
+        File file = File.createTempFile("multi", ".gpx");
+        file.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(content.getBytes("UTF-8"));
+        out.close();
+        return file;
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        int n;
+        while ((n = in.read(buf)) > 0)
+            out.write(buf, 0, n);
+        in.close();
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,126 @@
+package org.surfsite.gexporter.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import fi.iki.elonen.NanoHTTPD;
+
+/**
+ * A parsed GET request, handed to {@link NanoHTTPD#serve(NanoHTTPD.IHTTPSession)} without a socket.
+ */
+class BenchmarkSession implements NanoHTTPD.IHTTPSession {
+    private final String mUri;
+    private final Map<String, List<String>> mParameters = new HashMap<>();
+    private final Map<String, String> mHeaders = new HashMap<>();
+
+    BenchmarkSession(String uri) {
+        mUri = uri;
+    }
+
+    BenchmarkSession parameter(String name, String value) {
+        mParameters.put(name, Collections.singletonList(value));
+        return this;
+    }
+
+    /**
+     * Adds a request header, {@code name} in lower case like NanoHTTPD passes them.
+     */
+    BenchmarkSession header(String name, String value) {
+        mHeaders.put(name, value);
+        return this;
+    }
+
+    /**
+     * Serves the request and reads the whole response body, returns its length.
+     */
+    static long get(NanoHTTPD server, NanoHTTPD.IHTTPSession session) throws IOException {
+        NanoHTTPD.Response response = server.serve(session);
+        try {
+            InputStream data = response.getData();
+            if (data == null)
+                return 0;
+            byte[] buf = new byte[16384];
+            long length = 0;
+            int n;
+            while ((n = data.read(buf)) > 0)
+                length += n;
+            return length;
+        } finally {
+            response.close();
+        }
+    }
+
+    @Override
+    public void execute() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public NanoHTTPD.CookieHandler getCookies() {
+        return null;
+    }
+
+    @Override
+    public Map<String, String> getHeaders() {
+        return mHeaders;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return new ByteArrayInputStream(new byte[0]);
+    }
+
+    @Override
+    public NanoHTTPD.Method getMethod() {
+        return NanoHTTPD.Method.GET;
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public Map<String, String> getParms() {
+        Map<String, String> parms = new HashMap<>();
+        for (Map.Entry<String, List<String>> entry : mParameters.entrySet())
+            parms.put(entry.getKey(), entry.getValue().get(0));
+        return parms;
+    }
+
+    @Override
+    public Map<String, List<String>> getParameters() {
+        return mParameters;
+    }
+
+    @Override
+    public String getQueryParameterString() {
+        StringBuilder query = new StringBuilder();
+        for (Map.Entry<String, List<String>> entry : mParameters.entrySet()) {
+            if (query.length() > 0)
+                query.append('&');
+            query.append(entry.getKey()).append('=').append(entry.getValue().get(0));
+        }
+        return query.length() > 0 ? query.toString() : null;
+    }
+
+    @Override
+    public String getUri() {
+        return mUri;
+    }
+
+    @Override
+    public void parseBody(Map<String, String> files) {
+    }
+
+    @Override
+    public String getRemoteIpAddress() {
+        return "127.0.0.1";
+    }
+
+    @Override
+    public String getRemoteHostName() {
+        return "localhost";
+    }
+}
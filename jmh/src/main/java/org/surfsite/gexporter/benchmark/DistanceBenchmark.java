@@ -0,0 +1,71 @@
+package org.surfsite.gexporter.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.surfsite.gexporter.DistanceCalculator;
+import org.surfsite.gexporter.Gpx2Fit;
+import org.surfsite.gexporter.Gpx2FitOptions;
+import org.surfsite.gexporter.WayPoint;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Distance between consecutive points of a synthetic track, reported per point pair.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DistanceBenchmark {
+    private static final int POINTS = 10000;
+
+    @State(Scope.Benchmark)
+    public static class Calculator {
+        @Param({"VINCENTY", "ANDOYER"})
+        public DistanceCalculator.Mode mode;
+    }
+
+    private WayPoint[] mPoints;
+
+    @Setup
+    public void setup() throws Exception {
+        byte[] gpx = new GpxGenerator().points(POINTS + 1).toBytes();
+        List<WayPoint> points = new Gpx2Fit("benchmark", new ByteArrayInputStream(gpx), new Gpx2FitOptions().snapshot())
+                .getWaypoints();
+        mPoints = points.toArray(new WayPoint[points.size()]);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public double distance(Calculator calculator) {
+        DistanceCalculator.Mode mode = calculator.mode;
+        double sum = 0;
+        for (int i = 1; i < mPoints.length; i++)
+            sum += mPoints[i - 1].distance(mPoints[i], mode);
+        return sum;
+    }
+
+    // WayPoint.distance3D always uses Vincenty
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public double distance3D() {
+        double sum = 0;
+        for (int i = 1; i < mPoints.length; i++)
+            sum += mPoints[i - 1].distance3D(mPoints[i]);
+        return sum;
+    }
+}
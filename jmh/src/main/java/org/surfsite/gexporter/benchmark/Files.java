@@ -0,0 +1,26 @@
+package org.surfsite.gexporter.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+
+final class Files {
+    private Files() {
+    }
+
+    static File createTempDir(String prefix) throws IOException {
+        File dir = File.createTempFile(prefix, "");
+        if (!dir.delete() || !dir.mkdir())
+            throw new IOException("Creating " + dir + " failed");
+        return dir;
+    }
+
+    static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children)
+                deleteRecursively(child);
+        }
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+}
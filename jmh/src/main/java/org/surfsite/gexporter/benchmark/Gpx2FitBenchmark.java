@@ -0,0 +1,111 @@
+package org.surfsite.gexporter.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.surfsite.gexporter.Gpx2Fit;
+import org.surfsite.gexporter.Gpx2FitOptions;
+import org.surfsite.gexporter.Track;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * GPX parsing and FIT encoding, the two halves of a conversion.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class Gpx2FitBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Parsed {
+        Gpx2Fit gpx2Fit;
+        // forced speeds to alternate between
+        final Gpx2FitOptions.Snapshot[] speeds = new Gpx2FitOptions.Snapshot[2];
+        int next;
+
+        @Setup
+        public void parse(GpxDocument doc) throws Exception {
+            gpx2Fit = new Gpx2Fit("benchmark", new ByteArrayInputStream(doc.bytes), new Gpx2FitOptions().snapshot());
+            for (int i = 0; i < speeds.length; i++) {
+                Gpx2FitOptions options = new Gpx2FitOptions();
+                options.setForceSpeed(true);
+                options.setSpeed(2.0 + i);
+                speeds[i] = options.snapshot();
+            }
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class OnDisk {
+        File dir;
+        File file;
+
+        @Setup
+        public void write(GpxDocument doc) throws Exception {
+            dir = Files.createTempDir("benchmark");
+            file = doc.generator().toFile(dir);
+        }
+
+        @TearDown
+        public void delete() {
+            Files.deleteRecursively(dir);
+        }
+    }
+
+    @Benchmark
+    public Track parse(GpxDocument doc) throws Exception {
+        return new Gpx2Fit("benchmark", new ByteArrayInputStream(doc.bytes), new Gpx2FitOptions().snapshot()).getTrack();
+    }
+
+    /**
+     * A file read with the pull parser.
+     */
+    @Benchmark
+    public Track parseStream(OnDisk onDisk) throws Exception {
+        try (InputStream in = new FileInputStream(onDisk.file)) {
+            return new Gpx2Fit("benchmark", in, new Gpx2FitOptions().snapshot()).getTrack();
+        }
+    }
+
+    /**
+     * A file mapped and scanned byte by byte.
+     */
+    @Benchmark
+    public Track parseMapped(OnDisk onDisk) throws Exception {
+        return new Gpx2Fit("benchmark", onDisk.file, new Gpx2FitOptions().snapshot()).getTrack();
+    }
+
+    @Benchmark
+    public byte[] writeFit(Parsed parsed) {
+        return parsed.gpx2Fit.writeFit();
+    }
+
+    /**
+     * Conversion after the speed changed, which reuses the analysis of the track.
+     */
+    @Benchmark
+    public byte[] writeFitNewSpeed(Parsed parsed) {
+        parsed.next ^= 1;
+        return parsed.gpx2Fit.writeFit(parsed.speeds[parsed.next]);
+    }
+
+    @Benchmark
+    public byte[] convert(GpxDocument doc) throws Exception {
+        return new Gpx2Fit("benchmark", new ByteArrayInputStream(doc.bytes), new Gpx2FitOptions().snapshot()).writeFit();
+    }
+}
@@ -0,0 +1,48 @@
+package org.surfsite.gexporter.benchmark;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+
+/**
+ * A synthetic GPX document shared by all threads of a benchmark. The defaults cover the common case,
+ * other shapes are selected on the command line, e.g. {@code -p points=1000000 -p version=1.0,1.1}.
+ */
+@State(Scope.Benchmark)
+public class GpxDocument {
+    @Param({"1000", "100000"})
+    public int points;
+
+    @Param({"1.1"})
+    public String version;
+
+    @Param({"trk"})
+    public String kind;
+
+    @Param({"true"})
+    public boolean time;
+
+    @Param({"true"})
+    public boolean ele;
+
+    public byte[] bytes;
+
+    @Setup
+    public void generate() throws IOException {
+        bytes = generator().toBytes();
+    }
+
+    public GpxGenerator generator() {
+        if (!kind.equals("trk") && !kind.equals("rte"))
+            throw new IllegalArgumentException("Unknown kind " + kind);
+        return new GpxGenerator()
+                .points(points)
+                .version(version)
+                .route(kind.equals("rte"))
+                .time(time)
+                .ele(ele);
+    }
+}
@@ -0,0 +1,194 @@
+package org.surfsite.gexporter.benchmark;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ * Deterministic synthetic GPX documents: a random walk of {@link #points(int)} points around a fixed
+ * start, the same bytes for the same settings on every run and JVM.
+ */
+public class GpxGenerator {
+    // 2018-10-07T12:00:00Z
+    private static final long START_TIME = 1538913600000L;
+    private static final double START_LAT = 48.137154;
+    private static final double START_LON = 11.576124;
+    private static final double METERS_PER_DEGREE = 111320.0;
+
+    private int mPoints = 1000;
+    private String mVersion = "1.1";
+    private boolean mRoute;
+    private boolean mTime = true;
+    private boolean mEle = true;
+    private boolean mExtensions;
+    private long mSeed = 4711;
+
+    public GpxGenerator points(int points) {
+        mPoints = points;
+        return this;
+    }
+
+    /**
+     * GPX version, "1.0" or "1.1".
+     */
+    public GpxGenerator version(String version) {
+        if (!version.equals("1.0") && !version.equals("1.1"))
+            throw new IllegalArgumentException("Unknown GPX version " + version);
+        mVersion = version;
+        return this;
+    }
+
+    /**
+     * Whether the points are written as a {@code <rte>} instead of a {@code <trk>}.
+     */
+    public GpxGenerator route(boolean route) {
+        mRoute = route;
+        return this;
+    }
+
+    public GpxGenerator time(boolean time) {
+        mTime = time;
+        return this;
+    }
+
+    public GpxGenerator ele(boolean ele) {
+        mEle = ele;
+        return this;
+    }
+
+    /**
+     * Whether every point carries a heart rate and cadence extension, as written by fitness devices.
+     */
+    public GpxGenerator extensions(boolean extensions) {
+        mExtensions = extensions;
+        return this;
+    }
+
+    public GpxGenerator seed(long seed) {
+        mSeed = seed;
+        return this;
+    }
+
+    public byte[] toBytes() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(mPoints * 128 + 1024);
+        write(out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Writes the document to {@code dir}, named after the settings.
+     */
+    public File toFile(File dir) throws IOException {
+        File file = new File(dir, getName() + ".gpx");
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 65536);
+        try {
+            write(out);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    public String getName() {
+        return "synthetic-" + mPoints + "-gpx" + mVersion.replace(".", "") + (mRoute ? "-rte" : "-trk")
+                + (mTime ? "-time" : "") + (mEle ? "-ele" : "") + (mExtensions ? "-ext" : "") + "-" + mSeed;
+    }
+
+    public void write(OutputStream out) throws IOException {
+        Writer w = new OutputStreamWriter(out, "UTF-8");
+        boolean gpx10 = mVersion.equals("1.0");
+        SimpleDateFormat iso = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
+        iso.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+        w.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        w.write("<gpx version=\"" + mVersion + "\" creator=\"gexporter benchmark\"");
+        w.write(" xmlns=\"http://www.topografix.com/GPX/" + (gpx10 ? "1/0" : "1/1") + "\"");
+        if (mExtensions)
+            w.write(" xmlns:gpxtpx=\"http://www.garmin.com/xmlschemas/TrackPointExtension/v1\"");
+        w.write(">\n");
+        if (gpx10) {
+            w.write(" <name>" + getName() + "</name>\n");
+            w.write(" <time>" + iso.format(new Date(START_TIME)) + "</time>\n");
+        } else {
+            w.write(" <metadata>\n  <name>" + getName() + "</name>\n  <time>" + iso.format(new Date(START_TIME))
+                    + "</time>\n </metadata>\n");
+        }
+        String point = mRoute ? "rtept" : "trkpt";
+        if (mRoute) {
+            w.write(" <rte>\n  <name>" + getName() + "</name>\n");
+        } else {
+            w.write(" <trk>\n  <name>" + getName() + "</name>\n  <trkseg>\n");
+        }
+
+        Random random = new Random(mSeed);
+        // separate, so the extensions do not change the course
+        Random sensors = new Random(mSeed + 1);
+        double lat = START_LAT;
+        double lon = START_LON;
+        double ele = 520.0;
+        double heading = random.nextDouble() * 2 * Math.PI;
+        long time = START_TIME;
+        StringBuilder line = new StringBuilder(256);
+        for (int i = 0; i < mPoints; i++) {
+            line.setLength(0);
+            line.append("   <").append(point).append(" lat=\"");
+            appendFixed(line, lat, 7);
+            line.append("\" lon=\"");
+            appendFixed(line, lon, 7);
+            line.append("\">");
+            if (mEle) {
+                line.append("<ele>");
+                appendFixed(line, ele, 1);
+                line.append("</ele>");
+            }
+            if (mTime)
+                line.append("<time>").append(iso.format(new Date(time))).append("</time>");
+            if (mExtensions) {
+                line.append("<extensions><gpxtpx:TrackPointExtension><gpxtpx:hr>")
+                        .append(110 + sensors.nextInt(60))
+                        .append("</gpxtpx:hr><gpxtpx:cad>")
+                        .append(70 + sensors.nextInt(30))
+                        .append("</gpxtpx:cad></gpxtpx:TrackPointExtension></extensions>");
+            }
+            line.append("</").append(point).append(">\n");
+            w.append(line);
+
+            // 5 to 15 m per step, slowly turning, with gentle climbs and descents
+            double step = 5 + random.nextDouble() * 10;
+            heading += (random.nextDouble() - 0.5) * 0.5;
+            lat += step * Math.cos(heading) / METERS_PER_DEGREE;
+            lon += step * Math.sin(heading) / (METERS_PER_DEGREE * Math.cos(Math.toRadians(lat)));
+            ele = Math.max(0, ele + (random.nextDouble() - 0.5) * step * 0.2);
+            time += 1000 + random.nextInt(3) * 1000;
+        }
+
+        w.write(mRoute ? " </rte>\n" : "  </trkseg>\n </trk>\n");
+        w.write("</gpx>\n");
+        w.flush();
+    }
+
+    // locale independent, never in exponent notation
+    private static void appendFixed(StringBuilder sb, double value, int decimals) {
+        long scale = 1;
+        for (int i = 0; i < decimals; i++)
+            scale *= 10;
+        long scaled = Math.round(Math.abs(value) * scale);
+        if (value < 0 && scaled != 0)
+            sb.append('-');
+        sb.append(scaled / scale).append('.');
+        String fraction = Long.toString(scaled % scale);
+        for (int i = fraction.length(); i < decimals; i++)
+            sb.append('0');
+        sb.append(fraction);
+    }
+}
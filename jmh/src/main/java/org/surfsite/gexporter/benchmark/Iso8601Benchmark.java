@@ -0,0 +1,64 @@
+package org.surfsite.gexporter.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.surfsite.gexporter.Iso8601;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing the timestamp of a track point, reported per point.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class Iso8601Benchmark {
+    private static final int POINTS = 1000;
+
+    private char[][] mTimes;
+
+    @Setup
+    public void setup() {
+        mTimes = new char[POINTS][];
+        for (int i = 0; i < POINTS; i++)
+            mTimes[i] = String.format("2017-05-%02dT%02d:%02d:%02dZ", 1 + i % 28, i % 24, i % 60, (i * 7) % 60)
+                    .toCharArray();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public long iso8601() {
+        long sum = 0;
+        for (char[] s : mTimes)
+            sum += Iso8601.parse(s, 0, s.length);
+        return sum;
+    }
+
+    // what readTime used to do for every point
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public long simpleDateFormat() throws ParseException {
+        long sum = 0;
+        for (char[] s : mTimes) {
+            SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+            dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+            sum += dateFormat.parse(new String(s)).getTime();
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,83 @@
+package org.surfsite.gexporter.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.surfsite.gexporter.DirectoryCatalog;
+import org.surfsite.gexporter.Gpx2FitOptions;
+import org.surfsite.gexporter.WebServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@code /dir.json} listing of a directory of {@link #files} courses: rendering it after a change
+ * and serving the rendered listing.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ListingBenchmark {
+    @Param({"10", "1000"})
+    public int files;
+
+    private File mRootDir;
+    private File mCacheDir;
+    private WebServer mServer;
+    private DirectoryCatalog mCatalog;
+
+    @Setup
+    public void setup() throws Exception {
+        mRootDir = Files.createTempDir("listing-root");
+        mCacheDir = Files.createTempDir("listing-cache");
+        for (int i = 0; i < files; i++)
+            new GpxGenerator().points(10).seed(i).toFile(mRootDir);
+        mServer = new WebServer(mRootDir, mCacheDir, 0, new Gpx2FitOptions().snapshot());
+        // only the listing is measured, not the conversions it triggers
+        mServer.getPreConverter().shutdown();
+        mCatalog = mServer.getCatalog();
+        mCatalog.rescan();
+    }
+
+    @TearDown
+    public void tearDown() {
+        mServer.stop();
+        Files.deleteRecursively(mRootDir);
+        Files.deleteRecursively(mCacheDir);
+    }
+
+    @Benchmark
+    public byte[] render() {
+        mCatalog.refresh();
+        return mCatalog.getListing(false, false, false, 22222).json;
+    }
+
+    @Benchmark
+    public byte[] renderShort() {
+        mCatalog.refresh();
+        return mCatalog.getListing(false, true, true, 22222).json;
+    }
+
+    @Benchmark
+    public long getDir() throws IOException {
+        return BenchmarkSession.get(mServer, new BenchmarkSession("/dir.json"));
+    }
+
+    @Benchmark
+    public long getDirGzip() throws IOException {
+        return BenchmarkSession.get(mServer, new BenchmarkSession("/dir.json").header("accept-encoding", "gzip"));
+    }
+}
@@ -0,0 +1,48 @@
+package org.surfsite.gexporter.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.surfsite.gexporter.Histogram;
+import org.surfsite.gexporter.StripedCounter;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of recording a metric on the request path, with as many threads as connections record at once.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class MetricsBenchmark {
+    private final Histogram mHistogram = new Histogram();
+    private final StripedCounter mCounter = new StripedCounter();
+
+    @State(Scope.Thread)
+    public static class Values {
+        long next = 1;
+    }
+
+    @Benchmark
+    public void record(Values values) {
+        // spread over the buckets like request times in microseconds
+        values.next = values.next * 6364136223846793005L + 1442695040888963407L;
+        mHistogram.record((values.next >>> 40) & 0xFFFFF);
+    }
+
+    @Benchmark
+    public void count() {
+        mCounter.increment();
+    }
+}
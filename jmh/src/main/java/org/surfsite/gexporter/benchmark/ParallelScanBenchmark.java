@@ -0,0 +1,70 @@
+package org.surfsite.gexporter.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.surfsite.gexporter.Gpx2Fit;
+import org.surfsite.gexporter.Gpx2FitOptions;
+import org.surfsite.gexporter.Track;
+
+import java.io.File;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scanning a large file in chunks on a pool of {@code threads} threads, one thread scans it serially.
+ * Compare the scores of the thread counts for the speedup, e.g.
+ * {@code -p threads=1,2,4,8 -p points=2000000}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class ParallelScanBenchmark {
+    @Param({"1", "2", "4"})
+    public int threads;
+
+    @Param({"500000"})
+    public int points;
+
+    private File mDir;
+    private File mFile;
+    private ForkJoinPool mPool;
+
+    @Setup
+    public void setup() throws Exception {
+        mDir = Files.createTempDir("benchmark");
+        mFile = new GpxGenerator().points(points).toFile(mDir);
+        mPool = new ForkJoinPool(threads);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mPool.shutdown();
+        Files.deleteRecursively(mDir);
+    }
+
+    @Benchmark
+    public Track parse() throws Exception {
+        return new Gpx2Fit("benchmark", mFile, new Gpx2FitOptions().snapshot(), mPool, threads).getTrack();
+    }
+
+    /**
+     * Including the analysis of the track, whose segment lengths the chunks compute.
+     */
+    @Benchmark
+    public byte[] convert() throws Exception {
+        return new Gpx2Fit("benchmark", mFile, new Gpx2FitOptions().snapshot(), mPool, threads).writeFit();
+    }
+}
@@ -0,0 +1,80 @@
+package org.surfsite.gexporter.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.surfsite.gexporter.Gpx2FitOptions;
+import org.surfsite.gexporter.WebServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A GET of a course through {@link WebServer#serve}, from the parsed request to the last byte of the
+ * response: a FIT file from the conversion cache, a FIT file converted for every request and the GPX
+ * file itself.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class ServeBenchmark {
+    private File mRootDir;
+    private File mCacheDir;
+    private File mUncachedDir;
+    private WebServer mServer;
+    private WebServer mUncachedServer;
+    private String mUri;
+
+    @Setup
+    public void setup(GpxDocument doc) throws Exception {
+        mRootDir = Files.createTempDir("serve-root");
+        mCacheDir = Files.createTempDir("serve-cache");
+        mUncachedDir = Files.createTempDir("serve-uncached");
+        mUri = "/" + doc.generator().toFile(mRootDir).getName();
+
+        mServer = new WebServer(mRootDir, mCacheDir, 0, new Gpx2FitOptions().snapshot());
+        mServer.getPreConverter().shutdown();
+        // fills the cache, the file is written behind
+        BenchmarkSession.get(mServer, new BenchmarkSession(mUri));
+
+        mUncachedServer = new WebServer(mRootDir, mUncachedDir, 0, new Gpx2FitOptions().snapshot());
+        mUncachedServer.getPreConverter().shutdown();
+        mUncachedServer.setPersistentCache(false);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mServer.stop();
+        mUncachedServer.stop();
+        Files.deleteRecursively(mRootDir);
+        Files.deleteRecursively(mCacheDir);
+        Files.deleteRecursively(mUncachedDir);
+    }
+
+    @Benchmark
+    public long getFitCached() throws IOException {
+        return BenchmarkSession.get(mServer, new BenchmarkSession(mUri));
+    }
+
+    @Benchmark
+    public long getFitConverted() throws IOException {
+        return BenchmarkSession.get(mUncachedServer, new BenchmarkSession(mUri));
+    }
+
+    @Benchmark
+    public long getGpx() throws IOException {
+        return BenchmarkSession.get(mServer, new BenchmarkSession(mUri).parameter("type", "GPX"));
+    }
+}
@@ -0,0 +1,56 @@
+package org.surfsite.gexporter.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.surfsite.gexporter.Gpx2Fit;
+import org.surfsite.gexporter.Gpx2FitOptions;
+import org.surfsite.gexporter.Track;
+import org.surfsite.gexporter.TrackSimplifier;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reducing a track to the point budget of a watch. The default size is that of {@code sample2.gpx},
+ * about 20000 points.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SimplifierBenchmark {
+    @Param({"DOUGLAS_PEUCKER", "VISVALINGAM_WHYATT"})
+    public TrackSimplifier.Method method;
+
+    @Param({"20000"})
+    public int points;
+
+    @Param({"1000"})
+    public int maxPoints;
+
+    private Track mTrack;
+    private TrackSimplifier mSimplifier;
+
+    @Setup
+    public void setup() throws Exception {
+        byte[] gpx = new GpxGenerator().points(points).toBytes();
+        mTrack = new Gpx2Fit("benchmark", new ByteArrayInputStream(gpx), new Gpx2FitOptions().snapshot()).getTrack();
+        mSimplifier = TrackSimplifier.create(method);
+    }
+
+    @Benchmark
+    public boolean[] simplify() {
+        return mSimplifier.simplify(mTrack, maxPoints);
+    }
+}